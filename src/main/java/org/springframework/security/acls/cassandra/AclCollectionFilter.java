@@ -0,0 +1,168 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.security.acls.AclPermissionEvaluator;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.ObjectIdentityRetrievalStrategyImpl;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.domain.SidRetrievalStrategyImpl;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.ObjectIdentityRetrievalStrategy;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.SidRetrievalStrategy;
+import org.springframework.security.core.Authentication;
+import org.springframework.util.Assert;
+
+/**
+ * Filters collections of domain objects by permission, loading the {@link Acl} instances of all objects, 
+ * including their parents, with a single bulk call to {@link CassandraAclService#readExistingAclsById(List, List)}. 
+ * Each domain object is kept if {@link AclPermissionEvaluator} would grant the permission on it. It can replace 
+ * <code>@PostFilter("hasPermission(filterObject, ...)")</code> on methods returning large collections, which 
+ * reads the {@link Acl} of each element separately.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+public class AclCollectionFilter {
+
+	private static final Log LOG = LogFactory.getLog(AclCollectionFilter.class);
+
+	private final CassandraAclService aclService;
+	private ObjectIdentityRetrievalStrategy objectIdentityRetrievalStrategy = new ObjectIdentityRetrievalStrategyImpl();
+	private SidRetrievalStrategy sidRetrievalStrategy = new SidRetrievalStrategyImpl();
+	private PermissionFactory permissionFactory = new DefaultPermissionFactory();
+
+	/**
+	 * Constructs a new <code>AclCollectionFilter</code> object.
+	 * 
+	 * @param aclService the {@link CassandraAclService} to load the {@link Acl} instances with.
+	 */
+	public AclCollectionFilter(CassandraAclService aclService) {
+		Assert.notNull(aclService, "CassandraAclService required");
+		this.aclService = aclService;
+	}
+
+	/**
+	 * Returns the domain objects the provided {@link Authentication} has the requested permission on.
+	 * 
+	 * @param authentication the {@link Authentication} to check the permissions of.
+	 * @param domainObjects the domain objects to filter. <code>null</code> elements are removed.
+	 * @param permission the requested permission, in any of the forms accepted by {@link AclPermissionEvaluator}.
+	 * @return a new list with the permitted domain objects, in their original order.
+	 */
+	public <T> List<T> filter(Authentication authentication, Collection<T> domainObjects, Object permission) {
+		Assert.notNull(domainObjects, "Domain objects required");
+		
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN filter: domainObjects: " + domainObjects.size() + ", permission: " + permission);
+		}
+		
+		List<Sid> sids = sidRetrievalStrategy.getSids(authentication);
+		List<Permission> permissions = PermissionResolver.resolvePermission(permissionFactory, permission);
+		
+		List<ObjectIdentity> objectIdentities = new ArrayList<ObjectIdentity>(domainObjects.size());
+		Set<ObjectIdentity> objectsToLookup = new LinkedHashSet<ObjectIdentity>();
+		for (T domainObject : domainObjects) {
+			ObjectIdentity objectIdentity = domainObject != null ? objectIdentityRetrievalStrategy.getObjectIdentity(domainObject) : null;
+			objectIdentities.add(objectIdentity);
+			if (objectIdentity != null) {
+				objectsToLookup.add(objectIdentity);
+			}
+		}
+		
+		List<T> result = new ArrayList<T>();
+		if (objectsToLookup.isEmpty()) {
+			return result;
+		}
+		
+		Map<ObjectIdentity, Acl> acls = aclService.readExistingAclsById(new ArrayList<ObjectIdentity>(objectsToLookup), sids);
+		Map<ObjectIdentity, Boolean> decisions = new HashMap<ObjectIdentity, Boolean>();
+		Iterator<ObjectIdentity> objectIdentityIterator = objectIdentities.iterator();
+		for (T domainObject : domainObjects) {
+			ObjectIdentity objectIdentity = objectIdentityIterator.next();
+			if (objectIdentity == null) {
+				continue;
+			}
+			
+			Boolean granted = decisions.get(objectIdentity);
+			if (granted == null) {
+				granted = isGranted(acls.get(objectIdentity), permissions, sids);
+				decisions.put(objectIdentity, granted);
+			}
+			if (granted) {
+				result.add(domainObject);
+			}
+		}
+		
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("END filter: permitted: " + result.size());
+		}
+		return result;
+	}
+
+	/**
+	 * @param acl the {@link Acl} to check, may be <code>null</code>.
+	 * @param permissions the requested permissions.
+	 * @param sids the {@link Sid} objects of the current principal.
+	 * @return true if any of the permissions is granted.
+	 */
+	private boolean isGranted(Acl acl, List<Permission> permissions, List<Sid> sids) {
+		if (acl == null) {
+			return false;
+		}
+		try {
+			return acl.isGranted(permissions, sids, false);
+		} catch (NotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param objectIdentityRetrievalStrategy the {@link ObjectIdentityRetrievalStrategy} to use.
+	 */
+	public void setObjectIdentityRetrievalStrategy(ObjectIdentityRetrievalStrategy objectIdentityRetrievalStrategy) {
+		this.objectIdentityRetrievalStrategy = objectIdentityRetrievalStrategy;
+	}
+
+	/**
+	 * @param sidRetrievalStrategy the {@link SidRetrievalStrategy} to use.
+	 */
+	public void setSidRetrievalStrategy(SidRetrievalStrategy sidRetrievalStrategy) {
+		this.sidRetrievalStrategy = sidRetrievalStrategy;
+	}
+
+	/**
+	 * @param permissionFactory the {@link PermissionFactory} to use.
+	 */
+	public void setPermissionFactory(PermissionFactory permissionFactory) {
+		this.permissionFactory = permissionFactory;
+	}
+
+}
@@ -0,0 +1,40 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra;
+
+import java.util.List;
+
+import org.springframework.security.acls.model.ObjectIdentity;
+
+/**
+ * Receives the progress of deletions performed by the {@link CassandraMutableAclService}. 
+ * Deletions of large hierarchies are performed in chunks, and the listener is notified after each chunk.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+public interface AclDeletionListener {
+
+	/**
+	 * Called after a chunk of objects has been deleted.
+	 * 
+	 * @param objectIdentity the {@link ObjectIdentity} passed to <code>deleteAcl</code>.
+	 * @param deletedObjects the objects deleted with this chunk.
+	 * @param deletedCount the number of objects deleted so far, including this chunk.
+	 * @param totalCount the total number of objects to delete.
+	 */
+	void aclsDeleted(ObjectIdentity objectIdentity, List<ObjectIdentity> deletedObjects, int deletedCount, int totalCount);
+
+}
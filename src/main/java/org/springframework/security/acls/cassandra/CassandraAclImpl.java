@@ -0,0 +1,448 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import org.springframework.security.acls.cassandra.model.AclEntry;
+import org.springframework.security.acls.cassandra.model.AclObjectIdentity;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.DefaultPermissionGrantingStrategy;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AuditableAcl;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.OwnershipAcl;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.UnloadedSidException;
+import org.springframework.util.Assert;
+
+/**
+ * {@link Acl} loaded by the {@link CassandraAclService}, keeping the state it was loaded in. 
+ * The loaded state allows <code>updateAcl</code> to write the changes made to the Acl without 
+ * reading the persisted state again.
+ * <p>
+ * Behaves like {@link org.springframework.security.acls.domain.AclImpl}, but keeps its entries packed in 
+ * {@link PackedAclEntries} that are never changed once published. Reads need no locking and mutators replace 
+ * the entries with an updated copy, so that permission checks running at the same time keep working on a 
+ * consistent snapshot. The {@link AccessControlEntry} objects are only built when the entries are asked for.
+ * <p>
+ * When packed permission checks are enabled and the {@link DefaultPermissionGrantingStrategy} is used, permission 
+ * checks run directly on the packed entries. The strategy, and so its {@link org.springframework.security.acls.domain.AuditLogger}, 
+ * is then only called when the matching entry has auditing enabled, which suits the 
+ * {@link org.springframework.security.acls.domain.ConsoleAuditLogger} but not loggers recording every check.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+public class CassandraAclImpl implements AuditableAcl, OwnershipAcl {
+
+	private static final long serialVersionUID = 2L;
+	
+	private static final AtomicReferenceFieldUpdater<CassandraAclImpl, PackedAclEntries> ENTRIES_UPDATER = 
+			AtomicReferenceFieldUpdater.newUpdater(CassandraAclImpl.class, PackedAclEntries.class, "entries");
+
+	private final ObjectIdentity objectIdentity;
+	private final Serializable id;
+	private final String rowId;
+	// Not kept when serialized, same as in AclImpl, and set again with initializeTransientFields
+	// aclAuthorizationStrategy is written last, as it marks the fields as set
+	private transient volatile AclAuthorizationStrategy aclAuthorizationStrategy;
+	private transient volatile PermissionGrantingStrategy permissionGrantingStrategy;
+	private transient volatile PermissionFactory permissionFactory;
+	private final boolean packedPermissionChecks;
+	private final Sid[] loadedSids;
+	private volatile Acl parentAcl;
+	private volatile boolean entriesInheriting;
+	private volatile Sid owner;
+	private volatile PackedAclEntries entries;
+
+	// Not kept when serialized, updates of deserialized Acls read the persisted state instead
+	private final transient AclObjectIdentity loadedObjectIdentity;
+	private final transient PackedAclEntries loadedEntries;
+
+	/**
+	 * Constructs a new <code>CassandraAclImpl</code> out of the loaded data. The loaded state is kept
+	 * when all entries were loaded.
+	 * 
+	 * @param aclObjectIdentity the {@link AclObjectIdentity} holding the basic Acl data.
+	 * @param aclEntries the {@link AclEntry} objects of the Acl, in the order of its entries.
+	 * @param parentAcl the parent {@link Acl} (may be <code>null</code>).
+	 * @param loadedSids the {@link Sid} objects whose entries were loaded (may be <code>null</code> to denote all entries).
+	 * @param aclAuthorizationStrategy the {@link AclAuthorizationStrategy} of the Acl.
+	 * @param grantingStrategy the {@link PermissionGrantingStrategy} of the Acl.
+	 * @param permissionFactory the {@link PermissionFactory} to use when creating {@link AccessControlEntry} objects.
+	 */
+	public CassandraAclImpl(AclObjectIdentity aclObjectIdentity, Collection<AclEntry> aclEntries, Acl parentAcl, List<Sid> loadedSids, 
+			AclAuthorizationStrategy aclAuthorizationStrategy, PermissionGrantingStrategy grantingStrategy, PermissionFactory permissionFactory) {
+		this(aclObjectIdentity, aclEntries, parentAcl, loadedSids, aclAuthorizationStrategy, grantingStrategy, permissionFactory, false);
+	}
+
+	/**
+	 * Constructs a new <code>CassandraAclImpl</code> out of the loaded data. The loaded state is kept
+	 * when all entries were loaded.
+	 * 
+	 * @param aclObjectIdentity the {@link AclObjectIdentity} holding the basic Acl data.
+	 * @param aclEntries the {@link AclEntry} objects of the Acl, in the order of its entries.
+	 * @param parentAcl the parent {@link Acl} (may be <code>null</code>).
+	 * @param loadedSids the {@link Sid} objects whose entries were loaded (may be <code>null</code> to denote all entries).
+	 * @param aclAuthorizationStrategy the {@link AclAuthorizationStrategy} of the Acl.
+	 * @param grantingStrategy the {@link PermissionGrantingStrategy} of the Acl.
+	 * @param permissionFactory the {@link PermissionFactory} to use when creating {@link AccessControlEntry} objects.
+	 * @param packedPermissionChecks whether permission checks of the {@link DefaultPermissionGrantingStrategy} run 
+	 * 		on the packed entries, skipping the {@link org.springframework.security.acls.domain.AuditLogger} for entries without auditing.
+	 */
+	public CassandraAclImpl(AclObjectIdentity aclObjectIdentity, Collection<AclEntry> aclEntries, Acl parentAcl, List<Sid> loadedSids, 
+			AclAuthorizationStrategy aclAuthorizationStrategy, PermissionGrantingStrategy grantingStrategy, PermissionFactory permissionFactory, 
+			boolean packedPermissionChecks) {
+		Assert.notNull(aclObjectIdentity, "AclObjectIdentity required");
+		Assert.notNull(aclEntries, "AclEntries required");
+		Assert.notNull(aclAuthorizationStrategy, "AclAuthorizationStrategy required");
+		Assert.notNull(grantingStrategy, "PermissionGrantingStrategy required");
+		Assert.notNull(permissionFactory, "PermissionFactory required");
+		this.objectIdentity = aclObjectIdentity.toObjectIdentity();
+		this.id = aclObjectIdentity.getId();
+		this.rowId = aclObjectIdentity.getRowId();
+		this.aclAuthorizationStrategy = aclAuthorizationStrategy;
+		this.permissionGrantingStrategy = grantingStrategy;
+		this.permissionFactory = permissionFactory;
+		this.packedPermissionChecks = packedPermissionChecks;
+		this.parentAcl = parentAcl;
+		this.loadedSids = loadedSids == null ? null : loadedSids.toArray(new Sid[loadedSids.size()]);
+		this.entriesInheriting = aclObjectIdentity.isEntriesInheriting();
+		this.owner = aclObjectIdentity.getOwnerSid();
+		// Entries are kept in iteration order, their stored order has gaps when only the entries of some Sids were loaded
+		this.entries = PackedAclEntries.pack(rowId, aclEntries);
+
+		// The loaded entries are the initial packed entries, shared until the Acl is changed
+		boolean fullyLoaded = isFullyLoaded();
+		this.loadedObjectIdentity = fullyLoaded ? aclObjectIdentity : null;
+		this.loadedEntries = fullyLoaded ? entries : null;
+	}
+
+	/**
+	 * Sets the strategies and the {@link PermissionFactory} of a deserialized Acl, which are not serialized along with it. 
+	 * Must be called before a deserialized Acl is used, as done by the {@link CassandraAclService} for Acls read from the cache. 
+	 * Acls whose strategies are set are left unchanged.
+	 * 
+	 * @param aclAuthorizationStrategy the {@link AclAuthorizationStrategy} of the Acl.
+	 * @param grantingStrategy the {@link PermissionGrantingStrategy} of the Acl.
+	 * @param permissionFactory the {@link PermissionFactory} to use when creating {@link AccessControlEntry} objects.
+	 * @return whether the strategies had to be set.
+	 */
+	public boolean initializeTransientFields(AclAuthorizationStrategy aclAuthorizationStrategy, PermissionGrantingStrategy grantingStrategy, 
+			PermissionFactory permissionFactory) {
+		if (this.aclAuthorizationStrategy != null) {
+			return false;
+		}
+		Assert.notNull(aclAuthorizationStrategy, "AclAuthorizationStrategy required");
+		Assert.notNull(grantingStrategy, "PermissionGrantingStrategy required");
+		Assert.notNull(permissionFactory, "PermissionFactory required");
+		this.permissionFactory = permissionFactory;
+		this.permissionGrantingStrategy = grantingStrategy;
+		this.aclAuthorizationStrategy = aclAuthorizationStrategy;
+		return true;
+	}
+
+	/**
+	 * @return the {@link AclObjectIdentity} as loaded from the database, including its version, 
+	 * 		or <code>null</code> if not available.
+	 */
+	public AclObjectIdentity getLoadedObjectIdentity() {
+		return loadedObjectIdentity;
+	}
+
+	/**
+	 * @return the {@link AclEntry} objects as loaded from the database, or <code>null</code> if not available.
+	 */
+	public List<AclEntry> getLoadedEntries() {
+		return loadedEntries == null ? null : loadedEntries.toAclEntries(rowId);
+	}
+
+	/**
+	 * @return whether the Acl holds the entries of all {@link Sid} objects, rather than those of specific {@link Sid} objects only.
+	 */
+	public boolean isFullyLoaded() {
+		return loadedSids == null || loadedSids.length == 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.Acl#getEntries()
+	 */
+	public List<AccessControlEntry> getEntries() {
+		// Built on every call, so that cached Acls only hold the packed entries
+		return Collections.unmodifiableList(Arrays.asList(entries.toAccessControlEntries(this, rowId, permissionFactory)));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.MutableAcl#getId()
+	 */
+	public Serializable getId() {
+		return id;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.Acl#getObjectIdentity()
+	 */
+	public ObjectIdentity getObjectIdentity() {
+		return objectIdentity;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.Acl#getOwner()
+	 */
+	public Sid getOwner() {
+		return owner;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.Acl#getParentAcl()
+	 */
+	public Acl getParentAcl() {
+		return parentAcl;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.Acl#isEntriesInheriting()
+	 */
+	public boolean isEntriesInheriting() {
+		return entriesInheriting;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.Acl#isGranted(java.util.List, java.util.List, boolean)
+	 */
+	public boolean isGranted(List<Permission> permission, List<Sid> sids, boolean administrativeMode) throws NotFoundException,
+			UnloadedSidException {
+		Assert.notEmpty(permission, "Permissions required");
+		Assert.notEmpty(sids, "SIDs required");
+
+		if (!isSidLoaded(sids)) {
+			throw new UnloadedSidException("ACL was not loaded for one or more SID");
+		}
+		if (packedPermissionChecks && permissionGrantingStrategy.getClass() == DefaultPermissionGrantingStrategy.class) {
+			switch (entries.check(permission, sids, administrativeMode)) {
+			case PackedAclEntries.GRANTED:
+				return true;
+			case PackedAclEntries.DENIED:
+				return false;
+			case PackedAclEntries.NOT_FOUND:
+				Acl parent = parentAcl;
+				if (entriesInheriting && parent != null) {
+					return parent.isGranted(permission, sids, false);
+				}
+				throw new NotFoundException("Unable to locate a matching ACE for passed permissions and SIDs");
+			default:
+				// Auditing needs the AccessControlEntry objects, the strategy makes the check
+			}
+		}
+		return permissionGrantingStrategy.isGranted(this, permission, sids, administrativeMode);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.Acl#isSidLoaded(java.util.List)
+	 */
+	public boolean isSidLoaded(List<Sid> sids) {
+		if (isFullyLoaded() || sids == null || sids.isEmpty()) {
+			return true;
+		}
+		for (Sid sid : sids) {
+			boolean found = false;
+			for (Sid loadedSid : loadedSids) {
+				if (sid.equals(loadedSid)) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.MutableAcl#insertAce(int, org.springframework.security.acls.model.Permission, org.springframework.security.acls.model.Sid, boolean)
+	 */
+	public void insertAce(int atIndexLocation, Permission permission, Sid sid, boolean granting) throws NotFoundException {
+		aclAuthorizationStrategy.securityCheck(this, AclAuthorizationStrategy.CHANGE_GENERAL);
+		Assert.notNull(permission, "Permission required");
+		Assert.notNull(sid, "Sid required");
+		
+		PackedAclEntries current;
+		PackedAclEntries updated;
+		do {
+			current = entries;
+			if (atIndexLocation < 0) {
+				throw new NotFoundException("atIndexLocation must be greater than or equal to zero");
+			}
+			if (atIndexLocation > current.size()) {
+				throw new NotFoundException("atIndexLocation must be less than or equal to the size of the AccessControlEntry collection");
+			}
+			updated = current.insert(atIndexLocation, rowId, sid, permission.getMask(), granting);
+		} while (!ENTRIES_UPDATER.compareAndSet(this, current, updated));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.MutableAcl#deleteAce(int)
+	 */
+	public void deleteAce(int aceIndex) throws NotFoundException {
+		aclAuthorizationStrategy.securityCheck(this, AclAuthorizationStrategy.CHANGE_GENERAL);
+		
+		PackedAclEntries current;
+		PackedAclEntries updated;
+		do {
+			current = entries;
+			verifyAceIndexExists(current, aceIndex);
+			updated = current.delete(aceIndex);
+		} while (!ENTRIES_UPDATER.compareAndSet(this, current, updated));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.MutableAcl#updateAce(int, org.springframework.security.acls.model.Permission)
+	 */
+	public void updateAce(int aceIndex, Permission permission) throws NotFoundException {
+		aclAuthorizationStrategy.securityCheck(this, AclAuthorizationStrategy.CHANGE_GENERAL);
+		Assert.notNull(permission, "Permission required");
+		
+		PackedAclEntries current;
+		PackedAclEntries updated;
+		do {
+			current = entries;
+			verifyAceIndexExists(current, aceIndex);
+			updated = current.updateMask(aceIndex, permission.getMask());
+		} while (!ENTRIES_UPDATER.compareAndSet(this, current, updated));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.AuditableAcl#updateAuditing(int, boolean, boolean)
+	 */
+	public void updateAuditing(int aceIndex, boolean auditSuccess, boolean auditFailure) {
+		aclAuthorizationStrategy.securityCheck(this, AclAuthorizationStrategy.CHANGE_AUDITING);
+		
+		PackedAclEntries current;
+		PackedAclEntries updated;
+		do {
+			current = entries;
+			verifyAceIndexExists(current, aceIndex);
+			updated = current.updateAuditing(aceIndex, auditSuccess, auditFailure);
+		} while (!ENTRIES_UPDATER.compareAndSet(this, current, updated));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.MutableAcl#setEntriesInheriting(boolean)
+	 */
+	public void setEntriesInheriting(boolean entriesInheriting) {
+		aclAuthorizationStrategy.securityCheck(this, AclAuthorizationStrategy.CHANGE_GENERAL);
+		this.entriesInheriting = entriesInheriting;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.MutableAcl#setOwner(org.springframework.security.acls.model.Sid)
+	 */
+	public void setOwner(Sid newOwner) {
+		aclAuthorizationStrategy.securityCheck(this, AclAuthorizationStrategy.CHANGE_OWNERSHIP);
+		Assert.notNull(newOwner, "Owner required");
+		this.owner = newOwner;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.MutableAcl#setParent(org.springframework.security.acls.model.Acl)
+	 */
+	public void setParent(Acl newParent) {
+		aclAuthorizationStrategy.securityCheck(this, AclAuthorizationStrategy.CHANGE_GENERAL);
+		Assert.isTrue(newParent == null || !newParent.equals(this), "Cannot be the parent of yourself");
+		this.parentAcl = newParent;
+	}
+
+	private void verifyAceIndexExists(PackedAclEntries current, int aceIndex) {
+		if (aceIndex < 0) {
+			throw new NotFoundException("aceIndex must be greater than or equal to zero");
+		}
+		if (aceIndex >= current.size()) {
+			throw new NotFoundException("aceIndex must refer to an index of the AccessControlEntry list. " + "List size is "
+					+ current.size() + ", index was " + aceIndex);
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof CassandraAclImpl)) {
+			return false;
+		}
+		CassandraAclImpl other = (CassandraAclImpl) obj;
+		if (id == null ? other.id != null : !id.equals(other.id)) {
+			return false;
+		}
+		if (!objectIdentity.equals(other.objectIdentity)) {
+			return false;
+		}
+		if (owner == null ? other.owner != null : !owner.equals(other.owner)) {
+			return false;
+		}
+		if (parentAcl == null ? other.parentAcl != null : !parentAcl.equals(other.parentAcl)) {
+			return false;
+		}
+		return entriesInheriting == other.entriesInheriting && Arrays.equals(loadedSids, other.loadedSids) 
+				&& getEntries().equals(other.getEntries());
+	}
+
+	@Override
+	public int hashCode() {
+		int result = objectIdentity.hashCode();
+		result = 31 * result + (id == null ? 0 : id.hashCode());
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("CassandraAclImpl[");
+		sb.append("id: ").append(id).append("; ");
+		sb.append("objectIdentity: ").append(objectIdentity).append("; ");
+		sb.append("owner: ").append(owner).append("; ");
+
+		List<AccessControlEntry> current = getEntries();
+		if (current.isEmpty()) {
+			sb.append("no ACEs; ");
+		}
+		for (AccessControlEntry ace : current) {
+			sb.append("\n  ").append(ace).append("; ");
+		}
+		if (!current.isEmpty()) {
+			sb.append("\n");
+		}
+
+		sb.append("inheriting: ").append(entriesInheriting).append("; ");
+		sb.append("parent: ").append(parentAcl == null ? "Null" : parentAcl.getObjectIdentity().toString()).append("; ");
+		sb.append("aclAuthorizationStrategy: ").append(aclAuthorizationStrategy).append("; ");
+		sb.append("permissionGrantingStrategy: ").append(permissionGrantingStrategy);
+		sb.append("]");
+		return sb.toString();
+	}
+
+}
@@ -14,36 +14,43 @@
  */
 package org.springframework.security.acls.cassandra;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.LinkedHashMap;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.security.acls.cassandra.cache.InterningPermissionFactory;
 import org.springframework.security.acls.cassandra.model.AclEntry;
+import org.springframework.security.acls.cassandra.model.AclObjectEntries;
 import org.springframework.security.acls.cassandra.model.AclObjectIdentity;
+import org.springframework.security.acls.cassandra.model.AclPage;
 import org.springframework.security.acls.cassandra.repository.CassandraAclRepository;
-import org.springframework.security.acls.domain.AccessControlEntryImpl;
 import org.springframework.security.acls.domain.AclAuthorizationStrategy;
-import org.springframework.security.acls.domain.AclImpl;
-import org.springframework.security.acls.domain.ObjectIdentityImpl;
 import org.springframework.security.acls.domain.PermissionFactory;
 import org.springframework.security.acls.model.AccessControlEntry;
 import org.springframework.security.acls.model.Acl;
 import org.springframework.security.acls.model.AclCache;
 import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.MutableAcl;
 import org.springframework.security.acls.model.NotFoundException;
 import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
 import org.springframework.security.acls.model.PermissionGrantingStrategy;
 import org.springframework.security.acls.model.Sid;
-import org.springframework.security.util.FieldUtils;
 import org.springframework.util.Assert;
 
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
 /**
  * Implementation of {@link AclService} using the {@link CassandraAclRepository} to access ACLs stored in Cassandra.
  * 
@@ -59,8 +66,11 @@ public class CassandraAclService implements AclService {
 	private PermissionFactory permissionFactory;
 	private AclAuthorizationStrategy aclAuthorizationStrategy;
 	private PermissionGrantingStrategy grantingStrategy;
+	private boolean ancestorPrefetchEnabled = false;
+	private boolean sidFilteringEnabled = false;
+	private boolean packedPermissionChecksEnabled = false;
 
-	private final Field fieldAces = FieldUtils.getField(AclImpl.class, "aces");
+	private final ConcurrentMap<LookupKey, SettableFuture<Acl>> inFlightLookups = new ConcurrentHashMap<LookupKey, SettableFuture<Acl>>();
 
 	/**
 	 * Constructs a new <code>CassandraAclService</code> object.
@@ -77,8 +87,69 @@ public class CassandraAclService implements AclService {
 		this.aclCache = aclCache;
 		this.grantingStrategy = grantingStrategy;
 		this.aclAuthorizationStrategy = aclAuthorizationStrategy;
-		this.permissionFactory = permissionFactory;
-		this.fieldAces.setAccessible(true);
+		// Permissions are rebuilt from their masks whenever entries are read, so one instance per mask is shared
+		this.permissionFactory = permissionFactory == null ? null : new InterningPermissionFactory(permissionFactory);
+	}
+
+	/**
+	 * @return whether stored ancestor paths are used to load the ancestors of the requested objects up front.
+	 */
+	public boolean isAncestorPrefetchEnabled() {
+		return ancestorPrefetchEnabled;
+	}
+
+	/**
+	 * Sets whether the ancestors of the requested objects are loaded together with the objects themselves, 
+	 * using the ancestor paths stored by the {@link CassandraAclRepository}. This turns the level by level 
+	 * resolution of deep hierarchies into two round trips. Requires ancestor paths to be enabled on the repository. 
+	 * Defaults to <code>false</code>.
+	 * 
+	 * @param ancestorPrefetchEnabled whether ancestors should be prefetched.
+	 */
+	public void setAncestorPrefetchEnabled(boolean ancestorPrefetchEnabled) {
+		this.ancestorPrefetchEnabled = ancestorPrefetchEnabled;
+	}
+
+	/**
+	 * @return whether {@link Acl} instances requested for specific {@link Sid} objects are loaded with the entries of those {@link Sid} objects only.
+	 */
+	public boolean isSidFilteringEnabled() {
+		return sidFilteringEnabled;
+	}
+
+	/**
+	 * Sets whether {@link #readAclsById(List, List)} only reads the entries of the requested {@link Sid} objects. 
+	 * Objects shared by many users can hold thousands of entries, of which an authorization check needs a handful. 
+	 * The returned {@link Acl} instances, and those of their parents, are then partially loaded and can only be used 
+	 * for the requested {@link Sid} objects. Partially loaded {@link Acl} instances are never returned for lookups 
+	 * requesting all entries, and cannot be updated. Defaults to <code>false</code>.
+	 * 
+	 * @param sidFilteringEnabled whether reads should be restricted to the requested {@link Sid} objects.
+	 */
+	public void setSidFilteringEnabled(boolean sidFilteringEnabled) {
+		this.sidFilteringEnabled = sidFilteringEnabled;
+	}
+
+	/**
+	 * @return whether permission checks of the created {@link Acl} instances run on their packed entries.
+	 */
+	public boolean isPackedPermissionChecksEnabled() {
+		return packedPermissionChecksEnabled;
+	}
+
+	/**
+	 * Sets whether the created {@link CassandraAclImpl} instances check permissions directly on their packed entries 
+	 * when the {@link org.springframework.security.acls.domain.DefaultPermissionGrantingStrategy} is used, instead of 
+	 * building {@link AccessControlEntry} objects for the strategy. The strategy, and so its 
+	 * {@link org.springframework.security.acls.domain.AuditLogger}, is then only called when the matching entry has 
+	 * auditing enabled. Only enable this with the {@link org.springframework.security.acls.domain.ConsoleAuditLogger} 
+	 * or an {@link org.springframework.security.acls.domain.AuditLogger} ignoring entries without auditing. 
+	 * Defaults to <code>false</code>.
+	 * 
+	 * @param packedPermissionChecksEnabled whether permissions should be checked on the packed entries.
+	 */
+	public void setPackedPermissionChecksEnabled(boolean packedPermissionChecksEnabled) {
+		this.packedPermissionChecksEnabled = packedPermissionChecksEnabled;
 	}
 
 	
@@ -107,6 +178,48 @@ public class CassandraAclService implements AclService {
 		return result;
 	}
 
+	/**
+	 * Pages through the domain objects a {@link Sid} is granted a permission on, using the Sid index of the repository. 
+	 * Only the entries of the Sid in the Acl of each object are considered: an object is included if the first entry of 
+	 * the Sid for the permission mask is granting. Permissions inherited from parent Acls are not taken into account.
+	 * 
+	 * @param sid the {@link Sid} to find the objects of.
+	 * @param objectClass the type of the objects to find, or <code>null</code> for all types.
+	 * @param permission the {@link Permission} to find the objects of, or <code>null</code> for objects with any granting entry.
+	 * @param pagingState the paging state of the previous page, or <code>null</code> to load the first page.
+	 * @param pageSize the maximum number of entries to read for the page. The page may hold fewer objects, even none, 
+	 * 		while more pages follow.
+	 * @return the page of {@link ObjectIdentity} objects.
+	 */
+	public AclPage<ObjectIdentity> findObjectIdentities(Sid sid, String objectClass, Permission permission, String pagingState, int pageSize) {
+		Assert.notNull(sid, "Sid required");
+		
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN findObjectIdentities: sid: " + sid + ", objectClass: " + objectClass + ", permission: " + permission);
+		}
+		
+		AclPage<AclObjectEntries> page = aclRepository.findAclEntriesBySid(sid, objectClass, pagingState, pageSize);
+		List<ObjectIdentity> content = new ArrayList<ObjectIdentity>(page.getContent().size());
+		for (AclObjectEntries objectEntries : page.getContent()) {
+			for (AclEntry entry : objectEntries.getEntries()) {
+				if (permission == null || entry.getMask() == permission.getMask()) {
+					if (entry.isGranting()) {
+						content.add(objectEntries.getObjectIdentity().toObjectIdentity());
+					}
+					// Granting or denying, the first matching entry decides
+					if (permission != null || entry.isGranting()) {
+						break;
+					}
+				}
+			}
+		}
+		
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("END findObjectIdentities: objects: " + content.size() + ", pagingState: " + page.getPagingState());
+		}
+		return new AclPage<ObjectIdentity>(content, page.getPagingState());
+	}
+
 	/* (non-Javadoc)
 	 * @see org.springframework.security.acls.model.AclService#readAclById(org.springframework.security.acls.model.ObjectIdentity)
 	 */
@@ -135,126 +248,409 @@ public class CassandraAclService implements AclService {
 	 * @see org.springframework.security.acls.model.AclService#readAclsById(java.util.List, java.util.List)
 	 */
 	public Map<ObjectIdentity, Acl> readAclsById(List<ObjectIdentity> objects, List<Sid> sids) throws NotFoundException {
+		Map<ObjectIdentity, Acl> result = readExistingAclsById(objects, sids);
+
+		for (ObjectIdentity oid : objects) {
+			if (!result.containsKey(oid)) {
+				throw new NotFoundException("Unable to find ACL information for object identity '" + oid + "'");
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Obtains the {@link Acl} instances of the provided objects, like {@link #readAclsById(List, List)}, 
+	 * but skips objects without an {@link Acl} instead of failing. Intended for bulk operations 
+	 * where some objects are expected not to have an {@link Acl}.
+	 * 
+	 * @param objects the objects to find {@link Acl} information for.
+	 * @param sids the security identities for which {@link Acl} information is required (may be <code>null</code> to denote all entries).
+	 * @return a map with exactly one element for each {@link ObjectIdentity} having an {@link Acl}.
+	 */
+	public Map<ObjectIdentity, Acl> readExistingAclsById(List<ObjectIdentity> objects, List<Sid> sids) {
 		Assert.notEmpty(objects, "Objects to lookup required");
 		
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("BEGIN readAclById: objectIdentities: " + objects + ", sids: " + sids);
 		}
 
-		// contains FULLY loaded Acl objects
+		// Restrict the lookup to the requested Sids, or load all entries
+		List<Sid> lookupSids = sidFilteringEnabled && sids != null && !sids.isEmpty() ? sids : null;
 		Map<ObjectIdentity, Acl> result = new HashMap<ObjectIdentity, Acl>();
-		List<ObjectIdentity> objectsToLookup = new ArrayList<ObjectIdentity>(objects);
+		List<ObjectIdentity> objectsToLookup = new ArrayList<ObjectIdentity>(objects.size());
 
 		// Check for Acls in the cache
-		if (aclCache != null) {
-			for (ObjectIdentity oi : objects) {
-				boolean aclLoaded = false;
-
-				Acl acl = aclCache.getFromCache(oi);
-				if (acl != null && acl.isSidLoaded(sids)) {
-					// Ensure any cached element supports all the requested SIDs
-					result.put(oi, acl);
-					aclLoaded = true;
-				}
-				if (aclLoaded) {
-					objectsToLookup.remove(oi);
-				}
+		for (ObjectIdentity oi : objects) {
+			Acl acl = getFromCache(oi);
+			if (acl != null && isLoadedFor(acl, lookupSids)) {
+				// Ensure any cached element supports all the requested SIDs
+				result.put(oi, acl);
+			} else {
+				objectsToLookup.add(oi);
 			}
 		}
 
 		if (!objectsToLookup.isEmpty()) {
-			Map<ObjectIdentity, Acl> loadedAcls = doLookup(objectsToLookup);
-			result.putAll(loadedAcls);
+			result.putAll(coalescedLookup(objectsToLookup, lookupSids));
+		}
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("END readAclById: acls: " + result.values());
+		}
+		return result;
+	}
+
+	/**
+	 * Loads the Acls of the provided objects, sharing lookups with concurrent calls. Objects not being looked up by 
+	 * another thread for the same Sids are loaded with a single {@link #doLookup(List, List)} and put in the cache, while 
+	 * the results of objects already being looked up are awaited instead of being read again. The own lookup always 
+	 * completes before waiting for other threads, so threads never wait on each other in a cycle.
+	 * 
+	 * @param objects a list of {@link ObjectIdentity} objects to lookup.
+	 * @param sids the {@link Sid} objects to load the entries of, or <code>null</code> to load all entries.
+	 * @return a map with {@link ObjectIdentity} instances as keys and {@link Acl} instances as values.
+	 */
+	private Map<ObjectIdentity, Acl> coalescedLookup(List<ObjectIdentity> objects, List<Sid> sids) {
+		Map<ObjectIdentity, SettableFuture<Acl>> ownLookups = new LinkedHashMap<ObjectIdentity, SettableFuture<Acl>>();
+		Map<ObjectIdentity, SettableFuture<Acl>> sharedLookups = new HashMap<ObjectIdentity, SettableFuture<Acl>>();
+		for (ObjectIdentity oi : objects) {
+			if (ownLookups.containsKey(oi) || sharedLookups.containsKey(oi)) {
+				continue;
+			}
+			SettableFuture<Acl> lookup = SettableFuture.create();
+			SettableFuture<Acl> inFlightLookup = inFlightLookups.putIfAbsent(new LookupKey(oi, sids), lookup);
+			if (inFlightLookup == null) {
+				ownLookups.put(oi, lookup);
+			} else {
+				sharedLookups.put(oi, inFlightLookup);
+			}
+		}
+		
+		Map<ObjectIdentity, Acl> result = new HashMap<ObjectIdentity, Acl>();
+		if (!ownLookups.isEmpty()) {
+			try {
+				Map<ObjectIdentity, Acl> loadedAcls = doLookup(new ArrayList<ObjectIdentity>(ownLookups.keySet()), sids);
+				result.putAll(loadedAcls);
 
-			// Put loaded Acls in the cache
-			if (aclCache != null) {
+				// Put loaded Acls in the cache before completing, so that later calls find them there
 				for (Acl loadedAcl : loadedAcls.values()) {
-					aclCache.putInCache((AclImpl) loadedAcl);
+					putInCache(loadedAcl, sids);
+				}
+				
+				for (Map.Entry<ObjectIdentity, SettableFuture<Acl>> entry : ownLookups.entrySet()) {
+					entry.getValue().set(loadedAcls.get(entry.getKey()));
+				}
+			} catch (RuntimeException e) {
+				for (SettableFuture<Acl> lookup : ownLookups.values()) {
+					lookup.setException(e);
+				}
+				throw e;
+			} finally {
+				for (Map.Entry<ObjectIdentity, SettableFuture<Acl>> entry : ownLookups.entrySet()) {
+					// No-op unless the lookup failed with an Error
+					entry.getValue().setException(new IllegalStateException("Lookup of ACL for '" + entry.getKey() + "' failed"));
+					inFlightLookups.remove(new LookupKey(entry.getKey(), sids), entry.getValue());
+				}
+			}
+		}
+		
+		for (Map.Entry<ObjectIdentity, SettableFuture<Acl>> entry : sharedLookups.entrySet()) {
+			Acl acl;
+			try {
+				acl = Uninterruptibles.getUninterruptibly(entry.getValue());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
 				}
+				throw new IllegalStateException(e.getCause());
+			}
+			if (acl != null) {
+				result.put(entry.getKey(), acl);
 			}
 		}
+		return result;
+	}
 
-		for (ObjectIdentity oid : objects) {
-			if (!result.containsKey(oid)) {
-				throw new NotFoundException("Unable to find ACL information for object identity '" + oid + "'");
+	/**
+	 * Detaches a lookup in progress for the provided {@link ObjectIdentity}, so that later calls read the 
+	 * {@link Acl} again instead of sharing a result that may predate a change.
+	 * 
+	 * @param objectIdentity the {@link ObjectIdentity} whose {@link Acl} has changed.
+	 */
+	protected void forgetInFlightLookup(ObjectIdentity objectIdentity) {
+		for (LookupKey key : inFlightLookups.keySet()) {
+			if (key.objectIdentity.equals(objectIdentity)) {
+				inFlightLookups.remove(key);
 			}
 		}
+	}
 
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("END readAclById: acls: " + result.values());
+	/**
+	 * @param acl the {@link Acl} to check.
+	 * @return whether the {@link Acl} holds the entries of all {@link Sid} objects, rather than those of specific {@link Sid} objects only.
+	 */
+	protected boolean isFullyLoaded(Acl acl) {
+		// Acls built elsewhere are expected to hold all their entries
+		return !(acl instanceof CassandraAclImpl) || ((CassandraAclImpl) acl).isFullyLoaded();
+	}
+
+	/**
+	 * @param acl the {@link Acl} to check.
+	 * @param sids the {@link Sid} objects the {@link Acl} is needed for, or <code>null</code> if all entries are needed.
+	 * @return whether the {@link Acl} can be used for the provided {@link Sid} objects.
+	 */
+	private boolean isLoadedFor(Acl acl, List<Sid> sids) {
+		// isSidLoaded accepts partially loaded Acls when no Sids are passed
+		return sids == null ? isFullyLoaded(acl) : acl.isSidLoaded(sids);
+	}
+
+	/**
+	 * Reads an {@link Acl} from the cache. The strategies and {@link PermissionFactory} of a {@link CassandraAclImpl} are 
+	 * not serialized, so they are set again on instances deserialized by the cache, and on their deserialized ancestors.
+	 * 
+	 * @param objectIdentity the {@link ObjectIdentity} to read the {@link Acl} of.
+	 * @return the cached {@link Acl}, or <code>null</code> if there is no cache or the {@link Acl} is not cached.
+	 */
+	protected Acl getFromCache(ObjectIdentity objectIdentity) {
+		if (aclCache == null) {
+			return null;
 		}
-		return result;
+		Acl acl = aclCache.getFromCache(objectIdentity);
+		Acl current = acl;
+		while (current instanceof CassandraAclImpl 
+				&& ((CassandraAclImpl) current).initializeTransientFields(aclAuthorizationStrategy, grantingStrategy, permissionFactory)) {
+			current = current.getParentAcl();
+		}
+		return acl;
+	}
+
+	/**
+	 * Puts a loaded {@link Acl} in the cache, unless it is partially loaded and would replace a fully loaded one.
+	 * 
+	 * @param acl the loaded {@link Acl}.
+	 * @param sids the {@link Sid} objects the {@link Acl} was loaded for, or <code>null</code> if it holds all entries.
+	 */
+	private void putInCache(Acl acl, List<Sid> sids) {
+		if (aclCache == null) {
+			return;
+		}
+		if (sids != null) {
+			Acl cachedAcl = aclCache.getFromCache(acl.getObjectIdentity());
+			if (cachedAcl != null && isFullyLoaded(cachedAcl)) {
+				return;
+			}
+		}
+		aclCache.putInCache((MutableAcl) acl);
 	}
 
 	/**
-	 * Request Acls from the {@link CassandraAclRepository} and convert results.
+	 * Request Acls from the {@link CassandraAclRepository} and convert results. The parents of the requested 
+	 * objects are resolved one hierarchy level at a time, with a single repository call per level for all 
+	 * objects of the batch. Parents found in the cache are not read again, and ancestors shared by several 
+	 * objects are loaded and converted only once. Loaded ancestors are put in the cache, so that later 
+	 * lookups of their descendants can reuse them. If ancestor prefetching is enabled, the ancestors known from 
+	 * the stored ancestor paths are loaded together with the requested objects, and only ancestors missing from 
+	 * the stored paths are resolved level by level. If {@link Sid} objects are provided, the requested objects and 
+	 * their ancestors are loaded with the entries of those {@link Sid} objects only.
 	 * 
 	 * @param objects a list of {@link ObjectIdentity} objects to lookup.
+	 * @param sids the {@link Sid} objects to load the entries of, or <code>null</code> to load all entries.
 	 * @return a map with {@link ObjectIdentity} instances as keys and {@link Acl} instances as values.
 	 */
-	private Map<ObjectIdentity, Acl> doLookup(List<ObjectIdentity> objects) {
+	private Map<ObjectIdentity, Acl> doLookup(List<ObjectIdentity> objects, List<Sid> sids) {
 		Map<ObjectIdentity, Acl> result = new HashMap<ObjectIdentity, Acl>();
 		
 		if (objects != null && !objects.isEmpty()) {
-			List<AclObjectIdentity> objectIds = new ArrayList<AclObjectIdentity>();
+			Map<ObjectIdentity, AclObjectIdentity> loadedAois = new HashMap<ObjectIdentity, AclObjectIdentity>();
+			Map<AclObjectIdentity, Set<AclEntry>> loadedEntries = new HashMap<AclObjectIdentity, Set<AclEntry>>();
+			Map<ObjectIdentity, Acl> resolvedAcls = new HashMap<ObjectIdentity, Acl>();
+
+			List<ObjectIdentity> level = ancestorPrefetchEnabled ? addStoredAncestors(objects, sids, resolvedAcls) : objects;
+			while (!level.isEmpty()) {
+				List<AclObjectIdentity> objectIds = new ArrayList<AclObjectIdentity>(level.size());
+				for (ObjectIdentity objId : level) {
+					objectIds.add(new AclObjectIdentity(objId));
+				}
+
+				Map<AclObjectIdentity, Set<AclEntry>> aeList = sids != null ? aclRepository.findAcls(objectIds, sids) : aclRepository.findAcls(objectIds);
+				loadedEntries.putAll(aeList);
+				for (AclObjectIdentity aoi : aeList.keySet()) {
+					loadedAois.put(aoi.toObjectIdentity(), aoi);
+				}
+				level = findUnresolvedParents(aeList.keySet(), sids, loadedAois, resolvedAcls);
+			}
 
 			for (ObjectIdentity objId : objects) {
-				objectIds.add(new AclObjectIdentity(objId));
+				Acl loadedAcl = resolveAcl(objId, sids, loadedAois, loadedEntries, resolvedAcls);
+				if (loadedAcl != null) {
+					result.put(loadedAcl.getObjectIdentity(), loadedAcl);
+				}
 			}
+			
+			// Requested Acls are cached by the caller
+			for (ObjectIdentity objId : loadedAois.keySet()) {
+				Acl loadedAcl = resolvedAcls.get(objId);
+				if (loadedAcl != null && !result.containsKey(objId)) {
+					putInCache(loadedAcl, sids);
+				}
+			}
+		}		
+		return result;
+	}
 
-			Map<AclObjectIdentity, Set<AclEntry>> aeList = aclRepository.findAcls(objectIds);		
-			Map<ObjectIdentity, Acl> parentAcls = lookupParents(aeList.keySet());
+	/**
+	 * Adds the ancestors of the provided objects, as stored by the {@link CassandraAclRepository}, to the objects 
+	 * to load. Ancestors found in the cache are added to the resolved {@link Acl} instances instead, along with 
+	 * all their own ancestors.
+	 * 
+	 * @param objects the requested {@link ObjectIdentity} objects.
+	 * @param sids the {@link Sid} objects the entries are loaded for, or <code>null</code> if all entries are loaded.
+	 * @param resolvedAcls the {@link Acl} instances resolved so far, keyed on their {@link ObjectIdentity}.
+	 * @return the requested objects followed by their distinct ancestors that need to be loaded.
+	 */
+	private List<ObjectIdentity> addStoredAncestors(List<ObjectIdentity> objects, List<Sid> sids, Map<ObjectIdentity, Acl> resolvedAcls) {
+		List<AclObjectIdentity> objectIds = new ArrayList<AclObjectIdentity>(objects.size());
+		for (ObjectIdentity objId : objects) {
+			objectIds.add(new AclObjectIdentity(objId));
+		}
+		
+		List<ObjectIdentity> result = new ArrayList<ObjectIdentity>(objects);
+		Set<ObjectIdentity> added = new HashSet<ObjectIdentity>(objects);
+		for (List<AclObjectIdentity> ancestors : aclRepository.findAclObjectIdentityAncestors(objectIds).values()) {
+			for (AclObjectIdentity ancestor : ancestors) {
+				ObjectIdentity ancestorIdentity = ancestor.toObjectIdentity();
+				if (resolvedAcls.containsKey(ancestorIdentity)) {
+					break;
+				}
+				if (!added.add(ancestorIdentity)) {
+					continue;
+				}
+				
+				Acl cachedAncestor = getFromCache(ancestorIdentity);
+				if (cachedAncestor != null && isLoadedFor(cachedAncestor, sids)) {
+					// The cached Acl already holds the rest of the path
+					resolvedAcls.put(ancestorIdentity, cachedAncestor);
+					break;
+				}
+				result.add(ancestorIdentity);
+			}
+		}
+		return result;
+	}
 
-			for (Entry<AclObjectIdentity, Set<AclEntry>> entry : aeList.entrySet()) {
-				Acl parentAcl = parentAcls.get(entry.getKey().getParentObjectIdentity());
-				AclImpl loadedAcl = convert(entry.getKey(), entry.getValue(), parentAcl);
-				result.put(loadedAcl.getObjectIdentity(), loadedAcl);
+	/**
+	 * Finds the parents of the provided {@link AclObjectIdentity} objects that have neither been loaded 
+	 * nor resolved yet. Parents found in the cache are added to the resolved {@link Acl} instances.
+	 * 
+	 * @param aois the {@link AclObjectIdentity} objects to find the parents of.
+	 * @param sids the {@link Sid} objects the entries are loaded for, or <code>null</code> if all entries are loaded.
+	 * @param loadedAois the {@link AclObjectIdentity} objects loaded so far, keyed on their {@link ObjectIdentity}.
+	 * @param resolvedAcls the {@link Acl} instances resolved so far, keyed on their {@link ObjectIdentity}.
+	 * @return the distinct parents that still need to be loaded.
+	 */
+	private List<ObjectIdentity> findUnresolvedParents(Set<AclObjectIdentity> aois, List<Sid> sids, Map<ObjectIdentity, AclObjectIdentity> loadedAois, 
+			Map<ObjectIdentity, Acl> resolvedAcls) {
+		List<ObjectIdentity> result = new ArrayList<ObjectIdentity>();
+		for (AclObjectIdentity aoi : aois) {
+			ObjectIdentity parentIdentity = getParentIdentity(aoi);
+			if (parentIdentity == null || loadedAois.containsKey(parentIdentity) || resolvedAcls.containsKey(parentIdentity) 
+					|| result.contains(parentIdentity)) {
+				continue;
 			}
-		}		
+			
+			Acl cachedParent = getFromCache(parentIdentity);
+			if (cachedParent != null && isLoadedFor(cachedParent, sids)) {
+				resolvedAcls.put(parentIdentity, cachedParent);
+			} else {
+				result.add(parentIdentity);
+			}
+		}
 		return result;
 	}
 
 	/**
-	 * Finds the parents of the provided {@link ObjectIdentity} objects.
+	 * Returns the {@link Acl} for the provided {@link ObjectIdentity}, converting it and its ancestors from the loaded 
+	 * data if it has not been resolved yet.
 	 * 
-	 * @param acls a set of {@link AclObjectIdentity} objects to find the parents of.
-	 * @return a map of the parents, with {@link ObjectIdentity} instances as keys and {@link Acl} instances as values.
+	 * @param objectIdentity the {@link ObjectIdentity} to resolve the {@link Acl} for.
+	 * @param sids the {@link Sid} objects the entries were loaded for, or <code>null</code> if all entries were loaded.
+	 * @param loadedAois the {@link AclObjectIdentity} objects loaded so far, keyed on their {@link ObjectIdentity}.
+	 * @param loadedEntries the {@link AclEntry} objects loaded so far, keyed on their {@link AclObjectIdentity}.
+	 * @param resolvedAcls the {@link Acl} instances resolved so far, keyed on their {@link ObjectIdentity}.
+	 * @return the resolved {@link Acl} or <code>null</code> if no data was found for the {@link ObjectIdentity}.
 	 */
-	private Map<ObjectIdentity, Acl> lookupParents(Set<AclObjectIdentity> acls) {
-		List<ObjectIdentity> objectsToLookup = new ArrayList<ObjectIdentity>();
-		for (AclObjectIdentity aoi : acls) {
-			if (aoi.getParentObjectId() != null && !aoi.getParentObjectId().isEmpty()
-					&& aoi.getParentObjectClass() != null && !aoi.getParentObjectClass().isEmpty()) {
-				objectsToLookup.add(new ObjectIdentityImpl(aoi.getParentObjectClass(), aoi.getParentObjectId()));
+	private Acl resolveAcl(ObjectIdentity objectIdentity, List<Sid> sids, Map<ObjectIdentity, AclObjectIdentity> loadedAois,
+			Map<AclObjectIdentity, Set<AclEntry>> loadedEntries, Map<ObjectIdentity, Acl> resolvedAcls) {
+		Acl acl = resolvedAcls.get(objectIdentity);
+		if (acl == null) {
+			AclObjectIdentity aoi = loadedAois.get(objectIdentity);
+			if (aoi != null) {
+				ObjectIdentity parentIdentity = getParentIdentity(aoi);
+				Acl parentAcl = parentIdentity != null ? resolveAcl(parentIdentity, sids, loadedAois, loadedEntries, resolvedAcls) : null;
+				CassandraAclImpl loadedAcl = convert(aoi, loadedEntries.get(aoi), parentAcl, sids);
+				resolvedAcls.put(objectIdentity, loadedAcl);
+				acl = loadedAcl;
 			}
 		}
-		return doLookup(objectsToLookup);
+		return acl;
+	}
+
+	/**
+	 * @param aoi the {@link AclObjectIdentity} to get the parent of.
+	 * @return the {@link ObjectIdentity} of the parent or <code>null</code> if the {@link AclObjectIdentity} has no parent.
+	 */
+	private ObjectIdentity getParentIdentity(AclObjectIdentity aoi) {
+		if (aoi.getParentObjectId() != null && !aoi.getParentObjectId().isEmpty()
+				&& aoi.getParentObjectClass() != null && !aoi.getParentObjectClass().isEmpty()) {
+			return aoi.getParentObjectIdentity();
+		}
+		return null;
 	}
 
 	/**
-	 * Creates an {@link AclImpl} instance out of the provided data.
+	 * Creates a {@link CassandraAclImpl} instance out of the provided data. Fully loaded instances keep the loaded data, 
+	 * so that they can be updated without reading it again.
 	 * 
 	 * @param aclObjectIdentity the {@link AclObjectIdentity} holding the basic Acl data.
 	 * @param aclEntries a set of {@link AclEntry} objects to be converted to {@link AccessControlEntry} objects.
 	 * @param parentAcl the parent {@link Acl}.
-	 * @return an {@link AclImpl} instance.
+	 * @param sids the {@link Sid} objects the entries were loaded for, or <code>null</code> if all entries were loaded.
+	 * @return a {@link CassandraAclImpl} instance.
+	 */
+	protected CassandraAclImpl convert(AclObjectIdentity aclObjectIdentity, Set<AclEntry> aclEntries, Acl parentAcl, List<Sid> sids) {
+		return new CassandraAclImpl(aclObjectIdentity, aclEntries, parentAcl, sids, aclAuthorizationStrategy, grantingStrategy, permissionFactory, 
+				packedPermissionChecksEnabled);
+	}
+
+	/**
+	 * Key of a lookup in progress, telling apart lookups of the same object for different {@link Sid} objects.
 	 */
-	private AclImpl convert(AclObjectIdentity aclObjectIdentity, Set<AclEntry> aclEntries, Acl parentAcl) {
-		AclImpl acl = new AclImpl(aclObjectIdentity.toObjectIdentity(), aclObjectIdentity.getId(),
-				aclAuthorizationStrategy, grantingStrategy, parentAcl, null, aclObjectIdentity.isEntriesInheriting(), aclObjectIdentity.getOwnerSid());
-
-		List<AccessControlEntry> aces = new ArrayList<AccessControlEntry>(aclEntries.size());
-		for (AclEntry entry : aclEntries) {
-			AccessControlEntry ace = new AccessControlEntryImpl(entry.getId(), acl, entry.getSidObject(), permissionFactory.buildFromMask(entry.getMask()),
-					entry.isGranting(), entry.isAuditSuccess(), entry.isAuditFailure());
-			aces.add(entry.getOrder(), ace);
+	private static final class LookupKey {
+
+		private final ObjectIdentity objectIdentity;
+		private final List<Sid> sids;
+
+		private LookupKey(ObjectIdentity objectIdentity, List<Sid> sids) {
+			this.objectIdentity = objectIdentity;
+			this.sids = sids;
 		}
 
-		try {
-			fieldAces.set(acl, aces);
-		} catch (Exception e) {
-			LOG.error("Could not set AccessControlEntries in the ACL", e);
+		@Override
+		public int hashCode() {
+			return objectIdentity.hashCode() * 31 + (sids == null ? 0 : sids.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof LookupKey)) {
+				return false;
+			}
+			LookupKey other = (LookupKey) obj;
+			return objectIdentity.equals(other.objectIdentity) 
+					&& (sids == null ? other.sids == null : sids.equals(other.sids));
 		}
-		return acl;
 	}
 }
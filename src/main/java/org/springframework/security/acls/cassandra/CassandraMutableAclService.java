@@ -15,12 +15,22 @@
 package org.springframework.security.acls.cassandra;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.security.acls.cassandra.model.AclEntry;
 import org.springframework.security.acls.cassandra.model.AclObjectIdentity;
+import org.springframework.security.acls.cassandra.model.AclPage;
+import org.springframework.security.acls.cassandra.model.EffectivePermission;
 import org.springframework.security.acls.cassandra.repository.CassandraAclRepository;
 import org.springframework.security.acls.cassandra.repository.exceptions.AclAlreadyExistsException;
 import org.springframework.security.acls.cassandra.repository.exceptions.AclNotFoundException;
@@ -41,6 +51,8 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.util.Assert;
 
+import com.google.common.util.concurrent.RateLimiter;
+
 /**
  * Provides support for creating and storing {@link Acl} instances in Cassandra, using the {@link CassandraAclRepository}.
  * 
@@ -51,6 +63,17 @@ public class CassandraMutableAclService extends CassandraAclService implements M
 
 	private static final Log LOG = LogFactory.getLog(CassandraMutableAclService.class);
 
+	// Maximum number of objects whose children are read with a single repository call
+	private static final int TRAVERSAL_BATCH_SIZE = 1000;
+
+	// Maximum number of children of each object read with a single repository call
+	private static final int CHILDREN_PAGE_SIZE = 100;
+
+	private boolean effectivePermissionsEnabled = false;
+	private int deleteChunkSize = 1000;
+	private RateLimiter deleteRateLimiter;
+	private AclDeletionListener deletionListener;
+
 	/**
 	 * Constructs a new <code>CassandraMutableAclService</code> object.
 	 * 
@@ -91,14 +114,17 @@ public class CassandraMutableAclService extends CassandraAclService implements M
 			throw new AlreadyExistsException(e.getMessage(), e);
 		}		
 
-		// Retrieve the ACL via superclass (ensures cache registration, proper retrieval etc)
-		Acl acl = readAclById(objectIdentity);
-		Assert.isInstanceOf(MutableAcl.class, acl, "MutableAcl should be been returned");
+		// The new ACL has no entries and no parent, so it is built locally instead of being read back
+		CassandraAclImpl acl = convert(newAoi, Collections.<AclEntry>emptySet(), null, null);
+		forgetInFlightLookup(objectIdentity);
+		if (aclCache != null) {
+			aclCache.putInCache(acl);
+		}
 
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("END createAcl: acl: " + acl);
 		} 
-		return (MutableAcl) acl;
+		return acl;
 	}
 
 	/* (non-Javadoc)
@@ -112,29 +138,34 @@ public class CassandraMutableAclService extends CassandraAclService implements M
 			LOG.debug("BEGIN deleteAcl: objectIdentity: " + objectIdentity + ", deleteChildren: " + deleteChildren);
 		}
 
-		List<AclObjectIdentity> objIdsToDelete = new ArrayList<AclObjectIdentity>();
 		List<ObjectIdentity> objectsToDelete = new ArrayList<ObjectIdentity>();
 		objectsToDelete.add(objectIdentity);		
 
-		List<ObjectIdentity> children = findChildren(objectIdentity);
 		if (deleteChildren) {
-			for (ObjectIdentity child : children) {
-				objectsToDelete.addAll(calculateChildrenReccursively(child));			
+			// The subtree found here is also used to clear the cache
+			objectsToDelete.addAll(findDescendants(objectIdentity));
+		} else {
+			List<ObjectIdentity> children = findChildren(objectIdentity);
+			if (children != null && !children.isEmpty()) {
+				throw new ChildrenExistException("Cannot delete '" + objectIdentity + "' (has " + children.size()
+						+ " children)");
 			}
-		} else if (children != null && !children.isEmpty()) {
-			throw new ChildrenExistException("Cannot delete '" + objectIdentity + "' (has " + children.size()
-					+ " children)");
-		}
-
-		for (ObjectIdentity objId : objectsToDelete) {
-			objIdsToDelete.add(new AclObjectIdentity(objId));
 		}
-		aclRepository.deleteAcls(objIdsToDelete);
 
-		// Clear the cache
-		if (aclCache != null) {
-			for (ObjectIdentity obj : objectsToDelete) {
-				aclCache.evictFromCache(obj);
+		// Deepest objects first, so that an interrupted deletion leaves a hierarchy that another call can resume
+		Collections.reverse(objectsToDelete);
+		int deletedCount = 0;
+		for (int i = 0; i < objectsToDelete.size(); i += deleteChunkSize) {
+			List<ObjectIdentity> chunk = objectsToDelete.subList(i, Math.min(i + deleteChunkSize, objectsToDelete.size()));
+			RateLimiter rateLimiter = deleteRateLimiter;
+			if (rateLimiter != null) {
+				rateLimiter.acquire(chunk.size());
+			}
+			deleteChunk(chunk);
+			
+			deletedCount += chunk.size();
+			if (deletionListener != null) {
+				deletionListener.aclsDeleted(objectIdentity, chunk, deletedCount, objectsToDelete.size());
 			}
 		}
 		
@@ -150,13 +181,23 @@ public class CassandraMutableAclService extends CassandraAclService implements M
 		Assert.notNull(acl, "MutableAcl required");
 		Assert.notNull(acl.getObjectIdentity(), "Object Identity required");
 		Assert.notNull(acl.getObjectIdentity().getIdentifier(), "Object Identity doesn't provide an identifier");
+		// Saving an Acl loaded for specific Sids would remove the entries of all other Sids
+		Assert.isTrue(isFullyLoaded(acl), "Acl loaded for specific Sids cannot be updated");
 		
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("BEGIN updateAcl: acl: " + acl);
 		}		
 
+		AclObjectIdentity aoi = new AclObjectIdentity(acl);
+		List<AclEntry> entries = convertToAclEntries(acl);
 		try {
-			aclRepository.updateAcl(new AclObjectIdentity(acl), convertToAclEntries(acl));
+			if (acl instanceof CassandraAclImpl) {
+				// Allows the repository to skip reading the persisted state
+				CassandraAclImpl cassandraAcl = (CassandraAclImpl) acl;
+				aclRepository.updateAcl(aoi, entries, cassandraAcl.getLoadedObjectIdentity(), cassandraAcl.getLoadedEntries());
+			} else {
+				aclRepository.updateAcl(aoi, entries);
+			}
 		} catch (AclNotFoundException e) {
 			throw new NotFoundException(e.getMessage(), e);
 		}		
@@ -164,8 +205,18 @@ public class CassandraMutableAclService extends CassandraAclService implements M
 		// Clear the cache, including children
 		clearCacheIncludingChildren(acl.getObjectIdentity());
 		
-		// Retrieve the ACL via superclass (ensures cache registration, proper retrieval etc)
-		MutableAcl result = (MutableAcl) readAclById(acl.getObjectIdentity());
+		// The written state is known, so the updated ACL is built locally and written through to the cache
+		for (AclEntry entry : entries) {
+			entry.setId(aoi.getRowId() + ":" + entry.getSid() + ":" + entry.getOrder());
+		}
+		CassandraAclImpl result = convert(aoi, new LinkedHashSet<AclEntry>(entries), resolveParentAcl(acl), null);
+		if (aclCache != null) {
+			aclCache.putInCache(result);
+		}
+		
+		if (effectivePermissionsEnabled) {
+			refreshEffectivePermissions(acl.getObjectIdentity());
+		}
 		
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("END updateAcl: acl: " + result);
@@ -174,21 +225,250 @@ public class CassandraMutableAclService extends CassandraAclService implements M
 	}
 
 	/**
-	 * Finds the complete children hierarchy starting from the provided {@link ObjectIdentity}.
+	 * Recomputes the stored effective permissions of the provided {@link ObjectIdentity} and of all descendants 
+	 * inheriting entries from it. This is done automatically by <code>updateAcl</code> when effective permissions 
+	 * are enabled, but can also be used to populate the effective permissions of existing Acls.
+	 * 
+	 * @param objectIdentity the {@link ObjectIdentity} to recompute the effective permissions for.
+	 * @throws NotFoundException if no Acl exists for the provided {@link ObjectIdentity}.
+	 */
+	public void refreshEffectivePermissions(ObjectIdentity objectIdentity) throws NotFoundException {
+		Assert.notNull(objectIdentity, "Object Identity required");
+		
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN refreshEffectivePermissions: objectIdentity: " + objectIdentity);
+		}
+		
+		Set<ObjectIdentity> visited = new HashSet<ObjectIdentity>();
+		LinkedList<ObjectIdentity> queue = new LinkedList<ObjectIdentity>();
+		queue.add(objectIdentity);
+		
+		// Objects are processed breadth first in batches, and the permissions of each batch are written before 
+		// its children are read, so only the identities of the objects waiting in the queue are kept in memory. 
+		// Children rows of objects that no longer exist are skipped. Descendants that do not inherit entries, 
+		// and their own descendants, are not affected.
+		while (!queue.isEmpty()) {
+			List<ObjectIdentity> batch = new ArrayList<ObjectIdentity>(Math.min(queue.size(), TRAVERSAL_BATCH_SIZE));
+			while (!queue.isEmpty() && batch.size() < TRAVERSAL_BATCH_SIZE) {
+				batch.add(queue.poll());
+			}
+			
+			Map<AclObjectIdentity, List<EffectivePermission>> permissions = new HashMap<AclObjectIdentity, List<EffectivePermission>>();
+			List<AclObjectIdentity> parents = new ArrayList<AclObjectIdentity>();
+			Map<ObjectIdentity, Acl> acls = readExistingAclsById(batch, null);
+			if (visited.isEmpty() && !acls.containsKey(objectIdentity)) {
+				throw new NotFoundException("Unable to find ACL information for object identity '" + objectIdentity + "'");
+			}
+			for (Acl loadedAcl : acls.values()) {
+				if (!visited.add(loadedAcl.getObjectIdentity()) 
+						|| (!loadedAcl.isEntriesInheriting() && !loadedAcl.getObjectIdentity().equals(objectIdentity))) {
+					continue;
+				}
+				AclObjectIdentity aoi = new AclObjectIdentity(loadedAcl.getObjectIdentity());
+				permissions.put(aoi, calculateEffectivePermissions(loadedAcl));
+				parents.add(aoi);
+			}
+			if (permissions.isEmpty()) {
+				continue;
+			}
+			aclRepository.updateEffectivePermissions(permissions);
+			
+			for (AclObjectIdentity child : findChildren(parents)) {
+				queue.add(child.toObjectIdentity());
+			}
+		}
+		
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("END refreshEffectivePermissions");
+		}
+	}
+
+	/**
+	 * @return whether the effective permissions of each object are stored and maintained.
+	 */
+	public boolean isEffectivePermissionsEnabled() {
+		return effectivePermissionsEnabled;
+	}
+
+	/**
+	 * Sets whether the effective permissions of each object are stored, so that a {@link CassandraPermissionEvaluator} 
+	 * can answer permission checks without loading the Acls. They are maintained by <code>updateAcl</code>, 
+	 * for the updated object and all descendants inheriting from it, and by <code>deleteAcl</code>. 
+	 * Defaults to <code>false</code>.
+	 * 
+	 * @param effectivePermissionsEnabled whether effective permissions should be stored.
+	 */
+	public void setEffectivePermissionsEnabled(boolean effectivePermissionsEnabled) {
+		this.effectivePermissionsEnabled = effectivePermissionsEnabled;
+	}
+
+	/**
+	 * @return the maximum number of objects deleted with a single repository call.
+	 */
+	public int getDeleteChunkSize() {
+		return deleteChunkSize;
+	}
+
+	/**
+	 * Sets the maximum number of objects deleted with a single repository call when deleting a hierarchy. 
+	 * Defaults to 1000.
+	 * 
+	 * @param deleteChunkSize the maximum number of objects per chunk.
+	 */
+	public void setDeleteChunkSize(int deleteChunkSize) {
+		Assert.isTrue(deleteChunkSize > 0, "The delete chunk size must be positive");
+		this.deleteChunkSize = deleteChunkSize;
+	}
+
+	/**
+	 * @return the maximum number of objects deleted per second, or 0 if deletions are not throttled.
+	 */
+	public double getMaxDeletesPerSecond() {
+		RateLimiter rateLimiter = deleteRateLimiter;
+		return rateLimiter != null ? rateLimiter.getRate() : 0;
+	}
+
+	/**
+	 * Sets the maximum number of objects deleted per second, shared by all calls of <code>deleteAcl</code>, so that 
+	 * removing large hierarchies does not compete with live traffic. Defaults to 0, meaning deletions are not throttled.
 	 * 
-	 * @param rootChild the root {@link ObjectIdentity} to start looking for children.
-	 * @return a list of all child {@link ObjectIdentity} objects, including the provided root object.
+	 * @param maxDeletesPerSecond the maximum number of objects deleted per second, or 0 to disable throttling.
 	 */
-	private List<ObjectIdentity> calculateChildrenReccursively(ObjectIdentity rootChild) {
+	public void setMaxDeletesPerSecond(double maxDeletesPerSecond) {
+		Assert.isTrue(maxDeletesPerSecond >= 0, "The maximum number of deletes per second cannot be negative");
+		this.deleteRateLimiter = maxDeletesPerSecond > 0 ? RateLimiter.create(maxDeletesPerSecond) : null;
+	}
+
+	/**
+	 * @return the {@link AclDeletionListener} notified of the progress of deletions, or <code>null</code> if none.
+	 */
+	public AclDeletionListener getDeletionListener() {
+		return deletionListener;
+	}
+
+	/**
+	 * Sets the {@link AclDeletionListener} notified after each chunk of objects deleted by <code>deleteAcl</code>.
+	 * 
+	 * @param deletionListener the listener, or <code>null</code> to disable notifications.
+	 */
+	public void setDeletionListener(AclDeletionListener deletionListener) {
+		this.deletionListener = deletionListener;
+	}
+
+	/**
+	 * Deletes a chunk of objects, along with their effective permissions, and evicts them from the cache.
+	 * 
+	 * @param objectsToDelete the objects to delete.
+	 */
+	private void deleteChunk(List<ObjectIdentity> objectsToDelete) {
+		List<AclObjectIdentity> objIdsToDelete = new ArrayList<AclObjectIdentity>(objectsToDelete.size());
+		for (ObjectIdentity objId : objectsToDelete) {
+			objIdsToDelete.add(new AclObjectIdentity(objId));
+		}
+		aclRepository.deleteAcls(objIdsToDelete);
+		
+		if (effectivePermissionsEnabled) {
+			Map<AclObjectIdentity, List<EffectivePermission>> permissions = new HashMap<AclObjectIdentity, List<EffectivePermission>>();
+			for (AclObjectIdentity objId : objIdsToDelete) {
+				permissions.put(objId, new ArrayList<EffectivePermission>());
+			}
+			aclRepository.updateEffectivePermissions(permissions);
+		}
+
+		// Clear the cache
+		for (ObjectIdentity obj : objectsToDelete) {
+			forgetInFlightLookup(obj);
+			if (aclCache != null) {
+				aclCache.evictFromCache(obj);
+			}
+		}
+	}
+
+	/**
+	 * Calculates the entries deciding each Sid and mask combination for the provided {@link Acl}, following 
+	 * the same inheritance rules as the {@link PermissionGrantingStrategy}: the first entry of the nearest 
+	 * {@link Acl} in the inheritance chain having an entry for a Sid and mask decides.
+	 * 
+	 * @param acl the fully loaded {@link Acl}, including its parents.
+	 * @return the list of deciding entries as {@link EffectivePermission} objects.
+	 */
+	private List<EffectivePermission> calculateEffectivePermissions(Acl acl) {
+		Map<String, EffectivePermission> result = new LinkedHashMap<String, EffectivePermission>();
+		int depth = 0;
+		for (Acl current = acl; current != null; current = current.isEntriesInheriting() ? current.getParentAcl() : null) {
+			for (AccessControlEntry ace : current.getEntries()) {
+				EffectivePermission permission = new EffectivePermission(ace, depth);
+				String key = (permission.isSidPrincipal() ? "P:" : "A:") + permission.getSid() + ":" + permission.getMask();
+				if (!result.containsKey(key)) {
+					result.put(key, permission);
+				}
+			}
+			depth++;
+		}
+		return new ArrayList<EffectivePermission>(result.values());
+	}
+
+	/**
+	 * Finds the complete children hierarchy of the provided {@link ObjectIdentity}, breadth first. Objects waiting 
+	 * to have their children read are kept in a queue, and the children of a batch of them are read with a 
+	 * single concurrent repository call, so neither the depth nor the size of the hierarchy is limited by the stack.
+	 * 
+	 * @param objectIdentity the {@link ObjectIdentity} to find the descendants of.
+	 * @return a list of all descendant {@link ObjectIdentity} objects, nearest first, excluding the provided object.
+	 */
+	private List<ObjectIdentity> findDescendants(ObjectIdentity objectIdentity) {
 		List<ObjectIdentity> result = new ArrayList<ObjectIdentity>();
-		result.add(rootChild);
-		List<ObjectIdentity> children = findChildren(rootChild);
-		if (children != null) {
-			for (ObjectIdentity child : children) {
-				result.addAll(calculateChildrenReccursively(child));
+		Set<ObjectIdentity> visited = new HashSet<ObjectIdentity>();
+		LinkedList<AclObjectIdentity> queue = new LinkedList<AclObjectIdentity>();
+		AclObjectIdentity root = new AclObjectIdentity(objectIdentity);
+		visited.add(root.toObjectIdentity());
+		queue.add(root);
+		
+		while (!queue.isEmpty()) {
+			List<AclObjectIdentity> parents = new ArrayList<AclObjectIdentity>(Math.min(queue.size(), TRAVERSAL_BATCH_SIZE));
+			while (!queue.isEmpty() && parents.size() < TRAVERSAL_BATCH_SIZE) {
+				parents.add(queue.poll());
+			}
+			
+			for (AclObjectIdentity child : findChildren(parents)) {
+				ObjectIdentity childIdentity = child.toObjectIdentity();
+				if (visited.add(childIdentity)) {
+					result.add(childIdentity);
+					queue.add(child);
+				}
 			}
 		}
-		return result;		
+		return result;
+	}
+
+	/**
+	 * Finds the children of the provided objects page by page, so that no single query reads a whole children 
+	 * partition. Objects with more children than fit in a page are read again with their paging state, 
+	 * together with the other objects that have not been read completely.
+	 * 
+	 * @param parents the objects to find the children of.
+	 * @return the children of all provided objects.
+	 */
+	private List<AclObjectIdentity> findChildren(List<AclObjectIdentity> parents) {
+		List<AclObjectIdentity> result = new ArrayList<AclObjectIdentity>();
+		Map<AclObjectIdentity, String> pagingStates = new LinkedHashMap<AclObjectIdentity, String>();
+		for (AclObjectIdentity parent : parents) {
+			pagingStates.put(parent, null);
+		}
+		
+		while (!pagingStates.isEmpty()) {
+			Map<AclObjectIdentity, String> nextPagingStates = new LinkedHashMap<AclObjectIdentity, String>();
+			for (Map.Entry<AclObjectIdentity, AclPage<AclObjectIdentity>> entry 
+					: aclRepository.findChildrenOfAclObjectIdentities(pagingStates, CHILDREN_PAGE_SIZE).entrySet()) {
+				AclPage<AclObjectIdentity> page = entry.getValue();
+				result.addAll(page.getContent());
+				if (page.hasNext()) {
+					nextPagingStates.put(entry.getKey(), page.getPagingState());
+				}
+			}
+			pagingStates = nextPagingStates;
+		}
+		return result;
 	}
 
 	/**
@@ -198,14 +478,36 @@ public class CassandraMutableAclService extends CassandraAclService implements M
 	 * @return the list of derived {@link AclEntry} objects.
 	 */
 	private List<AclEntry> convertToAclEntries(Acl acl) {
-		List<AclEntry> result = new ArrayList<AclEntry>();
-		
-		for (AccessControlEntry entry : acl.getEntries()) {
-			result.add(new AclEntry(entry));
+		// The entries are read once, CassandraAclImpl builds them on every call
+		List<AccessControlEntry> aces = acl.getEntries();
+		List<AclEntry> result = new ArrayList<AclEntry>(aces.size());
+		for (int i = 0; i < aces.size(); i++) {
+			result.add(new AclEntry(aces.get(i), i));
 		}		
 		return result;
 	}
 
+	/**
+	 * Finds a current, fully loaded instance of the parent of the provided {@link Acl}, preferring the cached one. 
+	 * The parent instance held by the provided {@link Acl} may have been loaded long before and is never used, 
+	 * so the parent is read from the database if it is not cached.
+	 * 
+	 * @param acl the {@link Acl} to find the parent of.
+	 * @return the parent {@link Acl}, or <code>null</code> if the {@link Acl} has no parent.
+	 */
+	private Acl resolveParentAcl(Acl acl) {
+		Acl parentAcl = acl.getParentAcl();
+		if (parentAcl == null) {
+			return null;
+		}
+		
+		Acl cachedParentAcl = getFromCache(parentAcl.getObjectIdentity());
+		if (cachedParentAcl != null && isFullyLoaded(cachedParentAcl)) {
+			return cachedParentAcl;
+		}
+		return readAclById(parentAcl.getObjectIdentity());
+	}
+
 	/**
 	 * Evicts the provided {@link ObjectIdentity} and the complete children hierarchy from the cache.
 	 * 
@@ -213,15 +515,16 @@ public class CassandraMutableAclService extends CassandraAclService implements M
 	 */
 	private void clearCacheIncludingChildren(ObjectIdentity objectIdentity) {
 		Assert.notNull(objectIdentity, "ObjectIdentity required");
-		List<ObjectIdentity> children = findChildren(objectIdentity);
-		if (children != null) {
-			for (ObjectIdentity child : children) {
-				clearCacheIncludingChildren(child);
-			}
+		forgetInFlightLookup(objectIdentity);
+		if (aclCache == null) {
+			// Nothing is cached, so the hierarchy does not need to be read
+			return;
 		}
-
-		if (aclCache != null) {
-			aclCache.evictFromCache(objectIdentity);
+		
+		aclCache.evictFromCache(objectIdentity);
+		for (ObjectIdentity descendant : findDescendants(objectIdentity)) {
+			forgetInFlightLookup(descendant);
+			aclCache.evictFromCache(descendant);
 		}
 	}
 
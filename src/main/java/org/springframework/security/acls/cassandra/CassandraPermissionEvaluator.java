@@ -0,0 +1,206 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.security.access.PermissionEvaluator;
+import org.springframework.security.acls.AclPermissionEvaluator;
+import org.springframework.security.acls.cassandra.model.AclObjectIdentity;
+import org.springframework.security.acls.cassandra.model.EffectivePermission;
+import org.springframework.security.acls.cassandra.repository.CassandraAclRepository;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.ObjectIdentityRetrievalStrategyImpl;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.domain.SidRetrievalStrategyImpl;
+import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.ObjectIdentityGenerator;
+import org.springframework.security.acls.model.ObjectIdentityRetrievalStrategy;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.SidRetrievalStrategy;
+import org.springframework.security.core.Authentication;
+import org.springframework.util.Assert;
+
+/**
+ * {@link PermissionEvaluator} answering permission checks out of the effective permissions stored by the 
+ * {@link CassandraMutableAclService}, without loading any {@link org.springframework.security.acls.model.Acl} objects. 
+ * Checks whose deciding entry has auditing enabled are delegated to an {@link AclPermissionEvaluator}, 
+ * so that they are logged by the {@link org.springframework.security.acls.model.PermissionGrantingStrategy}.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+public class CassandraPermissionEvaluator implements PermissionEvaluator {
+
+	private static final Log LOG = LogFactory.getLog(CassandraPermissionEvaluator.class);
+
+	private final CassandraAclRepository aclRepository;
+	private final AclPermissionEvaluator aclPermissionEvaluator;
+	private ObjectIdentityRetrievalStrategy objectIdentityRetrievalStrategy = new ObjectIdentityRetrievalStrategyImpl();
+	private ObjectIdentityGenerator objectIdentityGenerator = new ObjectIdentityRetrievalStrategyImpl();
+	private SidRetrievalStrategy sidRetrievalStrategy = new SidRetrievalStrategyImpl();
+	private PermissionFactory permissionFactory = new DefaultPermissionFactory();
+
+	/**
+	 * Constructs a new <code>CassandraPermissionEvaluator</code> object.
+	 * 
+	 * @param aclService the {@link AclService} to use for checks that cannot be answered out of the effective permissions.
+	 * @param aclRepository the {@link CassandraAclRepository} to read the effective permissions from.
+	 */
+	public CassandraPermissionEvaluator(AclService aclService, CassandraAclRepository aclRepository) {
+		Assert.notNull(aclRepository, "CassandraAclRepository required");
+		this.aclRepository = aclRepository;
+		this.aclPermissionEvaluator = new AclPermissionEvaluator(aclService);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.access.PermissionEvaluator#hasPermission(org.springframework.security.core.Authentication, java.lang.Object, java.lang.Object)
+	 */
+	public boolean hasPermission(Authentication authentication, Object domainObject, Object permission) {
+		if (domainObject == null) {
+			return false;
+		}
+		
+		ObjectIdentity objectIdentity = objectIdentityRetrievalStrategy.getObjectIdentity(domainObject);
+		EffectivePermission decision = findDecision(authentication, objectIdentity, permission);
+		if (isAudited(decision)) {
+			return aclPermissionEvaluator.hasPermission(authentication, domainObject, permission);
+		}
+		return decision != null && decision.isGranting();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.access.PermissionEvaluator#hasPermission(org.springframework.security.core.Authentication, java.io.Serializable, java.lang.String, java.lang.Object)
+	 */
+	public boolean hasPermission(Authentication authentication, Serializable targetId, String targetType, Object permission) {
+		ObjectIdentity objectIdentity = objectIdentityGenerator.createObjectIdentity(targetId, targetType);
+		EffectivePermission decision = findDecision(authentication, objectIdentity, permission);
+		if (isAudited(decision)) {
+			return aclPermissionEvaluator.hasPermission(authentication, targetId, targetType, permission);
+		}
+		return decision != null && decision.isGranting();
+	}
+
+	/**
+	 * Finds the stored entry deciding the check, following the rules of the default 
+	 * {@link org.springframework.security.acls.model.PermissionGrantingStrategy}: the nearest {@link org.springframework.security.acls.model.Acl} 
+	 * with an entry for any of the requested permissions and Sids decides. Within it, each permission is decided by the first 
+	 * Sid having an entry for it, and the check is granted if any permission is granted.
+	 * 
+	 * @param authentication the {@link Authentication} to check the permissions of.
+	 * @param objectIdentity the {@link ObjectIdentity} of the domain object.
+	 * @param permission the requested permission, in any of the forms accepted by {@link AclPermissionEvaluator}.
+	 * @return the deciding {@link EffectivePermission}, or <code>null</code> if no entry applies.
+	 */
+	private EffectivePermission findDecision(Authentication authentication, ObjectIdentity objectIdentity, Object permission) {
+		List<Sid> sids = sidRetrievalStrategy.getSids(authentication);
+		List<Permission> permissions = PermissionResolver.resolvePermission(permissionFactory, permission);
+		
+		List<Integer> masks = new ArrayList<Integer>(permissions.size());
+		for (Permission p : permissions) {
+			masks.add(p.getMask());
+		}
+		List<EffectivePermission> effectivePermissions = aclRepository.findEffectivePermissions(new AclObjectIdentity(objectIdentity), sids, masks);
+		
+		int depth = Integer.MAX_VALUE;
+		for (EffectivePermission effectivePermission : effectivePermissions) {
+			depth = Math.min(depth, effectivePermission.getDepth());
+		}
+		
+		EffectivePermission firstRejection = null;
+		for (Permission p : permissions) {
+			for (Sid sid : sids) {
+				EffectivePermission decision = findEffectivePermission(effectivePermissions, sid, p.getMask(), depth);
+				if (decision != null) {
+					if (decision.isGranting()) {
+						return decision;
+					}
+					if (firstRejection == null) {
+						firstRejection = decision;
+					}
+					break;
+				}
+			}
+		}
+		
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("No granting entry for object identity '" + objectIdentity + "', permissions: " + permissions + ", sids: " + sids);
+		}
+		return firstRejection;
+	}
+
+	/**
+	 * @param effectivePermissions the loaded {@link EffectivePermission} objects.
+	 * @param sid the {@link Sid} to find the entry for.
+	 * @param mask the permission mask to find the entry for.
+	 * @param depth the depth of the deciding {@link org.springframework.security.acls.model.Acl}.
+	 * @return the matching {@link EffectivePermission} or <code>null</code> if none exists.
+	 */
+	private EffectivePermission findEffectivePermission(List<EffectivePermission> effectivePermissions, Sid sid, int mask, int depth) {
+		for (EffectivePermission effectivePermission : effectivePermissions) {
+			if (effectivePermission.getDepth() == depth && effectivePermission.getMask() == mask && effectivePermission.isSid(sid)) {
+				return effectivePermission;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param decision the deciding {@link EffectivePermission}, may be <code>null</code>.
+	 * @return true if the outcome of the check must be audited.
+	 */
+	private boolean isAudited(EffectivePermission decision) {
+		return decision != null && (decision.isGranting() ? decision.isAuditSuccess() : decision.isAuditFailure());
+	}
+
+	/**
+	 * @param objectIdentityRetrievalStrategy the {@link ObjectIdentityRetrievalStrategy} to use.
+	 */
+	public void setObjectIdentityRetrievalStrategy(ObjectIdentityRetrievalStrategy objectIdentityRetrievalStrategy) {
+		this.objectIdentityRetrievalStrategy = objectIdentityRetrievalStrategy;
+		aclPermissionEvaluator.setObjectIdentityRetrievalStrategy(objectIdentityRetrievalStrategy);
+	}
+
+	/**
+	 * @param objectIdentityGenerator the {@link ObjectIdentityGenerator} to use.
+	 */
+	public void setObjectIdentityGenerator(ObjectIdentityGenerator objectIdentityGenerator) {
+		this.objectIdentityGenerator = objectIdentityGenerator;
+		aclPermissionEvaluator.setObjectIdentityGenerator(objectIdentityGenerator);
+	}
+
+	/**
+	 * @param sidRetrievalStrategy the {@link SidRetrievalStrategy} to use.
+	 */
+	public void setSidRetrievalStrategy(SidRetrievalStrategy sidRetrievalStrategy) {
+		this.sidRetrievalStrategy = sidRetrievalStrategy;
+		aclPermissionEvaluator.setSidRetrievalStrategy(sidRetrievalStrategy);
+	}
+
+	/**
+	 * @param permissionFactory the {@link PermissionFactory} to use.
+	 */
+	public void setPermissionFactory(PermissionFactory permissionFactory) {
+		this.permissionFactory = permissionFactory;
+		aclPermissionEvaluator.setPermissionFactory(permissionFactory);
+	}
+
+}
@@ -0,0 +1,341 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.security.acls.cassandra.model.AclEntry;
+import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+
+/**
+ * Immutable, compact form of the entries of a {@link CassandraAclImpl}. Each {@link Sid} is kept once in a 
+ * dictionary that the entries refer to by index, and the masks, orders and flags of the entries are packed 
+ * in primitive arrays. {@link AccessControlEntry} objects are only built when asked for, and permission 
+ * checks run directly on the arrays.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+final class PackedAclEntries implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The entries grant the permission. */
+	static final int GRANTED = 0;
+	/** The entries deny the permission. */
+	static final int DENIED = 1;
+	/** None of the entries apply for the permission. */
+	static final int NOT_FOUND = 2;
+	/** The matching entry has to be audited, the check has to run on the {@link AccessControlEntry} objects. */
+	static final int AUDIT_REQUIRED = 3;
+
+	private static final byte GRANTING = 1;
+	private static final byte AUDIT_SUCCESS = 2;
+	private static final byte AUDIT_FAILURE = 4;
+
+	private final Sid[] sids;
+	private final int[] sidIndexes;
+	private final int[] masks;
+	private final int[] orders;
+	private final byte[] flags;
+	// Only kept when some identifiers do not follow the 'objectClass:objectId:sid:order' pattern
+	private final String[] ids;
+
+	private PackedAclEntries(Sid[] sids, int[] sidIndexes, int[] masks, int[] orders, byte[] flags, String[] ids) {
+		this.sids = sids;
+		this.sidIndexes = sidIndexes;
+		this.masks = masks;
+		this.orders = orders;
+		this.flags = flags;
+		this.ids = ids;
+	}
+
+	/**
+	 * Packs the provided {@link AclEntry} objects.
+	 * 
+	 * @param rowId the row identifier of the Acl the entries belong to.
+	 * @param aclEntries the {@link AclEntry} objects to pack, in the order of the Acl entries.
+	 * @return the packed entries.
+	 */
+	static PackedAclEntries pack(String rowId, Collection<AclEntry> aclEntries) {
+		int size = aclEntries.size();
+		Map<Sid, Integer> dictionary = new HashMap<Sid, Integer>();
+		List<Sid> sids = new ArrayList<Sid>();
+		int[] sidIndexes = new int[size];
+		int[] masks = new int[size];
+		int[] orders = new int[size];
+		byte[] flags = new byte[size];
+		String[] ids = new String[size];
+		boolean idsFollowPattern = true;
+
+		int i = 0;
+		for (AclEntry entry : aclEntries) {
+			Sid sid = entry.getSidObject();
+			Integer sidIndex = dictionary.get(sid);
+			if (sidIndex == null) {
+				sidIndex = sids.size();
+				dictionary.put(sid, sidIndex);
+				sids.add(sid);
+			}
+			sidIndexes[i] = sidIndex;
+			masks[i] = entry.getMask();
+			orders[i] = entry.getOrder();
+			flags[i] = flags(entry.isGranting(), entry.isAuditSuccess(), entry.isAuditFailure());
+			ids[i] = entry.getId();
+			idsFollowPattern &= entryId(rowId, entry.getSid(), entry.getOrder()).equals(ids[i]);
+			i++;
+		}
+		return new PackedAclEntries(sids.toArray(new Sid[sids.size()]), sidIndexes, masks, orders, flags, idsFollowPattern ? null : ids);
+	}
+
+	/**
+	 * @return the number of entries.
+	 */
+	int size() {
+		return masks.length;
+	}
+
+	/**
+	 * Builds the {@link AccessControlEntry} objects of the entries.
+	 * 
+	 * @param acl the {@link Acl} the entries belong to.
+	 * @param rowId the row identifier of the Acl.
+	 * @param permissionFactory the {@link PermissionFactory} to build the {@link Permission} objects with.
+	 * @return the {@link AccessControlEntry} objects, in the order of the entries.
+	 */
+	AccessControlEntry[] toAccessControlEntries(Acl acl, String rowId, PermissionFactory permissionFactory) {
+		AccessControlEntry[] result = new AccessControlEntry[size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = new AccessControlEntryImpl(getId(rowId, i), acl, sids[sidIndexes[i]], permissionFactory.buildFromMask(masks[i]), 
+					isSet(i, GRANTING), isSet(i, AUDIT_SUCCESS), isSet(i, AUDIT_FAILURE));
+		}
+		return result;
+	}
+
+	/**
+	 * Builds {@link AclEntry} objects out of the entries.
+	 * 
+	 * @param rowId the row identifier of the Acl the entries belong to.
+	 * @return the {@link AclEntry} objects, in the order of the entries.
+	 */
+	List<AclEntry> toAclEntries(String rowId) {
+		List<AclEntry> result = new ArrayList<AclEntry>(size());
+		for (int i = 0; i < size(); i++) {
+			Sid sid = sids[sidIndexes[i]];
+			AclEntry entry = new AclEntry();
+			entry.setId(getId(rowId, i));
+			entry.setSid(sidString(sid));
+			entry.setSidPrincipal(sid instanceof PrincipalSid);
+			entry.setOrder(orders[i]);
+			entry.setMask(masks[i]);
+			entry.setGranting(isSet(i, GRANTING));
+			entry.setAuditSuccess(isSet(i, AUDIT_SUCCESS));
+			entry.setAuditFailure(isSet(i, AUDIT_FAILURE));
+			result.add(entry);
+		}
+		return result;
+	}
+
+	/**
+	 * Checks the entries for the provided permissions and {@link Sid} objects, following the rules of 
+	 * {@link org.springframework.security.acls.domain.DefaultPermissionGrantingStrategy}.
+	 * 
+	 * @param permission the permissions to check.
+	 * @param requestedSids the {@link Sid} objects to check the permissions for.
+	 * @param administrativeMode whether the check is made for administrative purposes, in which case no auditing applies.
+	 * @return one of {@link #GRANTED}, {@link #DENIED}, {@link #NOT_FOUND} or {@link #AUDIT_REQUIRED}.
+	 */
+	int check(List<Permission> permission, List<Sid> requestedSids, boolean administrativeMode) {
+		int[] requestedIndexes = new int[requestedSids.size()];
+		for (int j = 0; j < requestedIndexes.length; j++) {
+			requestedIndexes[j] = indexOf(requestedSids.get(j));
+		}
+
+		int firstRejection = -1;
+		for (Permission p : permission) {
+			int mask = p.getMask();
+			for (int sidIndex : requestedIndexes) {
+				int match = sidIndex < 0 ? -1 : find(sidIndex, mask);
+				if (match < 0) {
+					continue;
+				}
+				if (isSet(match, GRANTING)) {
+					return !administrativeMode && isSet(match, AUDIT_SUCCESS) ? AUDIT_REQUIRED : GRANTED;
+				}
+				if (firstRejection < 0) {
+					firstRejection = match;
+				}
+				// A rejection stops the scan of the remaining Sids for this permission
+				break;
+			}
+		}
+
+		if (firstRejection >= 0) {
+			return !administrativeMode && isSet(firstRejection, AUDIT_FAILURE) ? AUDIT_REQUIRED : DENIED;
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * @param index the index to insert the new entry at.
+	 * @param rowId the row identifier of the Acl the entries belong to.
+	 * @param sid the {@link Sid} of the new entry.
+	 * @param mask the permission mask of the new entry.
+	 * @param granting whether the new entry grants the permission.
+	 * @return a copy of the entries with the new entry inserted.
+	 */
+	PackedAclEntries insert(int index, String rowId, Sid sid, int mask, boolean granting) {
+		Sid[] newSids = sids;
+		int sidIndex = indexOf(sid);
+		if (sidIndex < 0) {
+			sidIndex = sids.length;
+			newSids = new Sid[sids.length + 1];
+			System.arraycopy(sids, 0, newSids, 0, sids.length);
+			newSids[sidIndex] = sid;
+		}
+
+		// New entries have no identifier, so the identifiers of all entries are kept from now on
+		String[] newIds = new String[size() + 1];
+		for (int i = 0; i < size(); i++) {
+			newIds[i < index ? i : i + 1] = getId(rowId, i);
+		}
+		return new PackedAclEntries(newSids, insert(sidIndexes, index, sidIndex), insert(masks, index, mask), 
+				insert(orders, index, index), insert(flags, index, flags(granting, false, false)), newIds);
+	}
+
+	/**
+	 * @param index the index of the entry to delete.
+	 * @return a copy of the entries without the deleted entry.
+	 */
+	PackedAclEntries delete(int index) {
+		String[] newIds = null;
+		if (ids != null) {
+			newIds = new String[ids.length - 1];
+			System.arraycopy(ids, 0, newIds, 0, index);
+			System.arraycopy(ids, index + 1, newIds, index, ids.length - index - 1);
+		}
+		return new PackedAclEntries(sids, delete(sidIndexes, index), delete(masks, index), delete(orders, index), 
+				delete(flags, index), newIds);
+	}
+
+	/**
+	 * @param index the index of the entry to update.
+	 * @param mask the new permission mask of the entry.
+	 * @return a copy of the entries with the updated entry.
+	 */
+	PackedAclEntries updateMask(int index, int mask) {
+		int[] newMasks = masks.clone();
+		newMasks[index] = mask;
+		return new PackedAclEntries(sids, sidIndexes, newMasks, orders, flags, ids);
+	}
+
+	/**
+	 * @param index the index of the entry to update.
+	 * @param auditSuccess whether granting the permission is audited.
+	 * @param auditFailure whether denying the permission is audited.
+	 * @return a copy of the entries with the updated entry.
+	 */
+	PackedAclEntries updateAuditing(int index, boolean auditSuccess, boolean auditFailure) {
+		byte[] newFlags = flags.clone();
+		newFlags[index] = flags(isSet(index, GRANTING), auditSuccess, auditFailure);
+		return new PackedAclEntries(sids, sidIndexes, masks, orders, newFlags, ids);
+	}
+
+	private int indexOf(Sid sid) {
+		for (int k = 0; k < sids.length; k++) {
+			if (sids[k].equals(sid)) {
+				return k;
+			}
+		}
+		return -1;
+	}
+
+	private int find(int sidIndex, int mask) {
+		for (int i = 0; i < masks.length; i++) {
+			if (masks[i] == mask && sidIndexes[i] == sidIndex) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean isSet(int index, byte flag) {
+		return (flags[index] & flag) != 0;
+	}
+
+	private String getId(String rowId, int index) {
+		return ids != null ? ids[index] : entryId(rowId, sidString(sids[sidIndexes[index]]), orders[index]);
+	}
+
+	private static String entryId(String rowId, String sid, int order) {
+		return rowId + ":" + sid + ":" + order;
+	}
+
+	private static String sidString(Sid sid) {
+		if (sid instanceof PrincipalSid) {
+			return ((PrincipalSid) sid).getPrincipal();
+		} else if (sid instanceof GrantedAuthoritySid) {
+			return ((GrantedAuthoritySid) sid).getGrantedAuthority();
+		}
+		return null;
+	}
+
+	private static byte flags(boolean granting, boolean auditSuccess, boolean auditFailure) {
+		return (byte) ((granting ? GRANTING : 0) | (auditSuccess ? AUDIT_SUCCESS : 0) | (auditFailure ? AUDIT_FAILURE : 0));
+	}
+
+	private static int[] insert(int[] values, int index, int value) {
+		int[] result = new int[values.length + 1];
+		System.arraycopy(values, 0, result, 0, index);
+		result[index] = value;
+		System.arraycopy(values, index, result, index + 1, values.length - index);
+		return result;
+	}
+
+	private static byte[] insert(byte[] values, int index, byte value) {
+		byte[] result = new byte[values.length + 1];
+		System.arraycopy(values, 0, result, 0, index);
+		result[index] = value;
+		System.arraycopy(values, index, result, index + 1, values.length - index);
+		return result;
+	}
+
+	private static int[] delete(int[] values, int index) {
+		int[] result = new int[values.length - 1];
+		System.arraycopy(values, 0, result, 0, index);
+		System.arraycopy(values, index + 1, result, index, values.length - index - 1);
+		return result;
+	}
+
+	private static byte[] delete(byte[] values, int index) {
+		byte[] result = new byte[values.length - 1];
+		System.arraycopy(values, 0, result, 0, index);
+		System.arraycopy(values, index + 1, result, index, values.length - index - 1);
+		return result;
+	}
+
+}
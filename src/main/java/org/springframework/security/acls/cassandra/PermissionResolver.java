@@ -0,0 +1,72 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.security.acls.AclPermissionEvaluator;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.model.Permission;
+
+/**
+ * Converts the permission arguments of permission checks to {@link Permission} objects.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+final class PermissionResolver {
+
+	private PermissionResolver() {}
+
+	/**
+	 * Converts the requested permission to a list of {@link Permission} objects, the same way 
+	 * {@link AclPermissionEvaluator} does.
+	 * 
+	 * @param permissionFactory the {@link PermissionFactory} to build permissions from masks and names.
+	 * @param permission the requested permission, either an <code>Integer</code> mask, a {@link Permission}, 
+	 * 		an array of {@link Permission} objects or a permission name.
+	 * @return the list of {@link Permission} objects.
+	 * @throws IllegalArgumentException if the permission is not supported.
+	 */
+	static List<Permission> resolvePermission(PermissionFactory permissionFactory, Object permission) {
+		if (permission instanceof Integer) {
+			return Arrays.asList(permissionFactory.buildFromMask(((Integer) permission).intValue()));
+		}
+
+		if (permission instanceof Permission) {
+			return Arrays.asList((Permission) permission);
+		}
+
+		if (permission instanceof Permission[]) {
+			return Arrays.asList((Permission[]) permission);
+		}
+
+		if (permission instanceof String) {
+			String permString = (String) permission;
+			Permission p;
+			try {
+				p = permissionFactory.buildFromName(permString);
+			} catch (IllegalArgumentException notfound) {
+				p = permissionFactory.buildFromName(permString.toUpperCase());
+			}
+			if (p != null) {
+				return Arrays.asList(p);
+			}
+		}
+		throw new IllegalArgumentException("Unsupported permission: " + permission);
+	}
+
+}
@@ -0,0 +1,68 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.cache;
+
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.Sid;
+
+/**
+ * Shared interners for the immutable values built on the read path, which repeat across the 
+ * rows of different objects: {@link Sid} objects and object class names.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+public final class AclInterners {
+
+	/** The maximum number of {@link Sid} objects of each type that are interned. */
+	public static final int MAX_SIDS = 100000;
+	/** The maximum number of object class names that are interned. */
+	public static final int MAX_OBJECT_CLASSES = 10000;
+
+	private static final BoundedInterner<String, Sid> PRINCIPAL_SIDS = new BoundedInterner<String, Sid>(MAX_SIDS);
+	private static final BoundedInterner<String, Sid> AUTHORITY_SIDS = new BoundedInterner<String, Sid>(MAX_SIDS);
+	private static final BoundedInterner<String, String> OBJECT_CLASSES = new BoundedInterner<String, String>(MAX_OBJECT_CLASSES);
+
+	private AclInterners() {}
+
+	/**
+	 * @param principal the principal of the {@link Sid}.
+	 * @return the canonical {@link PrincipalSid} for the principal.
+	 */
+	public static Sid principalSid(String principal) {
+		// Sids without a principal are rejected by the PrincipalSid constructor
+		Sid sid = principal == null ? null : PRINCIPAL_SIDS.get(principal);
+		return sid != null ? sid : PRINCIPAL_SIDS.intern(principal, new PrincipalSid(principal));
+	}
+
+	/**
+	 * @param grantedAuthority the granted authority of the {@link Sid}.
+	 * @return the canonical {@link GrantedAuthoritySid} for the granted authority.
+	 */
+	public static Sid grantedAuthoritySid(String grantedAuthority) {
+		Sid sid = grantedAuthority == null ? null : AUTHORITY_SIDS.get(grantedAuthority);
+		return sid != null ? sid : AUTHORITY_SIDS.intern(grantedAuthority, new GrantedAuthoritySid(grantedAuthority));
+	}
+
+	/**
+	 * @param objectClass the object class name, may be <code>null</code>.
+	 * @return the canonical instance of the object class name.
+	 */
+	public static String objectClass(String objectClass) {
+		return objectClass == null ? null : OBJECT_CLASSES.intern(objectClass, objectClass);
+	}
+
+}
@@ -0,0 +1,386 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.cache;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.util.Assert;
+
+/**
+ * In-process {@link AclCache} keeping at most a fixed number of {@link MutableAcl} instances in memory. 
+ * The entries are spread over independently locked segments, each evicting its least recently used 
+ * entry when full. Entries can optionally expire a fixed time after they have been written. 
+ * Hit, miss and eviction counters are maintained for monitoring.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+public class BoundedAclCache implements AclCache {
+
+	private static final Log LOG = LogFactory.getLog(BoundedAclCache.class);
+
+	private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	private final Segment[] segments;
+	private final long expireAfterWriteMillis;
+	private final ConcurrentMap<Serializable, ObjectIdentity> objectIdentitiesById = new ConcurrentHashMap<Serializable, ObjectIdentity>();
+	
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong expirationCount = new AtomicLong();
+
+	/**
+	 * Constructs a new <code>BoundedAclCache</code> whose entries never expire.
+	 * 
+	 * @param maxEntries the maximum number of {@link MutableAcl} instances to keep.
+	 */
+	public BoundedAclCache(int maxEntries) {
+		this(maxEntries, 0);
+	}
+
+	/**
+	 * Constructs a new <code>BoundedAclCache</code>.
+	 * 
+	 * @param maxEntries the maximum number of {@link MutableAcl} instances to keep.
+	 * @param expireAfterWriteMillis the time in milliseconds after which an entry expires, 
+	 * 		or 0 if entries should never expire.
+	 */
+	public BoundedAclCache(int maxEntries, long expireAfterWriteMillis) {
+		this(maxEntries, expireAfterWriteMillis, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * Constructs a new <code>BoundedAclCache</code>.
+	 * 
+	 * @param maxEntries the maximum number of {@link MutableAcl} instances to keep.
+	 * @param expireAfterWriteMillis the time in milliseconds after which an entry expires, 
+	 * 		or 0 if entries should never expire.
+	 * @param concurrencyLevel the estimated number of concurrently accessing threads. The cache is split in 
+	 * 		as many segments, rounded up to a power of two. The least recently used entry is evicted per segment.
+	 */
+	public BoundedAclCache(int maxEntries, long expireAfterWriteMillis, int concurrencyLevel) {
+		Assert.isTrue(maxEntries > 0, "maxEntries must be positive");
+		Assert.isTrue(expireAfterWriteMillis >= 0, "expireAfterWriteMillis must not be negative");
+		Assert.isTrue(concurrencyLevel > 0, "concurrencyLevel must be positive");
+		
+		int segmentCount = 1;
+		while (segmentCount < concurrencyLevel && segmentCount < maxEntries) {
+			segmentCount <<= 1;
+		}
+		
+		this.expireAfterWriteMillis = expireAfterWriteMillis;
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			// Spread the remainder over the first segments so that the capacities add up to maxEntries
+			segments[i] = new Segment(maxEntries / segmentCount + (i < maxEntries % segmentCount ? 1 : 0));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.AclCache#getFromCache(org.springframework.security.acls.model.ObjectIdentity)
+	 */
+	public MutableAcl getFromCache(ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		MutableAcl acl = segmentFor(objectIdentity).get(objectIdentity);
+		if (acl != null) {
+			hitCount.incrementAndGet();
+		} else {
+			missCount.incrementAndGet();
+		}
+		return acl;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.AclCache#getFromCache(java.io.Serializable)
+	 */
+	public MutableAcl getFromCache(Serializable pk) {
+		Assert.notNull(pk, "Primary key (identifier) required");
+		ObjectIdentity objectIdentity = objectIdentitiesById.get(pk);
+		if (objectIdentity == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+		return getFromCache(objectIdentity);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.AclCache#putInCache(org.springframework.security.acls.model.MutableAcl)
+	 */
+	public void putInCache(MutableAcl acl) {
+		Assert.notNull(acl, "Acl required");
+		Assert.notNull(acl.getObjectIdentity(), "ObjectIdentity required");
+		Assert.notNull(acl.getId(), "ID required");
+		
+		// Same as EhCacheBasedAclCache, parents are cached along with the Acl
+		Acl parentAcl = acl.getParentAcl();
+		if (parentAcl instanceof MutableAcl && parentAcl != acl) {
+			putInCache((MutableAcl) parentAcl);
+		}
+		
+		objectIdentitiesById.put(acl.getId(), acl.getObjectIdentity());
+		segmentFor(acl.getObjectIdentity()).put(acl.getObjectIdentity(), acl);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.AclCache#evictFromCache(org.springframework.security.acls.model.ObjectIdentity)
+	 */
+	public void evictFromCache(ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		segmentFor(objectIdentity).remove(objectIdentity);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.AclCache#evictFromCache(java.io.Serializable)
+	 */
+	public void evictFromCache(Serializable pk) {
+		Assert.notNull(pk, "Primary key (identifier) required");
+		ObjectIdentity objectIdentity = objectIdentitiesById.get(pk);
+		if (objectIdentity != null) {
+			evictFromCache(objectIdentity);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.model.AclCache#clearCache()
+	 */
+	public void clearCache() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+		
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Cache cleared: " + this);
+		}
+	}
+
+	/**
+	 * @return the number of {@link MutableAcl} instances currently in the cache, including expired ones not yet removed.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of lookups that returned a cached {@link MutableAcl}.
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return the number of lookups that did not return a cached {@link MutableAcl}.
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @return the ratio of lookups that returned a cached {@link MutableAcl}, or 0 if no lookup has been made.
+	 */
+	public double getHitRate() {
+		long hits = hitCount.get();
+		long requests = hits + missCount.get();
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	/**
+	 * @return the number of entries removed to make room for new entries.
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * @return the number of entries removed because they expired.
+	 */
+	public long getExpirationCount() {
+		return expirationCount.get();
+	}
+
+	/**
+	 * Resets the hit, miss, eviction and expiration counters.
+	 */
+	public void resetStatistics() {
+		hitCount.set(0);
+		missCount.set(0);
+		evictionCount.set(0);
+		expirationCount.set(0);
+	}
+
+	/**
+	 * @return the current time in milliseconds, used for the expiration of entries.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * @param objectIdentity the {@link ObjectIdentity} to find the segment for.
+	 * @return the segment holding the entry of the {@link ObjectIdentity}.
+	 */
+	private Segment segmentFor(ObjectIdentity objectIdentity) {
+		int hash = objectIdentity.hashCode();
+		hash ^= (hash >>> 16);
+		return segments[hash & (segments.length - 1)];
+	}
+
+	/**
+	 * Removes the identifier mapping of a removed entry, unless it has been mapped to another entry since.
+	 * 
+	 * @param acl the removed {@link MutableAcl}.
+	 */
+	private void unmapId(MutableAcl acl) {
+		objectIdentitiesById.remove(acl.getId(), acl.getObjectIdentity());
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("BoundedAclCache [").append("size: ").append(size());
+		sb.append(", hits: ").append(hitCount.get());
+		sb.append(", misses: ").append(missCount.get());
+		sb.append(", evictions: ").append(evictionCount.get());
+		sb.append(", expirations: ").append(expirationCount.get()).append("]");
+		return sb.toString();
+	}
+
+	/**
+	 * A part of the cache with its own lock, kept in access order.
+	 */
+	private final class Segment {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final LinkedHashMap<ObjectIdentity, CacheEntry> entries;
+
+		/**
+		 * @param capacity the maximum number of entries in this segment.
+		 */
+		Segment(final int capacity) {
+			this.entries = new LinkedHashMap<ObjectIdentity, CacheEntry>(16, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<ObjectIdentity, CacheEntry> eldest) {
+					if (size() > capacity) {
+						evictionCount.incrementAndGet();
+						unmapId(eldest.getValue().acl);
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		MutableAcl get(ObjectIdentity objectIdentity) {
+			lock.lock();
+			try {
+				CacheEntry entry = entries.get(objectIdentity);
+				if (entry == null) {
+					return null;
+				}
+				if (expireAfterWriteMillis > 0 && currentTimeMillis() - entry.writeTime >= expireAfterWriteMillis) {
+					entries.remove(objectIdentity);
+					unmapId(entry.acl);
+					expirationCount.incrementAndGet();
+					return null;
+				}
+				return entry.acl;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void put(ObjectIdentity objectIdentity, MutableAcl acl) {
+			lock.lock();
+			try {
+				CacheEntry previous = entries.put(objectIdentity, new CacheEntry(acl, currentTimeMillis()));
+				if (previous != null && !previous.acl.getId().equals(acl.getId())) {
+					unmapId(previous.acl);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void remove(ObjectIdentity objectIdentity) {
+			lock.lock();
+			try {
+				CacheEntry entry = entries.remove(objectIdentity);
+				if (entry != null) {
+					unmapId(entry.acl);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void clear() {
+			lock.lock();
+			try {
+				for (CacheEntry entry : entries.values()) {
+					unmapId(entry.acl);
+				}
+				entries.clear();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		int size() {
+			lock.lock();
+			try {
+				return entries.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * A cached {@link MutableAcl} along with the time it was written.
+	 */
+	private static final class CacheEntry {
+
+		private final MutableAcl acl;
+		private final long writeTime;
+
+		CacheEntry(MutableAcl acl, long writeTime) {
+			this.acl = acl;
+			this.writeTime = writeTime;
+		}
+	}
+
+}
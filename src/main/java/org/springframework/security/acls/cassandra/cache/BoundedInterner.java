@@ -0,0 +1,89 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+
+/**
+ * Thread safe interner keeping one canonical instance per key, so that equal immutable objects read 
+ * repeatedly from the database are shared instead of being allocated again. At most a fixed number of 
+ * instances are kept: once full, the least recently used instance is evicted to make room for a new one.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the interned values.
+ */
+public class BoundedInterner<K, V> {
+
+	private final Map<K, V> instances;
+
+	/**
+	 * Constructs a new <code>BoundedInterner</code>.
+	 * 
+	 * @param maxSize the maximum number of instances to keep.
+	 */
+	public BoundedInterner(final int maxSize) {
+		Assert.isTrue(maxSize > 0, "Max size must be greater than zero");
+		this.instances = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @param key the key of the instance.
+	 * @return the canonical instance for the key, or <code>null</code> if there is none.
+	 */
+	public synchronized V get(K key) {
+		return instances.get(key);
+	}
+
+	/**
+	 * @param key the key of the instance.
+	 * @param value the instance to use if there is no canonical instance for the key yet.
+	 * @return the canonical instance for the key, the provided instance if there was none.
+	 */
+	public synchronized V intern(K key, V value) {
+		V existing = instances.get(key);
+		if (existing != null) {
+			return existing;
+		}
+		instances.put(key, value);
+		return value;
+	}
+
+	/**
+	 * @return the number of instances kept.
+	 */
+	public synchronized int size() {
+		return instances.size();
+	}
+
+	/**
+	 * Removes all the instances kept.
+	 */
+	public synchronized void clear() {
+		instances.clear();
+	}
+
+}
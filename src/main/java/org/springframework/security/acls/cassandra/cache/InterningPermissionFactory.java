@@ -0,0 +1,78 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.cache;
+
+import java.util.List;
+
+import org.springframework.security.acls.domain.CumulativePermission;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.util.Assert;
+
+/**
+ * {@link PermissionFactory} returning one shared {@link Permission} instance per mask, built once by the
+ * wrapped {@link PermissionFactory}. The returned permissions are shared between all the Acls, so only 
+ * immutable permissions are interned: a {@link CumulativePermission} can be changed by its callers, 
+ * so one is built for every call.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+public class InterningPermissionFactory implements PermissionFactory {
+
+	/** The maximum number of masks whose {@link Permission} is interned. */
+	public static final int MAX_PERMISSIONS = 1000;
+
+	private final PermissionFactory permissionFactory;
+	private final BoundedInterner<Integer, Permission> permissions = new BoundedInterner<Integer, Permission>(MAX_PERMISSIONS);
+
+	/**
+	 * Constructs a new <code>InterningPermissionFactory</code>.
+	 * 
+	 * @param permissionFactory the {@link PermissionFactory} building the permissions.
+	 */
+	public InterningPermissionFactory(PermissionFactory permissionFactory) {
+		Assert.notNull(permissionFactory, "PermissionFactory required");
+		this.permissionFactory = permissionFactory;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.domain.PermissionFactory#buildFromMask(int)
+	 */
+	public Permission buildFromMask(int mask) {
+		Integer key = Integer.valueOf(mask);
+		Permission permission = permissions.get(key);
+		if (permission != null) {
+			return permission;
+		}
+		permission = permissionFactory.buildFromMask(mask);
+		return permission instanceof CumulativePermission ? permission : permissions.intern(key, permission);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.domain.PermissionFactory#buildFromName(java.lang.String)
+	 */
+	public Permission buildFromName(String name) {
+		return permissionFactory.buildFromName(name);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.domain.PermissionFactory#buildFromNames(java.util.List)
+	 */
+	public List<Permission> buildFromNames(List<String> names) {
+		return permissionFactory.buildFromNames(names);
+	}
+
+}
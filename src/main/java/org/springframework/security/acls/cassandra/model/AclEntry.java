@@ -14,6 +14,7 @@
  */
 package org.springframework.security.acls.cassandra.model;
 
+import org.springframework.security.acls.cassandra.cache.AclInterners;
 import org.springframework.security.acls.domain.GrantedAuthoritySid;
 import org.springframework.security.acls.domain.PrincipalSid;
 import org.springframework.security.acls.model.AccessControlEntry;
@@ -49,10 +50,21 @@ public class AclEntry {
 	 * @param ace the {@link AccessControlEntry} to use for parameter population.
 	 */
 	public AclEntry(AccessControlEntry ace) {
+		this(ace, ace.getAcl().getEntries().indexOf(ace));
+	}
+	
+	/**
+	 * Constructs a new <code>AclEntry</code> out of the provided <code>AccessControlEntry</code>, 
+	 * found at the provided index of the Acl entries.
+	 * 
+	 * @param ace the {@link AccessControlEntry} to use for parameter population.
+	 * @param order the index of the {@link AccessControlEntry} in the Acl entries.
+	 */
+	public AclEntry(AccessControlEntry ace, int order) {
 		granting = ace.isGranting();
 		id = (String) ace.getId();
 		mask = ace.getPermission().getMask();
-		order = ace.getAcl().getEntries().indexOf(ace);
+		this.order = order;
 		
 		if (ace.getSid() instanceof PrincipalSid) {
 			sid = ((PrincipalSid) ace.getSid()).getPrincipal();
@@ -114,9 +126,9 @@ public class AclEntry {
 	public Sid getSidObject() {
 		Sid result = null;
 		if (sidPrincipal) {
-			result = new PrincipalSid(sid);
+			result = AclInterners.principalSid(sid);
 		} else {
-			result = new GrantedAuthoritySid(sid);
+			result = AclInterners.grantedAuthoritySid(sid);
 		}
 		return result;
 	}
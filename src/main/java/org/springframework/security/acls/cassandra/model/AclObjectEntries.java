@@ -0,0 +1,67 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.model;
+
+import java.util.List;
+
+/**
+ * DTO representing the {@link AclEntry} objects of a single Sid on a domain object instance.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+public class AclObjectEntries {
+
+	private final AclObjectIdentity objectIdentity;
+	private final List<AclEntry> entries;
+
+	/**
+	 * Constructs a new <code>AclObjectEntries</code>.
+	 * 
+	 * @param objectIdentity the {@link AclObjectIdentity} the entries apply to. Only its identification 
+	 * 		parameters are populated.
+	 * @param entries the entries of the Sid, in the order they appear in the Acl.
+	 */
+	public AclObjectEntries(AclObjectIdentity objectIdentity, List<AclEntry> entries) {
+		this.objectIdentity = objectIdentity;
+		this.entries = entries;
+	}
+
+	/**
+	 * @return the {@link AclObjectIdentity} the entries apply to.
+	 */
+	public AclObjectIdentity getObjectIdentity() {
+		return objectIdentity;
+	}
+
+	/**
+	 * @return the entries of the Sid, in the order they appear in the Acl.
+	 */
+	public List<AclEntry> getEntries() {
+		return entries;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("AclObjectEntries [").append("objectIdentity: ").append(objectIdentity);
+		sb.append(", entries: ").append(entries).append("]");
+		return sb.toString();
+	}
+
+}
@@ -14,6 +14,7 @@
  */
 package org.springframework.security.acls.cassandra.model;
 
+import org.springframework.security.acls.cassandra.cache.AclInterners;
 import org.springframework.security.acls.domain.GrantedAuthoritySid;
 import org.springframework.security.acls.domain.ObjectIdentityImpl;
 import org.springframework.security.acls.domain.PrincipalSid;
@@ -37,6 +38,9 @@ public class AclObjectIdentity {
 	private String ownerId;
 	private boolean ownerPrincipal;
 	private boolean entriesInheriting;
+	private long version;
+	// Computed once, reset when the identifier or the object class change
+	private String rowId;
 
 	/**
 	 * Constructs a new <code>AclObjectIdentity</code>
@@ -50,7 +54,7 @@ public class AclObjectIdentity {
 	 */
 	public AclObjectIdentity(ObjectIdentity objectIdentity) {
 		Assert.notNull(objectIdentity, "ObjectIdentity required");
-		objectClass = objectIdentity.getType();
+		objectClass = AclInterners.objectClass(objectIdentity.getType());
 		id = (String) objectIdentity.getIdentifier();
 	}
 	
@@ -63,7 +67,7 @@ public class AclObjectIdentity {
 		Assert.notNull(acl, "Acl required");		
 		entriesInheriting = acl.isEntriesInheriting();
 		id = (String) acl.getObjectIdentity().getIdentifier();
-		objectClass = acl.getObjectIdentity().getType();
+		objectClass = AclInterners.objectClass(acl.getObjectIdentity().getType());
 		
 		if (acl.getOwner() instanceof PrincipalSid) {
 			ownerId = ((PrincipalSid) acl.getOwner()).getPrincipal();
@@ -74,7 +78,7 @@ public class AclObjectIdentity {
 		}
 	
 		parentObjectId = acl.getParentAcl() != null ? (String) acl.getParentAcl().getObjectIdentity().getIdentifier() : null;
-		parentObjectClass = acl.getParentAcl() != null ? (String) acl.getParentAcl().getObjectIdentity().getType() : null;
+		parentObjectClass = acl.getParentAcl() != null ? AclInterners.objectClass(acl.getParentAcl().getObjectIdentity().getType()) : null;
 	}
 	
 	/**
@@ -89,6 +93,7 @@ public class AclObjectIdentity {
 	 */
 	public void setId(String id) {
 		this.id = id;
+		this.rowId = null;
 	}
 
 	/**
@@ -117,7 +122,8 @@ public class AclObjectIdentity {
 	 * @param objectClass the type of the domain object managed by this <code>AclObjectIdentity</code>.
 	 */
 	public void setObjectClass(String objectClass) {
-		this.objectClass = objectClass;
+		this.objectClass = AclInterners.objectClass(objectClass);
+		this.rowId = null;
 	}
 
 	/**
@@ -147,9 +153,9 @@ public class AclObjectIdentity {
 	public Sid getOwnerSid() {
 		Sid result = null;
 		if (ownerPrincipal) {
-			result = new PrincipalSid(ownerId);
+			result = AclInterners.principalSid(ownerId);
 		} else {
-			result = new GrantedAuthoritySid(ownerId);
+			result = AclInterners.grantedAuthoritySid(ownerId);
 		}
 		return result;
 	}
@@ -175,6 +181,21 @@ public class AclObjectIdentity {
 		this.entriesInheriting = entriesInheriting;
 	}
 	
+	/**
+	 * @return the version of the persisted record of this <code>AclObjectIdentity</code>, 
+	 * 		incremented on every update.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param version the version of the persisted record of this <code>AclObjectIdentity</code>.
+	 */
+	public void setVersion(long version) {
+		this.version = version;
+	}
+	
 	/**
 	 * @return the type of the domain object of the parent of this <code>AclObjectIdentity</code>.
 	 */
@@ -196,7 +217,7 @@ public class AclObjectIdentity {
 	 * @param parentObjectClass the type of the domain object of the parent of this <code>AclObjectIdentity</code>.
 	 */
 	public void setParentObjectClass(String parentObjectClass) {
-		this.parentObjectClass = parentObjectClass;
+		this.parentObjectClass = AclInterners.objectClass(parentObjectClass);
 	}
 
 	/**
@@ -210,7 +231,12 @@ public class AclObjectIdentity {
 	 * @return the primary key under which this <code>AclObjectIdentity</code> is stored in the database.
 	 */
 	public String getRowId() {
-		return objectClass + ":" + id;
+		String result = rowId;
+		if (result == null) {
+			result = objectClass + ":" + id;
+			rowId = result;
+		}
+		return result;
 	}
 	
 	/**
@@ -235,7 +261,8 @@ public class AclObjectIdentity {
 		sb.append(", parentObjectClass: ").append(parentObjectClass);
 		sb.append(", ownerId: ").append(ownerId);
 		sb.append(", ownerPrincipal: ").append(ownerPrincipal);
-		sb.append(", entriesInheriting: ").append(entriesInheriting).append("]");
+		sb.append(", entriesInheriting: ").append(entriesInheriting);
+		sb.append(", version: ").append(version).append("]");
 		return sb.toString();
 	}
 
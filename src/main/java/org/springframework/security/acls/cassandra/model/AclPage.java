@@ -0,0 +1,75 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.model;
+
+import java.util.List;
+
+/**
+ * DTO representing a page of results read from the database, along with the state needed to read the next page.
+ * 
+ * @param <T> the type of the results.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+public class AclPage<T> {
+
+	private final List<T> content;
+	private final String pagingState;
+
+	/**
+	 * Constructs a new <code>AclPage</code>.
+	 * 
+	 * @param content the results of the page.
+	 * @param pagingState the state to pass to read the next page, or <code>null</code> if this is the last page.
+	 */
+	public AclPage(List<T> content, String pagingState) {
+		this.content = content;
+		this.pagingState = pagingState;
+	}
+
+	/**
+	 * @return the results of the page.
+	 */
+	public List<T> getContent() {
+		return content;
+	}
+
+	/**
+	 * @return the state to pass to read the next page, or <code>null</code> if this is the last page.
+	 */
+	public String getPagingState() {
+		return pagingState;
+	}
+
+	/**
+	 * @return whether there may be more results after this page. The next page may still turn out to be empty.
+	 */
+	public boolean hasNext() {
+		return pagingState != null;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("AclPage [").append("content: ").append(content);
+		sb.append(", pagingState: ").append(pagingState).append("]");
+		return sb.toString();
+	}
+
+}
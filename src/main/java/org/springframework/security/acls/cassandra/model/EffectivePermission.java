@@ -0,0 +1,199 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.model;
+
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.AuditableAccessControlEntry;
+import org.springframework.security.acls.model.Sid;
+
+/**
+ * DTO representing the entry that decides a permission mask for a Sid on a domain object, after inheritance. 
+ * It is the first entry for the Sid and mask in the nearest Acl of the inheritance chain that has one.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+public class EffectivePermission {
+
+	private String sid;
+	private boolean sidPrincipal;
+	private int mask;
+	private int depth;
+	private boolean granting;
+	private boolean auditSuccess;
+	private boolean auditFailure;
+
+	/**
+	 * Constructs a new <code>EffectivePermission</code>.
+	 */
+	public EffectivePermission() {}
+
+	/**
+	 * Constructs a new <code>EffectivePermission</code> out of the provided <code>AccessControlEntry</code>.
+	 * 
+	 * @param ace the deciding {@link AccessControlEntry}.
+	 * @param depth the distance of the Acl holding the entry from the domain object. 
+	 */
+	public EffectivePermission(AccessControlEntry ace, int depth) {
+		this.depth = depth;
+		granting = ace.isGranting();
+		mask = ace.getPermission().getMask();
+		
+		if (ace.getSid() instanceof PrincipalSid) {
+			sid = ((PrincipalSid) ace.getSid()).getPrincipal();
+			sidPrincipal = true;
+		} else if (ace.getSid() instanceof GrantedAuthoritySid) {
+			sid = ((GrantedAuthoritySid) ace.getSid()).getGrantedAuthority();
+			sidPrincipal = false;
+		}
+		
+		if (ace instanceof AuditableAccessControlEntry) {
+			auditSuccess = ((AuditableAccessControlEntry) ace).isAuditSuccess();
+			auditFailure =  ((AuditableAccessControlEntry) ace).isAuditFailure();
+		}
+	}
+
+	/**
+	 * @return the identifier of the Sid for this <code>EffectivePermission</code>.
+	 */
+	public String getSid() {
+		return sid;
+	}
+
+	/**
+	 * @param sid the identifier of the Sid for this <code>EffectivePermission</code>.
+	 */
+	public void setSid(String sid) {
+		this.sid = sid;
+	}
+
+	/**
+	 * @return true if the Sid for this <code>EffectivePermission</code> is of type {@link PrincipalSid}
+	 * 		of false if it is of type {@link GrantedAuthoritySid}. 
+	 */
+	public boolean isSidPrincipal() {
+		return sidPrincipal;
+	}
+
+	/**
+	 * @param sidPrincipal whether the Sid for this <code>EffectivePermission</code> is of type {@link PrincipalSid}.
+	 */
+	public void setSidPrincipal(boolean sidPrincipal) {
+		this.sidPrincipal = sidPrincipal;
+	}
+
+	/**
+	 * @param sidObject the {@link Sid} to compare with.
+	 * @return true if this <code>EffectivePermission</code> applies to the provided {@link Sid}.
+	 */
+	public boolean isSid(Sid sidObject) {
+		if (sidObject instanceof PrincipalSid) {
+			return sidPrincipal && ((PrincipalSid) sidObject).getPrincipal().equals(sid);
+		} else if (sidObject instanceof GrantedAuthoritySid) {
+			return !sidPrincipal && ((GrantedAuthoritySid) sidObject).getGrantedAuthority().equals(sid);
+		}
+		return false;
+	}
+
+	/**
+	 * @return the bits that represent the permission.
+	 */
+	public int getMask() {
+		return mask;
+	}
+
+	/**
+	 * @param mask the bits that represent the permission.
+	 */
+	public void setMask(int mask) {
+		this.mask = mask;
+	}
+
+	/**
+	 * @return the distance of the Acl holding the deciding entry from the domain object, 
+	 * 		0 being the Acl of the domain object itself.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @param depth the distance of the Acl holding the deciding entry from the domain object.
+	 */
+	public void setDepth(int depth) {
+		this.depth = depth;
+	}
+
+	/**
+	 * @return true if permission is being granted, false if is being revoked/blocked.
+	 */
+	public boolean isGranting() {
+		return granting;
+	}
+
+	/**
+	 * @param granting true if permission is being granted, false if is being revoked/blocked.
+	 */
+	public void setGranting(boolean granting) {
+		this.granting = granting;
+	}
+
+	/**
+	 * @return true if auditing is enabled for success on the deciding entry, false otherwise.
+	 */
+	public boolean isAuditSuccess() {
+		return auditSuccess;
+	}
+
+	/**
+	 * @param auditSuccess true if auditing is enabled for success on the deciding entry, false otherwise.
+	 */
+	public void setAuditSuccess(boolean auditSuccess) {
+		this.auditSuccess = auditSuccess;
+	}
+
+	/**
+	 * @return true if auditing is enabled for failure on the deciding entry, false otherwise.
+	 */
+	public boolean isAuditFailure() {
+		return auditFailure;
+	}
+
+	/**
+	 * @param auditFailure true if auditing is enabled for failure on the deciding entry, false otherwise.
+	 */
+	public void setAuditFailure(boolean auditFailure) {
+		this.auditFailure = auditFailure;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("EffectivePermission [").append("sid: ").append(sid);
+		sb.append(", sidPrincipal: ").append(sidPrincipal);
+		sb.append(", mask: ").append(mask);
+		sb.append(", depth: ").append(depth);
+		sb.append(", granting: ").append(granting);
+		sb.append(", auditSuccess: ").append(auditSuccess);
+		sb.append(", auditFailure: ").append(auditFailure).append("]");
+		return sb.toString();
+	}
+
+}
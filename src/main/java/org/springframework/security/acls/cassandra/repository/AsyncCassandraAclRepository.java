@@ -0,0 +1,188 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.repository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.security.acls.cassandra.model.AclEntry;
+import org.springframework.security.acls.cassandra.model.AclObjectEntries;
+import org.springframework.security.acls.cassandra.model.AclObjectIdentity;
+import org.springframework.security.acls.cassandra.model.AclPage;
+import org.springframework.security.acls.cassandra.model.EffectivePermission;
+import org.springframework.security.acls.cassandra.repository.exceptions.AclAlreadyExistsException;
+import org.springframework.security.acls.cassandra.repository.exceptions.AclNotFoundException;
+import org.springframework.security.acls.model.Sid;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Non-blocking counterpart of {@link CassandraAclRepository}. Every operation returns immediately
+ * with a future that completes when the database has replied. Failures, including
+ * {@link AclAlreadyExistsException} and {@link AclNotFoundException}, fail the returned future.
+ *
+ * @author Rigas Grigoropoulos
+ *
+ */
+public interface AsyncCassandraAclRepository {
+
+	/**
+	 * Loads the {@link AclEntry} instances that apply for the passed {@link AclObjectIdentity} objects.
+	 *
+	 * @param objectIdsToLookup the objects to find {@link AclEntry} information for.
+	 * @return a future holding a map with a set of {@link AclEntry} instances for each {@link AclObjectIdentity}
+	 * 		found, as returned by {@link CassandraAclRepository#findAcls(List)}.
+	 */
+	ListenableFuture<Map<AclObjectIdentity, Set<AclEntry>>> findAclsAsync(List<AclObjectIdentity> objectIdsToLookup);
+
+	/**
+	 * Loads the {@link AclEntry} instances of the provided {@link Sid} objects that apply for the passed {@link AclObjectIdentity} objects.
+	 *
+	 * @param objectIdsToLookup the objects to find {@link AclEntry} information for.
+	 * @param sids the {@link Sid} objects to load the entries of, or <code>null</code> to load all entries.
+	 * @return a future holding a map with a set of {@link AclEntry} instances for each {@link AclObjectIdentity}
+	 * 		found, as returned by {@link CassandraAclRepository#findAcls(List, List)}.
+	 */
+	ListenableFuture<Map<AclObjectIdentity, Set<AclEntry>>> findAclsAsync(List<AclObjectIdentity> objectIdsToLookup, List<Sid> sids);
+
+	/**
+	 * Loads the stored ancestor paths of the passed {@link AclObjectIdentity} objects.
+	 *
+	 * @param objectIds the objects to find the ancestors of.
+	 * @return a future holding a map with the list of ancestors for each {@link AclObjectIdentity} that has a 
+	 * 		stored ancestor path, as returned by {@link CassandraAclRepository#findAclObjectIdentityAncestors(List)}.
+	 */
+	ListenableFuture<Map<AclObjectIdentity, List<AclObjectIdentity>>> findAclObjectIdentityAncestorsAsync(List<AclObjectIdentity> objectIds);
+
+	/**
+	 * Loads a fully populated {@link AclObjectIdentity} object from the database for the provided {@link AclObjectIdentity}.
+	 *
+	 * @param objectId the {@link AclObjectIdentity} to load from the database.
+	 * @return a future holding the fully populated {@link AclObjectIdentity} object, or <code>null</code> if not found.
+	 */
+	ListenableFuture<AclObjectIdentity> findAclObjectIdentityAsync(AclObjectIdentity objectId);
+
+	/**
+	 * Loads the {@link AclObjectIdentity} instances that use the specified parent.
+	 *
+	 * @param objectId the object to find children for.
+	 * @return a future holding the list of children.
+	 */
+	ListenableFuture<List<AclObjectIdentity>> findAclObjectIdentityChildrenAsync(AclObjectIdentity objectId);
+
+	/**
+	 * Loads the {@link AclObjectIdentity} instances that use any of the specified parents.
+	 *
+	 * @param objectIds the objects to find children for.
+	 * @return a future holding a map with the list of children for each {@link AclObjectIdentity} passed as an argument,
+	 * 		as returned by {@link CassandraAclRepository#findChildrenOfAclObjectIdentities(List)}.
+	 */
+	ListenableFuture<Map<AclObjectIdentity, List<AclObjectIdentity>>> findChildrenOfAclObjectIdentitiesAsync(List<AclObjectIdentity> objectIds);
+
+	/**
+	 * Loads a page of the {@link AclObjectIdentity} instances that use the specified parent.
+	 *
+	 * @param objectId the object to find children for.
+	 * @param pagingState the paging state of the previous page, or <code>null</code> to load the first page.
+	 * @param pageSize the maximum number of children in the page.
+	 * @return a future holding the page of children, as returned by 
+	 * 		{@link CassandraAclRepository#findAclObjectIdentityChildren(AclObjectIdentity, String, int)}.
+	 */
+	ListenableFuture<AclPage<AclObjectIdentity>> findAclObjectIdentityChildrenAsync(AclObjectIdentity objectId, String pagingState, int pageSize);
+
+	/**
+	 * Loads a page of the {@link AclObjectIdentity} instances that use each of the specified parents.
+	 *
+	 * @param pagingStates the objects to find children for, each with the paging state of its previous page, 
+	 * 		or <code>null</code> to load its first page.
+	 * @param pageSize the maximum number of children in the page of each parent.
+	 * @return a future holding a map with the page of children for each {@link AclObjectIdentity} passed as an argument,
+	 * 		as returned by {@link CassandraAclRepository#findChildrenOfAclObjectIdentities(Map, int)}.
+	 */
+	ListenableFuture<Map<AclObjectIdentity, AclPage<AclObjectIdentity>>> findChildrenOfAclObjectIdentitiesAsync(Map<AclObjectIdentity, String> pagingStates, 
+			int pageSize);
+
+	/**
+	 * Removes all relevant records for the provided {@link AclObjectIdentity} instances.
+	 *
+	 * @param objectIdsToDelete the {@link AclObjectIdentity} instances representing the records to delete.
+	 * @return a future that completes when the records have been removed.
+	 */
+	ListenableFuture<Void> deleteAclsAsync(List<AclObjectIdentity> objectIdsToDelete);
+
+	/**
+	 * Saves an {@link AclObjectIdentity} record in the database. It will have no entries.
+	 *
+	 * @param aoi the {@link AclObjectIdentity} to save.
+	 * @return a future that completes when the record has been saved, or fails with an
+	 * 		{@link AclAlreadyExistsException} if the passed object identity already has a record.
+	 */
+	ListenableFuture<Void> saveAclAsync(AclObjectIdentity aoi);
+
+	/**
+	 * Changes an existing {@link AclObjectIdentity} or the related {@link AclEntry} records in the database.
+	 *
+	 * @param aoi the {@link AclObjectIdentity} to update.
+	 * @param entries the list of {@link AclEntry} objects to update.
+	 * @return a future that completes when the records have been updated, or fails with an
+	 * 		{@link AclNotFoundException} if the relevant record could not be found.
+	 */
+	ListenableFuture<Void> updateAclAsync(AclObjectIdentity aoi, List<AclEntry> entries);
+
+	/**
+	 * Changes an existing {@link AclObjectIdentity} or the related {@link AclEntry} records in the database, given the state they were previously loaded in.
+	 *
+	 * @param aoi the {@link AclObjectIdentity} to update.
+	 * @param entries the list of {@link AclEntry} objects to update.
+	 * @param previousAoi the {@link AclObjectIdentity} as previously loaded, including its version.
+	 * @param previousEntries the list of {@link AclEntry} objects as previously loaded.
+	 * @return a future that completes when the records have been updated, or fails with an
+	 * 		{@link AclNotFoundException} if the relevant record could not be found.
+	 * @see CassandraAclRepository#updateAcl(AclObjectIdentity, List, AclObjectIdentity, List)
+	 */
+	ListenableFuture<Void> updateAclAsync(AclObjectIdentity aoi, List<AclEntry> entries, AclObjectIdentity previousAoi, List<AclEntry> previousEntries);
+
+	/**
+	 * Loads the stored effective permissions of an {@link AclObjectIdentity} for the provided {@link Sid} objects and masks.
+	 *
+	 * @param objectId the {@link AclObjectIdentity} to load the effective permissions of.
+	 * @param sids the {@link Sid} objects to load the effective permissions for.
+	 * @param masks the permission masks to load the effective permissions for.
+	 * @return a future holding the list of stored {@link EffectivePermission} objects.
+	 */
+	ListenableFuture<List<EffectivePermission>> findEffectivePermissionsAsync(AclObjectIdentity objectId, List<Sid> sids, List<Integer> masks);
+
+	/**
+	 * Replaces the stored effective permissions of the provided {@link AclObjectIdentity} objects.
+	 *
+	 * @param permissions the complete list of {@link EffectivePermission} objects for each {@link AclObjectIdentity} to update.
+	 * @return a future that completes when the effective permissions have been replaced.
+	 */
+	ListenableFuture<Void> updateEffectivePermissionsAsync(Map<AclObjectIdentity, List<EffectivePermission>> permissions);
+
+	/**
+	 * Loads a page of the {@link AclEntry} instances of a {@link Sid}, grouped by the {@link AclObjectIdentity} they apply to.
+	 *
+	 * @param sid the {@link Sid} to load the entries of.
+	 * @param objectClass the class of the objects to load the entries of, or <code>null</code> for all classes.
+	 * @param pagingState the paging state of the previous page, or <code>null</code> to load the first page.
+	 * @param pageSize the maximum number of entries to read for the page.
+	 * @return a future holding the page of {@link AclObjectEntries}, as returned by 
+	 * 		{@link CassandraAclRepository#findAclEntriesBySid(Sid, String, String, int)}.
+	 */
+	ListenableFuture<AclPage<AclObjectEntries>> findAclEntriesBySidAsync(Sid sid, String objectClass, String pagingState, int pageSize);
+
+}
@@ -0,0 +1,466 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.security.acls.cassandra.model.AclEntry;
+import org.springframework.security.acls.cassandra.model.AclObjectEntries;
+import org.springframework.security.acls.cassandra.model.AclObjectIdentity;
+import org.springframework.security.acls.cassandra.model.AclPage;
+import org.springframework.security.acls.cassandra.model.EffectivePermission;
+import org.springframework.security.acls.cassandra.repository.exceptions.AclAlreadyExistsException;
+import org.springframework.security.acls.cassandra.repository.exceptions.AclNotFoundException;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * {@link CassandraAclRepository} merging the <code>findAcls</code> calls of concurrent threads into fewer, larger calls 
+ * to a delegate repository. A call is queued until either the configured delay has passed since the oldest queued call, 
+ * or the queued calls request the configured number of objects. A single dispatcher thread then issues one merged 
+ * <code>findAcls</code> call and hands each caller the part of the result for its own objects. If the delegate is an 
+ * {@link AsyncCassandraAclRepository}, the dispatcher does not wait for a merged call to complete before collecting the 
+ * next one. All other operations are passed to the delegate directly.
+ * 
+ * <p>
+ * Call {@link #shutdown()} to stop the dispatcher thread, e.g. as the <code>destroy-method</code> of the bean.
+ * </p>
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+public class BatchingCassandraAclRepository implements CassandraAclRepository {
+
+	private static final Log LOG = LogFactory.getLog(BatchingCassandraAclRepository.class);
+
+	private final CassandraAclRepository delegate;
+	private final long maxDelayNanos;
+	private final int maxBatchSize;
+	private final BlockingQueue<QueuedLookup> queue = new LinkedBlockingQueue<QueuedLookup>();
+	private final Thread dispatcher;
+	private volatile boolean running = true;
+
+	private final AtomicLong lookupCount = new AtomicLong();
+	private final AtomicLong batchCount = new AtomicLong();
+	private final AtomicLong batchedObjectCount = new AtomicLong();
+	private final AtomicLong largestBatchSize = new AtomicLong();
+	private final AtomicLong totalQueueDelayNanos = new AtomicLong();
+	private final AtomicLong maxQueueDelayNanos = new AtomicLong();
+
+	/**
+	 * Constructs a new <code>BatchingCassandraAclRepository</code>, waiting at most 1 millisecond 
+	 * or for 100 objects before issuing a merged call.
+	 * 
+	 * @param delegate the {@link CassandraAclRepository} to issue the merged calls to.
+	 */
+	public BatchingCassandraAclRepository(CassandraAclRepository delegate) {
+		this(delegate, 1, TimeUnit.MILLISECONDS, 100);
+	}
+
+	/**
+	 * Constructs a new <code>BatchingCassandraAclRepository</code>.
+	 * 
+	 * @param delegate the {@link CassandraAclRepository} to issue the merged calls to.
+	 * @param maxDelay the maximum time a call is queued before a merged call is issued.
+	 * @param unit the unit of the <code>maxDelay</code> parameter.
+	 * @param maxBatchSize the number of objects that triggers a merged call before the delay has passed. 
+	 * 		Calls for at least as many objects are passed to the delegate directly.
+	 */
+	public BatchingCassandraAclRepository(CassandraAclRepository delegate, long maxDelay, TimeUnit unit, int maxBatchSize) {
+		Assert.notNull(delegate, "CassandraAclRepository required");
+		Assert.isTrue(maxDelay >= 0, "maxDelay must not be negative");
+		Assert.isTrue(maxBatchSize > 1, "maxBatchSize must be greater than 1");
+		this.delegate = delegate;
+		this.maxDelayNanos = unit.toNanos(maxDelay);
+		this.maxBatchSize = maxBatchSize;
+		
+		this.dispatcher = new Thread(new Runnable() {
+
+			public void run() {
+				dispatchLoop();
+			}
+		}, "BatchingCassandraAclRepository-dispatcher");
+		this.dispatcher.setDaemon(true);
+		this.dispatcher.start();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAcls(java.util.List)
+	 */
+	public Map<AclObjectIdentity, Set<AclEntry>> findAcls(List<AclObjectIdentity> objectIdsToLookup) {
+		// Invalid objects must fail their own call, not the merged call of other threads
+		Assert.notEmpty(objectIdsToLookup, "The AclObjectIdentity list cannot be empty");
+		for (AclObjectIdentity aoi : objectIdsToLookup) {
+			Assert.notNull(aoi, "The AclObjectIdentity cannot be null");
+			Assert.notNull(aoi.getId(), "The AclObjectIdentity id cannot be null");
+			Assert.notNull(aoi.getObjectClass(), "The AclObjectIdentity objectClass cannot be null");
+		}
+		
+		if (!running || objectIdsToLookup.size() >= maxBatchSize) {
+			return delegate.findAcls(objectIdsToLookup);
+		}
+		
+		QueuedLookup lookup = new QueuedLookup(objectIdsToLookup);
+		queue.add(lookup);
+		if (!running && queue.remove(lookup)) {
+			// Shut down after the lookup was queued
+			return delegate.findAcls(objectIdsToLookup);
+		}
+		
+		try {
+			return Uninterruptibles.getUninterruptibly(lookup.result);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAcls(java.util.List, java.util.List)
+	 */
+	public Map<AclObjectIdentity, Set<AclEntry>> findAcls(List<AclObjectIdentity> objectIdsToLookup, List<Sid> sids) {
+		if (sids == null) {
+			return findAcls(objectIdsToLookup);
+		}
+		// Calls filtering on different Sids cannot share a merged call
+		return delegate.findAcls(objectIdsToLookup, sids);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAclObjectIdentityAncestors(java.util.List)
+	 */
+	public Map<AclObjectIdentity, List<AclObjectIdentity>> findAclObjectIdentityAncestors(List<AclObjectIdentity> objectIds) {
+		return delegate.findAclObjectIdentityAncestors(objectIds);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAclObjectIdentity(org.springframework.security.acls.cassandra.model.AclObjectIdentity)
+	 */
+	public AclObjectIdentity findAclObjectIdentity(AclObjectIdentity objectId) {
+		return delegate.findAclObjectIdentity(objectId);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAclObjectIdentityChildren(org.springframework.security.acls.cassandra.model.AclObjectIdentity)
+	 */
+	public List<AclObjectIdentity> findAclObjectIdentityChildren(AclObjectIdentity objectId) {
+		return delegate.findAclObjectIdentityChildren(objectId);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findChildrenOfAclObjectIdentities(java.util.List)
+	 */
+	public Map<AclObjectIdentity, List<AclObjectIdentity>> findChildrenOfAclObjectIdentities(List<AclObjectIdentity> objectIds) {
+		return delegate.findChildrenOfAclObjectIdentities(objectIds);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAclObjectIdentityChildren(org.springframework.security.acls.cassandra.model.AclObjectIdentity, java.lang.String, int)
+	 */
+	public AclPage<AclObjectIdentity> findAclObjectIdentityChildren(AclObjectIdentity objectId, String pagingState, int pageSize) {
+		return delegate.findAclObjectIdentityChildren(objectId, pagingState, pageSize);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findChildrenOfAclObjectIdentities(java.util.Map, int)
+	 */
+	public Map<AclObjectIdentity, AclPage<AclObjectIdentity>> findChildrenOfAclObjectIdentities(Map<AclObjectIdentity, String> pagingStates, int pageSize) {
+		return delegate.findChildrenOfAclObjectIdentities(pagingStates, pageSize);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#deleteAcls(java.util.List)
+	 */
+	public void deleteAcls(List<AclObjectIdentity> objectIdsToDelete) {
+		delegate.deleteAcls(objectIdsToDelete);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#saveAcl(org.springframework.security.acls.cassandra.model.AclObjectIdentity)
+	 */
+	public void saveAcl(AclObjectIdentity aoi) throws AclAlreadyExistsException {
+		delegate.saveAcl(aoi);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#updateAcl(org.springframework.security.acls.cassandra.model.AclObjectIdentity, java.util.List)
+	 */
+	public void updateAcl(AclObjectIdentity aoi, List<AclEntry> entries) throws AclNotFoundException {
+		delegate.updateAcl(aoi, entries);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#updateAcl(org.springframework.security.acls.cassandra.model.AclObjectIdentity, java.util.List, org.springframework.security.acls.cassandra.model.AclObjectIdentity, java.util.List)
+	 */
+	public void updateAcl(AclObjectIdentity aoi, List<AclEntry> entries, AclObjectIdentity previousAoi, List<AclEntry> previousEntries) 
+			throws AclNotFoundException {
+		delegate.updateAcl(aoi, entries, previousAoi, previousEntries);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findEffectivePermissions(org.springframework.security.acls.cassandra.model.AclObjectIdentity, java.util.List, java.util.List)
+	 */
+	public List<EffectivePermission> findEffectivePermissions(AclObjectIdentity objectId, List<Sid> sids, List<Integer> masks) {
+		return delegate.findEffectivePermissions(objectId, sids, masks);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#updateEffectivePermissions(java.util.Map)
+	 */
+	public void updateEffectivePermissions(Map<AclObjectIdentity, List<EffectivePermission>> permissions) {
+		delegate.updateEffectivePermissions(permissions);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAclEntriesBySid(org.springframework.security.acls.model.Sid, java.lang.String, java.lang.String, int)
+	 */
+	public AclPage<AclObjectEntries> findAclEntriesBySid(Sid sid, String objectClass, String pagingState, int pageSize) {
+		return delegate.findAclEntriesBySid(sid, objectClass, pagingState, pageSize);
+	}
+
+	/**
+	 * Stops the dispatcher thread. Queued calls that have not been dispatched yet fail with an 
+	 * <code>IllegalStateException</code>, and later calls are passed to the delegate directly.
+	 */
+	public void shutdown() {
+		running = false;
+		dispatcher.interrupt();
+	}
+
+	/**
+	 * @return the number of <code>findAcls</code> calls that have been merged into batches.
+	 */
+	public long getLookupCount() {
+		return lookupCount.get();
+	}
+
+	/**
+	 * @return the number of merged <code>findAcls</code> calls issued to the delegate.
+	 */
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+	/**
+	 * @return the average number of distinct objects per merged call, or 0 if no call has been issued.
+	 */
+	public double getAverageBatchSize() {
+		long batches = batchCount.get();
+		return batches == 0 ? 0 : (double) batchedObjectCount.get() / batches;
+	}
+
+	/**
+	 * @return the largest number of distinct objects in a merged call.
+	 */
+	public long getLargestBatchSize() {
+		return largestBatchSize.get();
+	}
+
+	/**
+	 * @return the average time in microseconds a call has been queued before being dispatched, 
+	 * 		or 0 if no call has been dispatched.
+	 */
+	public double getAverageQueueDelayMicros() {
+		long lookups = lookupCount.get();
+		return lookups == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMicros(totalQueueDelayNanos.get()) / lookups;
+	}
+
+	/**
+	 * @return the longest time in microseconds a call has been queued before being dispatched.
+	 */
+	public long getMaxQueueDelayMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(maxQueueDelayNanos.get());
+	}
+
+	/**
+	 * Resets the batch size and queueing delay statistics.
+	 */
+	public void resetStatistics() {
+		lookupCount.set(0);
+		batchCount.set(0);
+		batchedObjectCount.set(0);
+		largestBatchSize.set(0);
+		totalQueueDelayNanos.set(0);
+		maxQueueDelayNanos.set(0);
+	}
+
+	/**
+	 * Collects queued calls into batches and dispatches them until the repository is shut down.
+	 */
+	private void dispatchLoop() {
+		while (running) {
+			List<QueuedLookup> batch = new ArrayList<QueuedLookup>();
+			try {
+				QueuedLookup first = queue.take();
+				batch.add(first);
+				int batchSize = first.objectIds.size();
+				long deadline = first.queuedNanos + maxDelayNanos;
+				while (batchSize < maxBatchSize) {
+					long remaining = deadline - System.nanoTime();
+					QueuedLookup next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+					batchSize += next.objectIds.size();
+				}
+			} catch (InterruptedException e) {
+				running = false;
+			}
+			
+			if (!batch.isEmpty()) {
+				try {
+					dispatch(batch);
+				} catch (RuntimeException e) {
+					fail(batch, e);
+				}
+			}
+		}
+		
+		List<QueuedLookup> remaining = new ArrayList<QueuedLookup>();
+		queue.drainTo(remaining);
+		fail(remaining, new IllegalStateException("BatchingCassandraAclRepository has been shut down"));
+	}
+
+	/**
+	 * Issues one merged <code>findAcls</code> call for a batch of queued calls.
+	 * 
+	 * @param batch the queued calls to merge.
+	 */
+	private void dispatch(final List<QueuedLookup> batch) {
+		long now = System.nanoTime();
+		Map<String, AclObjectIdentity> objectIdsByRowId = new LinkedHashMap<String, AclObjectIdentity>();
+		for (QueuedLookup lookup : batch) {
+			long delay = now - lookup.queuedNanos;
+			totalQueueDelayNanos.addAndGet(delay);
+			updateMax(maxQueueDelayNanos, delay);
+			for (AclObjectIdentity aoi : lookup.objectIds) {
+				if (!objectIdsByRowId.containsKey(aoi.getRowId())) {
+					objectIdsByRowId.put(aoi.getRowId(), aoi);
+				}
+			}
+		}
+		lookupCount.addAndGet(batch.size());
+		batchCount.incrementAndGet();
+		batchedObjectCount.addAndGet(objectIdsByRowId.size());
+		updateMax(largestBatchSize, objectIdsByRowId.size());
+		
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Dispatching " + batch.size() + " findAcls calls for " + objectIdsByRowId.size() + " objects");
+		}
+		
+		List<AclObjectIdentity> objectIds = new ArrayList<AclObjectIdentity>(objectIdsByRowId.values());
+		if (delegate instanceof AsyncCassandraAclRepository) {
+			ListenableFuture<Map<AclObjectIdentity, Set<AclEntry>>> future = ((AsyncCassandraAclRepository) delegate).findAclsAsync(objectIds);
+			Futures.addCallback(future, new FutureCallback<Map<AclObjectIdentity, Set<AclEntry>>>() {
+
+				public void onSuccess(Map<AclObjectIdentity, Set<AclEntry>> result) {
+					complete(batch, result);
+				}
+
+				public void onFailure(Throwable t) {
+					fail(batch, t);
+				}
+			});
+		} else {
+			complete(batch, delegate.findAcls(objectIds));
+		}
+	}
+
+	/**
+	 * Hands each queued call the part of the merged result for its own objects.
+	 * 
+	 * @param batch the queued calls.
+	 * @param result the result of the merged call.
+	 */
+	private void complete(List<QueuedLookup> batch, Map<AclObjectIdentity, Set<AclEntry>> result) {
+		Map<String, AclObjectIdentity> resultKeysByRowId = new HashMap<String, AclObjectIdentity>();
+		for (AclObjectIdentity aoi : result.keySet()) {
+			resultKeysByRowId.put(aoi.getRowId(), aoi);
+		}
+		
+		for (QueuedLookup lookup : batch) {
+			Map<AclObjectIdentity, Set<AclEntry>> lookupResult = new HashMap<AclObjectIdentity, Set<AclEntry>>();
+			for (AclObjectIdentity aoi : lookup.objectIds) {
+				AclObjectIdentity resultKey = resultKeysByRowId.get(aoi.getRowId());
+				if (resultKey != null) {
+					lookupResult.put(resultKey, result.get(resultKey));
+				}
+			}
+			lookup.result.set(lookupResult);
+		}
+	}
+
+	/**
+	 * Fails the provided queued calls.
+	 * 
+	 * @param lookups the queued calls.
+	 * @param t the cause of the failure.
+	 */
+	private static void fail(List<QueuedLookup> lookups, Throwable t) {
+		for (QueuedLookup lookup : lookups) {
+			lookup.result.setException(t);
+		}
+	}
+
+	/**
+	 * @param max the maximum to update.
+	 * @param value the new value.
+	 */
+	private static void updateMax(AtomicLong max, long value) {
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * A <code>findAcls</code> call waiting to be dispatched.
+	 */
+	private static final class QueuedLookup {
+
+		private final List<AclObjectIdentity> objectIds;
+		private final long queuedNanos = System.nanoTime();
+		private final SettableFuture<Map<AclObjectIdentity, Set<AclEntry>>> result = SettableFuture.create();
+
+		QueuedLookup(List<AclObjectIdentity> objectIds) {
+			this.objectIds = objectIds;
+		}
+	}
+
+}
@@ -19,9 +19,13 @@ import java.util.Map;
 import java.util.Set;
 
 import org.springframework.security.acls.cassandra.model.AclEntry;
+import org.springframework.security.acls.cassandra.model.AclObjectEntries;
 import org.springframework.security.acls.cassandra.model.AclObjectIdentity;
+import org.springframework.security.acls.cassandra.model.AclPage;
+import org.springframework.security.acls.cassandra.model.EffectivePermission;
 import org.springframework.security.acls.cassandra.repository.exceptions.AclAlreadyExistsException;
 import org.springframework.security.acls.cassandra.repository.exceptions.AclNotFoundException;
+import org.springframework.security.acls.model.Sid;
 
 
 /**
@@ -40,6 +44,28 @@ public interface CassandraAclRepository {
 	 */
 	Map<AclObjectIdentity, Set<AclEntry>> findAcls(List<AclObjectIdentity> objectIdsToLookup);
 
+	/**
+	 * Loads the {@link AclEntry} instances of the provided {@link Sid} objects that apply for the passed 
+	 * {@link AclObjectIdentity} objects. Only the rows of the requested {@link Sid} objects are read. 
+	 * The returned map is structured as the one returned by {@link #findAcls(List)}.
+	 * 
+	 * @param objectIdsToLookup the objects to find {@link AclEntry} information for.
+	 * @param sids the {@link Sid} objects to load the entries of, or <code>null</code> to load all entries.
+	 * @return a map with a set of {@link AclEntry} instances for each {@link AclObjectIdentity} passed as an argument.
+	 */
+	Map<AclObjectIdentity, Set<AclEntry>> findAcls(List<AclObjectIdentity> objectIdsToLookup, List<Sid> sids);
+
+	/**
+	 * Loads the stored ancestor paths of the passed {@link AclObjectIdentity} objects. The returned map is keyed on 
+	 * the passed objects, with the values being the ancestors of each object, nearest first. The returned ancestors 
+	 * only contain 'id' and 'objectClass' information. Objects without stored ancestors will not have a map key.
+	 * 
+	 * @param objectIds the objects to find the ancestors of.
+	 * @return a map with the list of ancestors for each {@link AclObjectIdentity} that has a stored ancestor path.
+	 * @throws IllegalStateException if ancestor paths are not stored by this repository.
+	 */
+	Map<AclObjectIdentity, List<AclObjectIdentity>> findAclObjectIdentityAncestors(List<AclObjectIdentity> objectIds);
+
 	/**
 	 * Loads a fully populated {@link AclObjectIdentity} object from the database for the provided {@link AclObjectIdentity}.
 	 * The provided object must contain 'id' and 'objectClass' information.
@@ -57,6 +83,36 @@ public interface CassandraAclRepository {
 	 */
 	List<AclObjectIdentity> findAclObjectIdentityChildren(AclObjectIdentity objectId);
 
+	/**
+	 * Loads the {@link AclObjectIdentity} instances that use any of the specified parents. 
+	 * The children partitions of all parents are read concurrently.
+	 * 
+	 * @param objectIds the objects to find children for.
+	 * @return a map with the list of children for each {@link AclObjectIdentity} passed as an argument.
+	 */
+	Map<AclObjectIdentity, List<AclObjectIdentity>> findChildrenOfAclObjectIdentities(List<AclObjectIdentity> objectIds);
+
+	/**
+	 * Loads a page of the {@link AclObjectIdentity} instances that use the specified parent, ordered by their row id.
+	 * 
+	 * @param objectId the object to find children for.
+	 * @param pagingState the paging state of the previous page, or <code>null</code> to load the first page.
+	 * @param pageSize the maximum number of children in the page.
+	 * @return the page of children.
+	 */
+	AclPage<AclObjectIdentity> findAclObjectIdentityChildren(AclObjectIdentity objectId, String pagingState, int pageSize);
+
+	/**
+	 * Loads a page of the {@link AclObjectIdentity} instances that use each of the specified parents. The pages of all 
+	 * parents are read concurrently, so that a hierarchy can be walked level by level with bounded memory.
+	 * 
+	 * @param pagingStates the objects to find children for, each with the paging state of its previous page, 
+	 * 		or <code>null</code> to load its first page.
+	 * @param pageSize the maximum number of children in the page of each parent.
+	 * @return a map with the page of children for each {@link AclObjectIdentity} passed as an argument.
+	 */
+	Map<AclObjectIdentity, AclPage<AclObjectIdentity>> findChildrenOfAclObjectIdentities(Map<AclObjectIdentity, String> pagingStates, int pageSize);
+
 	/**
 	 * Removes all relevant records for the provided {@link AclObjectIdentity} instances.
 	 * 
@@ -81,4 +137,51 @@ public interface CassandraAclRepository {
 	 */
 	void updateAcl(AclObjectIdentity aoi, List<AclEntry> entries) throws AclNotFoundException;	
 
+	/**
+	 * Changes an existing {@link AclObjectIdentity} or the related {@link AclEntry} records in the database, given 
+	 * the state they were previously loaded in. If the records have not been modified since, as told by the version 
+	 * of the previous {@link AclObjectIdentity}, the changes are written without reading the persisted state first. 
+	 * Otherwise the update proceeds as {@link #updateAcl(AclObjectIdentity, List)}. The version of the passed 
+	 * {@link AclObjectIdentity} is set to the version of the updated record.
+	 * 
+	 * @param aoi the {@link AclObjectIdentity} to update.
+	 * @param entries the list of {@link AclEntry} objects to update.
+	 * @param previousAoi the {@link AclObjectIdentity} as previously loaded, including its version.
+	 * @param previousEntries the list of {@link AclEntry} objects as previously loaded.
+	 * @throws AclNotFoundException if the relevant record could not be found.
+	 */
+	void updateAcl(AclObjectIdentity aoi, List<AclEntry> entries, AclObjectIdentity previousAoi, List<AclEntry> previousEntries) 
+			throws AclNotFoundException;
+
+	/**
+	 * Loads the stored effective permissions of an {@link AclObjectIdentity} for the provided {@link Sid} objects and masks.
+	 * Only the entries deciding the provided masks are returned, at most one for each {@link Sid} and mask.
+	 * 
+	 * @param objectId the {@link AclObjectIdentity} to load the effective permissions of.
+	 * @param sids the {@link Sid} objects to load the effective permissions for.
+	 * @param masks the permission masks to load the effective permissions for.
+	 * @return the list of stored {@link EffectivePermission} objects.
+	 */
+	List<EffectivePermission> findEffectivePermissions(AclObjectIdentity objectId, List<Sid> sids, List<Integer> masks);
+
+	/**
+	 * Replaces the stored effective permissions of the provided {@link AclObjectIdentity} objects. 
+	 * Passing an empty list removes all effective permissions of an object.
+	 * 
+	 * @param permissions the complete list of {@link EffectivePermission} objects for each {@link AclObjectIdentity} to update.
+	 */
+	void updateEffectivePermissions(Map<AclObjectIdentity, List<EffectivePermission>> permissions);
+
+	/**
+	 * Loads a page of the {@link AclEntry} instances of a {@link Sid}, grouped by the {@link AclObjectIdentity} they 
+	 * apply to and ordered by its row id. Requires the Sid index to be maintained.
+	 * 
+	 * @param sid the {@link Sid} to load the entries of.
+	 * @param objectClass the class of the objects to load the entries of, or <code>null</code> for all classes.
+	 * @param pagingState the paging state of the previous page, or <code>null</code> to load the first page.
+	 * @param pageSize the maximum number of entries to read for the page. The page may hold fewer objects.
+	 * @return the page of {@link AclObjectEntries}.
+	 */
+	AclPage<AclObjectEntries> findAclEntriesBySid(Sid sid, String objectClass, String pagingState, int pageSize);
+
 }
@@ -15,307 +15,2138 @@
 package org.springframework.security.acls.cassandra.repository;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.security.acls.cassandra.cache.BoundedInterner;
 import org.springframework.security.acls.cassandra.model.AclEntry;
+import org.springframework.security.acls.cassandra.model.AclObjectEntries;
 import org.springframework.security.acls.cassandra.model.AclObjectIdentity;
+import org.springframework.security.acls.cassandra.model.AclPage;
+import org.springframework.security.acls.cassandra.model.EffectivePermission;
 import org.springframework.security.acls.cassandra.repository.exceptions.AclAlreadyExistsException;
+import org.springframework.security.acls.cassandra.repository.exceptions.AclConcurrentModificationException;
 import org.springframework.security.acls.cassandra.repository.exceptions.AclNotFoundException;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.Sid;
 import org.springframework.util.Assert;
 
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Query;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
 import com.datastax.driver.core.exceptions.AlreadyExistsException;
-import com.datastax.driver.core.querybuilder.Batch;
-import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
- * Implementation of <code>CassandraAclRepository</code> using the DataStax Java Driver.
+ * Implementation of <code>CassandraAclRepository</code> and <code>AsyncCassandraAclRepository</code> using the DataStax Java Driver.
+ * All operations are executed asynchronously, the blocking methods wait for the result of their asynchronous counterpart.
  * 
  * @author Rigas Grigoropoulos
  *
  */
-public class CassandraAclRepositoryImpl implements CassandraAclRepository {
+public class CassandraAclRepositoryImpl implements CassandraAclRepository, AsyncCassandraAclRepository {
 
 	private static final Log LOG = LogFactory.getLog(CassandraAclRepositoryImpl.class);
 
-	private static final String KEYSPACE = "SpringSecurityAclCassandra";
-	private static final String AOI_TABLE = "aois";
-	private static final String CHILDREN_TABLE = "children";
-	private static final String ACL_TABLE = "acls";
+	static final String KEYSPACE = "SpringSecurityAclCassandra";
+	static final String AOI_TABLE = "aois";
+	static final String CHILDREN_TABLE = "children";
+	static final String ACL_TABLE = "acls";
+	static final String ANCESTORS_TABLE = "ancestors";
+	private static final String PERMISSIONS_TABLE = "permissions";
+	static final String SID_INDEX_TABLE = "acls_by_sid";
 	
 	private static final String[] AOI_KEYS = new String[] { "id", "objId", "objClass", "isInheriting", "owner", "isOwnerPrincipal", "parentObjId", "parentObjClass" };
+	private static final String[] VERSIONED_AOI_KEYS = new String[] { "id", "objId", "objClass", "isInheriting", "owner", "isOwnerPrincipal", "parentObjId", "parentObjClass", "version" };
 	private static final String[] CHILD_KEYS = new String[] { "id", "childId", "objId", "objClass" };
 	private static final String[] ACL_KEYS = new String[] { "id", "aclOrder", "sid", "mask", "isSidPrincipal", "isGranting", "isAuditSuccess", "isAuditFailure" };
+	private static final String[] ANCESTOR_KEYS = new String[] { "id", "depth", "ancestorId", "objId", "objClass" };
+	private static final String[] SID_INDEX_KEYS = new String[] { "sid", "aoiId", "aclOrder", "objId", "objClass", "mask", "isGranting", "isAuditSuccess", "isAuditFailure" };
+	private static final String[] PERMISSION_KEYS = new String[] { "id", "sid", "isSidPrincipal", "mask", "depth", "isGranting", "isAuditSuccess", "isAuditFailure" };
+
+	private static final String SELECT_AOI = selectCql(AOI_TABLE);
+	private static final String SELECT_CHILDREN = selectCql(CHILDREN_TABLE);
+	private static final String SELECT_CHILDREN_AFTER = SELECT_CHILDREN + " AND childId > ?";
+	private static final String SELECT_ANCESTORS = selectCql(ANCESTORS_TABLE);
+	private static final String SELECT_ACLS = selectCql(ACL_TABLE);
+	private static final String SELECT_ACLS_BY_SID = "SELECT * FROM " + KEYSPACE + "." + ACL_TABLE + " WHERE id = ? AND sid = ?";
+	private static final String INSERT_AOI = insertCql(AOI_TABLE, AOI_KEYS);
+	private static final String INSERT_AOI_IF_NOT_EXISTS = insertCql(AOI_TABLE, VERSIONED_AOI_KEYS) + " IF NOT EXISTS";
+	private static final String UPDATE_AOI_IF_VERSION = "UPDATE " + KEYSPACE + "." + AOI_TABLE + " SET isInheriting = ?, owner = ?, "
+			+ "isOwnerPrincipal = ?, parentObjId = ?, parentObjClass = ?, version = ? WHERE id = ? IF version = ?";
+	private static final String INSERT_CHILD = insertCql(CHILDREN_TABLE, CHILD_KEYS);
+	private static final String INSERT_ACL = insertCql(ACL_TABLE, ACL_KEYS);
+	private static final String DELETE_AOI = deleteCql(AOI_TABLE);
+	static final String DELETE_CHILDREN = deleteCql(CHILDREN_TABLE);
+	static final String DELETE_ACLS = deleteCql(ACL_TABLE);
+	static final String DELETE_ANCESTORS = deleteCql(ANCESTORS_TABLE);
+	private static final String DELETE_ACL = "DELETE FROM " + KEYSPACE + "." + ACL_TABLE + " WHERE id = ? AND sid = ? AND aclOrder = ?";
+	static final String DELETE_CHILD = "DELETE FROM " + KEYSPACE + "." + CHILDREN_TABLE + " WHERE id = ? AND childId = ?";
+	private static final String INSERT_ANCESTOR = insertCql(ANCESTORS_TABLE, ANCESTOR_KEYS);
+	private static final String DELETE_ANCESTOR = "DELETE FROM " + KEYSPACE + "." + ANCESTORS_TABLE + " WHERE id = ? AND depth = ?";
+	private static final String INSERT_PERMISSION = insertCql(PERMISSIONS_TABLE, PERMISSION_KEYS);
+	private static final String DELETE_PERMISSION = "DELETE FROM " + KEYSPACE + "." + PERMISSIONS_TABLE 
+			+ " WHERE id = ? AND sid = ? AND isSidPrincipal = ? AND mask = ?";
+	private static final String DELETE_PERMISSIONS = "DELETE FROM " + KEYSPACE + "." + PERMISSIONS_TABLE + " WHERE id = ?";
+	private static final String INSERT_SID_INDEX_ENTRY = insertCql(SID_INDEX_TABLE, SID_INDEX_KEYS);
+	static final String DELETE_SID_INDEX_ENTRY = "DELETE FROM " + KEYSPACE + "." + SID_INDEX_TABLE + " WHERE sid = ? AND aoiId = ? AND aclOrder = ?";
+	private static final String SELECT_SID_INDEX_REMAINING = "SELECT * FROM " + KEYSPACE + "." + SID_INDEX_TABLE 
+			+ " WHERE sid = ? AND aoiId = ? AND aclOrder > ?";
+
+	// Statements of other shapes are sent unprepared once the registry holds this many statements
+	private static final int MAX_PREPARED_STATEMENTS = 500;
+	// Number of statements whose text depends on the request, such as IN lists and batches, that are kept prepared
+	private static final int MAX_PREPARED_SHAPES = 500;
+	// Batches with more statements rarely share their text, and are sent unprepared
+	private static final int MAX_PREPARED_BATCH_SIZE = 20;
+	// Logged batches spanning partitions are split once they hold this many statements, to keep the batch log small
+	private static final int MAX_LOGGED_BATCH_SIZE = 100;
+
+	// Number of times an update conditional on the version is attempted while the object is modified concurrently
+	private static final int MAX_CONDITIONAL_UPDATE_ATTEMPTS = 10;
+
+	// Statements are prepared by a dedicated thread, so that neither callers nor the driver threads running the 
+	// continuations of asynchronous calls ever block on the round trip of a prepare request
+	private static final ThreadPoolExecutor PREPARE_EXECUTOR = createPrepareExecutor();
+
+	private static final Comparator<AclEntry> ORDER_COMPARATOR = new Comparator<AclEntry>() {
+
+		public int compare(AclEntry o1, AclEntry o2) {
+			int order1 = o1.getOrder();
+			int order2 = o2.getOrder();
+			return order1 < order2 ? -1 : (order1 == order2 ? 0 : 1);
+		}
+	};
 
 	private String replicationStrategy = "SimpleStrategy";
 	private int replicationFactor = 3;
+	private volatile boolean usePreparedStatements = true;
+	private ReadStrategy readStrategy = ReadStrategy.IN_QUERY;
+	private boolean ancestorPathsEnabled = false;
+	private boolean lightweightTransactionsEnabled = false;
+	private boolean sidIndexEnabled = false;
+	private int childrenPageSize = 1000;
+	private int maxPartitionsPerQuery = 100;
 	
 	private Session session;
+	private ThrottledQueryExecutor queryExecutor;
+	
+	// Statement registry, keyed on the CQL text of each statement. Only statements of a fixed shape are registered, 
+	// statements whose text depends on the request are kept in a separate registry evicting the least recently used.
+	private final ConcurrentMap<String, PreparedStatement> preparedStatements = new ConcurrentHashMap<String, PreparedStatement>();
+	private final BoundedInterner<String, PreparedStatement> preparedShapes = new BoundedInterner<String, PreparedStatement>(MAX_PREPARED_SHAPES);
+	// Statements handed to the prepare executor and not prepared yet
+	private final ConcurrentMap<String, Boolean> pendingStatements = new ConcurrentHashMap<String, Boolean>();
+
+	/**
+	 * Constructs a new <code>CassandraAclRepositoryImpl</code>.
+	 * 
+	 * @param session the <code>Session</code> to use for connectivity with Cassandra.
+	 */
+	public CassandraAclRepositoryImpl(Session session) {
+		this.session = session;
+		this.queryExecutor = new ThrottledQueryExecutor(session, 32);
+	}
+	
+	/**
+	 * Constructs a new <code>CassandraAclRepositoryImpl</code> and optionally creates 
+	 * the Cassandra keyspace and schema for storing ACLs.
+	 * 
+	 * @param session the <code>Session</code> to use for connectivity with Cassandra.
+	 * @param initSchema whether the keyspace and schema for storing ACLs should be created.
+	 * @param replicationStrategy the replication strategy to use when creating the keyspace.
+	 * @param replicationFactor the replication factor to use when creating the keyspace.
+	 */
+	public CassandraAclRepositoryImpl(Session session, boolean initSchema, String replicationStrategy, int replicationFactor) {
+		this(session);
+		if (initSchema) {
+			this.replicationFactor = replicationFactor;
+			this.replicationStrategy = replicationStrategy;
+			
+			createKeyspace();
+			createAoisTable();
+			createChilrenTable();
+			createAclsTable();
+			createAncestorsTable();
+			createPermissionsTable();
+			createAclsBySidTable();
+		}
+	}
+	
+	/**
+	 * Constructs a new <code>CassandraAclRepositoryImpl</code> and optionally creates 
+	 * the Cassandra keyspace and schema for storing ACLs.
+	 * 
+	 * @param session the <code>Session</code> to use for connectivity with Cassandra.
+	 * @param initSchema whether the keyspace and schema for storing ACLs should be created.
+	 */
+	public CassandraAclRepositoryImpl(Session session, boolean initSchema) {
+		this(session);
+		if (initSchema) {
+			createKeyspace();
+			createAoisTable();
+			createChilrenTable();
+			createAclsTable();
+			createAncestorsTable();
+			createPermissionsTable();
+			createAclsBySidTable();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAcls(java.util.List)
+	 */
+	public Map<AclObjectIdentity, Set<AclEntry>> findAcls(List<AclObjectIdentity> objectIdsToLookup) {
+		return getUninterruptibly(findAclsAsync(objectIdsToLookup, null));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAcls(java.util.List, java.util.List)
+	 */
+	public Map<AclObjectIdentity, Set<AclEntry>> findAcls(List<AclObjectIdentity> objectIdsToLookup, List<Sid> sids) {
+		return getUninterruptibly(findAclsAsync(objectIdsToLookup, sids));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.AsyncCassandraAclRepository#findAclsAsync(java.util.List)
+	 */
+	public ListenableFuture<Map<AclObjectIdentity, Set<AclEntry>>> findAclsAsync(List<AclObjectIdentity> objectIdsToLookup) {
+		return findAclsAsync(objectIdsToLookup, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.AsyncCassandraAclRepository#findAclsAsync(java.util.List, java.util.List)
+	 */
+	public ListenableFuture<Map<AclObjectIdentity, Set<AclEntry>>> findAclsAsync(List<AclObjectIdentity> objectIdsToLookup, List<Sid> sids) {
+		assertAclObjectIdentityList(objectIdsToLookup);
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN findAcls: objectIdentities: " + objectIdsToLookup + ", sids: " + sids);
+		}
+
+		List<String> ids = new ArrayList<String>();
+		for (AclObjectIdentity entry : objectIdsToLookup) {
+			ids.add(entry.getRowId());
+		}
+		
+		final Set<String> sidKeys = sids != null ? new HashSet<String>() : null;
+		if (sids != null) {
+			for (Sid sid : sids) {
+				String sidKey = sidKey(sid);
+				if (sidKey != null) {
+					sidKeys.add(sidKey);
+				}
+			}
+		}
+		
+		// Neither query depends on the other, so both are sent at once. The rows of each query are converted as soon 
+		// as it returns, so only the converted objects are kept until all queries have completed.
+		ListenableFuture<List<List<AclObjectIdentity>>> aoisFuture = selectPartitions(AOI_TABLE, ids, 
+				new Function<ResultSet, List<AclObjectIdentity>>() {
+
+			public List<AclObjectIdentity> apply(ResultSet resultSet) {
+				List<AclObjectIdentity> result = new ArrayList<AclObjectIdentity>();
+				for (Row row : resultSet) {
+					result.add(convertToAclObjectIdentity(row, true));
+				}
+				return result;
+			}
+		});
+		
+		Function<ResultSet, Map<String, List<AclEntry>>> entriesConverter = new Function<ResultSet, Map<String, List<AclEntry>>>() {
+
+			public Map<String, List<AclEntry>> apply(ResultSet resultSet) {
+				Map<String, List<AclEntry>> result = new HashMap<String, List<AclEntry>>();
+				for (Row row : resultSet) {
+					if (sidKeys != null && !sidKeys.contains(sidKey(row.getString("sid"), row.getBool("isSidPrincipal")))) {
+						continue;
+					}
+					String aoiId = row.getString("id");
+					List<AclEntry> entries = result.get(aoiId);
+					if (entries == null) {
+						entries = new ArrayList<AclEntry>();
+						result.put(aoiId, entries);
+					}
+					entries.add(convertToAclEntry(row, aoiId));
+				}
+				return result;
+			}
+		};
+		final ListenableFuture<List<Map<String, List<AclEntry>>>> aclsFuture = sids != null ? selectAclsBySid(ids, sids, entriesConverter) 
+				: selectPartitions(ACL_TABLE, ids, entriesConverter);
+		
+		return Futures.transform(aoisFuture, new AsyncFunction<List<List<AclObjectIdentity>>, Map<AclObjectIdentity, Set<AclEntry>>>() {
+
+			public ListenableFuture<Map<AclObjectIdentity, Set<AclEntry>>> apply(final List<List<AclObjectIdentity>> aois) {
+				return Futures.transform(aclsFuture, new Function<List<Map<String, List<AclEntry>>>, Map<AclObjectIdentity, Set<AclEntry>>>() {
+
+					public Map<AclObjectIdentity, Set<AclEntry>> apply(List<Map<String, List<AclEntry>>> entries) {
+						return convertToAcls(aois, entries);
+					}
+				});
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAclObjectIdentityAncestors(java.util.List)
+	 */
+	public Map<AclObjectIdentity, List<AclObjectIdentity>> findAclObjectIdentityAncestors(List<AclObjectIdentity> objectIds) {
+		return getUninterruptibly(findAclObjectIdentityAncestorsAsync(objectIds));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.AsyncCassandraAclRepository#findAclObjectIdentityAncestorsAsync(java.util.List)
+	 */
+	public ListenableFuture<Map<AclObjectIdentity, List<AclObjectIdentity>>> findAclObjectIdentityAncestorsAsync(List<AclObjectIdentity> objectIds) {
+		Assert.state(ancestorPathsEnabled, "Ancestor paths are not enabled");
+		assertAclObjectIdentityList(objectIds);
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN findAclObjectIdentityAncestors: objectIdentities: " + objectIds);
+		}
+
+		final Map<String, AclObjectIdentity> objectIdsByRowId = new HashMap<String, AclObjectIdentity>();
+		for (AclObjectIdentity entry : objectIds) {
+			objectIdsByRowId.put(entry.getRowId(), entry);
+		}
+		
+		return Futures.transform(selectPartitions(ANCESTORS_TABLE, new ArrayList<String>(objectIdsByRowId.keySet())), 
+				new Function<List<ResultSet>, Map<AclObjectIdentity, List<AclObjectIdentity>>>() {
+
+			public Map<AclObjectIdentity, List<AclObjectIdentity>> apply(List<ResultSet> resultSets) {
+				Map<AclObjectIdentity, List<AclObjectIdentity>> result = new HashMap<AclObjectIdentity, List<AclObjectIdentity>>();
+				
+				// Rows of a partition are returned ordered by depth, nearest ancestor first
+				for (ResultSet resultSet : resultSets) {
+					for (Row row : resultSet) {
+						AclObjectIdentity objectId = objectIdsByRowId.get(row.getString("id"));
+						List<AclObjectIdentity> ancestors = result.get(objectId);
+						if (ancestors == null) {
+							ancestors = new ArrayList<AclObjectIdentity>();
+							result.put(objectId, ancestors);
+						}
+						ancestors.add(convertToAclObjectIdentity(row, false));
+					}
+				}
+
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("END findAclObjectIdentityAncestors: ancestors: " + result);
+				}
+				return result;
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAclObjectIdentity(org.springframework.security.acls.cassandra.model.AclObjectIdentity)
+	 */
+	public AclObjectIdentity findAclObjectIdentity(AclObjectIdentity objectId) {
+		return getUninterruptibly(findAclObjectIdentityAsync(objectId));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.AsyncCassandraAclRepository#findAclObjectIdentityAsync(org.springframework.security.acls.cassandra.model.AclObjectIdentity)
+	 */
+	public ListenableFuture<AclObjectIdentity> findAclObjectIdentityAsync(AclObjectIdentity objectId) {
+		assertAclObjectIdentity(objectId);
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN findAclObjectIdentity: objectIdentity: " + objectId);
+		}
+
+		return Futures.transform(session.executeAsync(statement(SELECT_AOI, objectId.getRowId())), new Function<ResultSet, AclObjectIdentity>() {
+
+			public AclObjectIdentity apply(ResultSet resultSet) {
+				AclObjectIdentity objectIdentity = convertToAclObjectIdentity(resultSet.one(), true);
+
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("END findAclObjectIdentity: objectIdentity: " + objectIdentity);
+				}
+				return objectIdentity;
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAclObjectIdentityChildren(org.springframework.security.acls.cassandra.model.AclObjectIdentity)
+	 */
+	public List<AclObjectIdentity> findAclObjectIdentityChildren(AclObjectIdentity objectId) {
+		return getUninterruptibly(findAclObjectIdentityChildrenAsync(objectId));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.AsyncCassandraAclRepository#findAclObjectIdentityChildrenAsync(org.springframework.security.acls.cassandra.model.AclObjectIdentity)
+	 */
+	public ListenableFuture<List<AclObjectIdentity>> findAclObjectIdentityChildrenAsync(AclObjectIdentity objectId) {
+		assertAclObjectIdentity(objectId);
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN findAclObjectIdentityChildren: objectIdentity: " + objectId);
+		}
+
+		return Futures.transform(readChildrenAsync(objectId.getRowId(), new ArrayList<AclObjectIdentity>(), null), new Function<List<AclObjectIdentity>, List<AclObjectIdentity>>() {
+
+			public List<AclObjectIdentity> apply(List<AclObjectIdentity> result) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("END findAclObjectIdentityChildren: children: " + result);
+				}
+				return result;
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findChildrenOfAclObjectIdentities(java.util.List)
+	 */
+	public Map<AclObjectIdentity, List<AclObjectIdentity>> findChildrenOfAclObjectIdentities(List<AclObjectIdentity> objectIds) {
+		return getUninterruptibly(findChildrenOfAclObjectIdentitiesAsync(objectIds));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.AsyncCassandraAclRepository#findChildrenOfAclObjectIdentitiesAsync(java.util.List)
+	 */
+	public ListenableFuture<Map<AclObjectIdentity, List<AclObjectIdentity>>> findChildrenOfAclObjectIdentitiesAsync(final List<AclObjectIdentity> objectIds) {
+		assertAclObjectIdentityList(objectIds);
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN findChildrenOfAclObjectIdentities: objectIdentities: " + objectIds);
+		}
+
+		// The first page of each parent is read through the executor, bounding the number of partitions read at the 
+		// same time, and only the few parents with more children than a page continue on their own
+		List<Query> queries = new ArrayList<Query>(objectIds.size());
+		for (AclObjectIdentity objectId : objectIds) {
+			queries.add(childrenPageStatement(objectId.getRowId(), null, childrenPageSize));
+		}
+		return Futures.transform(queryExecutor.executeAll(queries), new AsyncFunction<List<ResultSet>, Map<AclObjectIdentity, List<AclObjectIdentity>>>() {
+
+			public ListenableFuture<Map<AclObjectIdentity, List<AclObjectIdentity>>> apply(List<ResultSet> resultSets) {
+				List<ListenableFuture<List<AclObjectIdentity>>> childrenFutures = new ArrayList<ListenableFuture<List<AclObjectIdentity>>>(objectIds.size());
+				for (int i = 0; i < objectIds.size(); i++) {
+					List<AclObjectIdentity> children = new ArrayList<AclObjectIdentity>();
+					String lastChildId = addChildren(children, resultSets.get(i));
+					childrenFutures.add(children.size() == childrenPageSize 
+							? readChildrenAsync(objectIds.get(i).getRowId(), children, lastChildId) : Futures.immediateFuture(children));
+				}
+				
+				return Futures.transform(Futures.allAsList(childrenFutures), new Function<List<List<AclObjectIdentity>>, Map<AclObjectIdentity, List<AclObjectIdentity>>>() {
+
+					public Map<AclObjectIdentity, List<AclObjectIdentity>> apply(List<List<AclObjectIdentity>> children) {
+						Map<AclObjectIdentity, List<AclObjectIdentity>> result = new LinkedHashMap<AclObjectIdentity, List<AclObjectIdentity>>();
+						for (int i = 0; i < objectIds.size(); i++) {
+							result.put(objectIds.get(i), children.get(i));
+						}
+
+						if (LOG.isDebugEnabled()) {
+							LOG.debug("END findChildrenOfAclObjectIdentities: children: " + result);
+						}
+						return result;
+					}
+				});
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAclObjectIdentityChildren(org.springframework.security.acls.cassandra.model.AclObjectIdentity, java.lang.String, int)
+	 */
+	public AclPage<AclObjectIdentity> findAclObjectIdentityChildren(AclObjectIdentity objectId, String pagingState, int pageSize) {
+		return getUninterruptibly(findAclObjectIdentityChildrenAsync(objectId, pagingState, pageSize));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.AsyncCassandraAclRepository#findAclObjectIdentityChildrenAsync(org.springframework.security.acls.cassandra.model.AclObjectIdentity, java.lang.String, int)
+	 */
+	public ListenableFuture<AclPage<AclObjectIdentity>> findAclObjectIdentityChildrenAsync(AclObjectIdentity objectId, String pagingState, 
+			final int pageSize) {
+		Map<AclObjectIdentity, String> pagingStates = new HashMap<AclObjectIdentity, String>();
+		pagingStates.put(objectId, pagingState);
+		final AclObjectIdentity parent = objectId;
+		return Futures.transform(findChildrenOfAclObjectIdentitiesAsync(pagingStates, pageSize), 
+				new Function<Map<AclObjectIdentity, AclPage<AclObjectIdentity>>, AclPage<AclObjectIdentity>>() {
+
+			public AclPage<AclObjectIdentity> apply(Map<AclObjectIdentity, AclPage<AclObjectIdentity>> pages) {
+				return pages.get(parent);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findChildrenOfAclObjectIdentities(java.util.Map, int)
+	 */
+	public Map<AclObjectIdentity, AclPage<AclObjectIdentity>> findChildrenOfAclObjectIdentities(Map<AclObjectIdentity, String> pagingStates, int pageSize) {
+		return getUninterruptibly(findChildrenOfAclObjectIdentitiesAsync(pagingStates, pageSize));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.AsyncCassandraAclRepository#findChildrenOfAclObjectIdentitiesAsync(java.util.Map, int)
+	 */
+	public ListenableFuture<Map<AclObjectIdentity, AclPage<AclObjectIdentity>>> findChildrenOfAclObjectIdentitiesAsync(Map<AclObjectIdentity, String> pagingStates, 
+			final int pageSize) {
+		Assert.notEmpty(pagingStates, "The AclObjectIdentity map cannot be empty");
+		Assert.isTrue(pageSize > 0, "The page size must be positive");
+		final List<AclObjectIdentity> objectIds = new ArrayList<AclObjectIdentity>(pagingStates.keySet());
+		assertAclObjectIdentityList(objectIds);
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN findChildrenOfAclObjectIdentities: pagingStates: " + pagingStates + ", pageSize: " + pageSize);
+		}
+
+		List<Query> queries = new ArrayList<Query>(objectIds.size());
+		for (AclObjectIdentity objectId : objectIds) {
+			queries.add(childrenPageStatement(objectId.getRowId(), pagingStates.get(objectId), pageSize));
+		}
+		return Futures.transform(queryExecutor.executeAll(queries), new Function<List<ResultSet>, Map<AclObjectIdentity, AclPage<AclObjectIdentity>>>() {
+
+			public Map<AclObjectIdentity, AclPage<AclObjectIdentity>> apply(List<ResultSet> resultSets) {
+				Map<AclObjectIdentity, AclPage<AclObjectIdentity>> result = new LinkedHashMap<AclObjectIdentity, AclPage<AclObjectIdentity>>();
+				for (int i = 0; i < objectIds.size(); i++) {
+					List<AclObjectIdentity> children = new ArrayList<AclObjectIdentity>();
+					String lastChildId = addChildren(children, resultSets.get(i));
+					result.put(objectIds.get(i), new AclPage<AclObjectIdentity>(children, children.size() == pageSize ? lastChildId : null));
+				}
+
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("END findChildrenOfAclObjectIdentities: pages: " + result);
+				}
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Reads the children of a parent page by page, so that no single query returns more than <code>childrenPageSize</code> rows.
+	 * 
+	 * @param parentRowId the row id of the parent.
+	 * @param children the list to add the children to.
+	 * @param lastChildId the row id of the last child read, or <code>null</code> to start from the first child.
+	 * @return a future holding the list of children, once all pages have been read.
+	 */
+	private ListenableFuture<List<AclObjectIdentity>> readChildrenAsync(final String parentRowId, final List<AclObjectIdentity> children, String lastChildId) {
+		ResultSetFuture future = session.executeAsync(childrenPageStatement(parentRowId, lastChildId, childrenPageSize));
+		return Futures.transform(future, new AsyncFunction<ResultSet, List<AclObjectIdentity>>() {
+
+			public ListenableFuture<List<AclObjectIdentity>> apply(ResultSet resultSet) {
+				int previousSize = children.size();
+				String lastReadChildId = addChildren(children, resultSet);
+				if (children.size() - previousSize == childrenPageSize) {
+					return readChildrenAsync(parentRowId, children, lastReadChildId);
+				}
+				return Futures.immediateFuture(children);
+			}
+		});
+	}
+
+	/**
+	 * Creates the query reading a page of the 'children' partition of a parent.
+	 * 
+	 * @param parentRowId the row id of the parent.
+	 * @param lastChildId the row id of the last child of the previous page, or <code>null</code> for the first page.
+	 * @param pageSize the maximum number of rows to read.
+	 * @return the <code>Query</code> reading the page.
+	 */
+	private Query childrenPageStatement(String parentRowId, String lastChildId, int pageSize) {
+		// Limits cannot be bound, so only the configured page size is a fixed statement and other sizes are shapes
+		String cql = (lastChildId == null ? SELECT_CHILDREN : SELECT_CHILDREN_AFTER) + " LIMIT " + pageSize;
+		Object[] values = lastChildId == null ? new Object[] { parentRowId } : new Object[] { parentRowId, lastChildId };
+		return pageSize == childrenPageSize ? statement(cql, values) : shapeStatement(cql, values);
+	}
+
+	/**
+	 * Converts the rows of a 'children' partition, iterating over them without materializing the rows.
+	 * 
+	 * @param children the list to add the children to.
+	 * @param resultSet the rows of the partition.
+	 * @return the row id of the last child, or <code>null</code> if there were no rows.
+	 */
+	private String addChildren(List<AclObjectIdentity> children, ResultSet resultSet) {
+		String lastChildId = null;
+		for (Row row : resultSet) {
+			children.add(convertToAclObjectIdentity(row, false));
+			lastChildId = row.getString("childId");
+		}
+		return lastChildId;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#deleteAcls(java.util.List)
+	 */
+	public void deleteAcls(List<AclObjectIdentity> objectIdsToDelete) {
+		getUninterruptibly(deleteAclsAsync(objectIdsToDelete));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.AsyncCassandraAclRepository#deleteAclsAsync(java.util.List)
+	 */
+	public ListenableFuture<Void> deleteAclsAsync(final List<AclObjectIdentity> objectIdsToDelete) {
+		assertAclObjectIdentityList(objectIdsToDelete);
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN deleteAcls: objectIdsToDelete: " + objectIdsToDelete);
+		}
+
+		// The row of an object in the 'children' table is in the partition of its parent, which is only known from 
+		// the 'aois' row. Those rows are read first, and the children rows are deleted alongside the objects, so 
+		// that deleted objects are no longer returned as children of their parent.
+		List<String> rowIds = new ArrayList<String>(objectIdsToDelete.size());
+		for (AclObjectIdentity entry : objectIdsToDelete) {
+			rowIds.add(entry.getRowId());
+		}
+		return Futures.transform(selectPartitions(AOI_TABLE, rowIds), new AsyncFunction<List<ResultSet>, Void>() {
+
+			public ListenableFuture<Void> apply(List<ResultSet> resultSets) {
+				List<Query> childDeletes = new ArrayList<Query>();
+				for (ResultSet resultSet : resultSets) {
+					for (Row row : resultSet) {
+						AclObjectIdentity aoi = convertToAclObjectIdentity(row, true);
+						if (aoi.getParentRowId() != null) {
+							childDeletes.add(statement(DELETE_CHILD, aoi.getParentRowId(), aoi.getRowId()));
+						}
+					}
+				}
+				List<ListenableFuture<Void>> deletes = new ArrayList<ListenableFuture<Void>>(2);
+				deletes.add(toVoid(queryExecutor.executeAll(childDeletes), "deleteAcls: children rows"));
+				deletes.add(deleteObjectsAsync(objectIdsToDelete));
+				return toVoid(Futures.allAsList(deletes), "deleteAcls");
+			}
+		});
+	}
+
+	/**
+	 * Deletes all partitions of the provided objects, along with their rows in the Sid index when it is enabled.
+	 * 
+	 * @param objectIdsToDelete the objects to delete.
+	 * @return a future that completes when all objects have been deleted.
+	 */
+	private ListenableFuture<Void> deleteObjectsAsync(List<AclObjectIdentity> objectIdsToDelete) {
+		// All rows of an object share its partition key, so each object is deleted with its own unlogged batch 
+		// instead of a single batch for all objects, and the number of batches in flight is bounded by the executor
+		if (!sidIndexEnabled) {
+			List<Query> deletes = new ArrayList<Query>(objectIdsToDelete.size());
+			for (AclObjectIdentity entry : objectIdsToDelete) {
+				StatementBatch batch = new StatementBatch(false);
+				addAclDeletes(batch, entry.getRowId());
+				deletes.add(batch.toStatement());
+			}
+			return toVoid(queryExecutor.executeAll(deletes), "deleteAcls: objects");
+		}
+		
+		// The Sid index is partitioned by Sid, so the entries of the objects are read to find the rows to delete. 
+		// The index rows of an object are deleted with the rows of the object, in a logged batch as they span partitions.
+		final Map<String, StatementBatch> batches = new LinkedHashMap<String, StatementBatch>();
+		for (AclObjectIdentity entry : objectIdsToDelete) {
+			StatementBatch batch = new StatementBatch();
+			addAclDeletes(batch, entry.getRowId());
+			batches.put(entry.getRowId(), batch);
+		}
+		return Futures.transform(selectPartitions(ACL_TABLE, new ArrayList<String>(batches.keySet())), 
+				new AsyncFunction<List<ResultSet>, Void>() {
+
+			public ListenableFuture<Void> apply(List<ResultSet> resultSets) {
+				for (ResultSet resultSet : resultSets) {
+					for (Row row : resultSet) {
+						batches.get(row.getString("id")).add(DELETE_SID_INDEX_ENTRY, sidKey(row.getString("sid"), row.getBool("isSidPrincipal")), 
+								row.getString("id"), row.getInt("aclOrder"));
+					}
+				}
+				List<Query> deletes = new ArrayList<Query>(batches.size());
+				for (StatementBatch batch : batches.values()) {
+					deletes.add(batch.toStatement());
+				}
+				return toVoid(queryExecutor.executeAll(deletes), "deleteAcls: objects");
+			}
+		});
+	}
+
+	/**
+	 * Adds the statements deleting all partitions of an object to the provided batch.
+	 * 
+	 * @param batch the batch to add the statements to.
+	 * @param rowId the row id of the object.
+	 */
+	private void addAclDeletes(StatementBatch batch, String rowId) {
+		batch.add(DELETE_AOI, rowId);
+		batch.add(DELETE_CHILDREN, rowId);
+		batch.add(DELETE_ACLS, rowId);
+		if (ancestorPathsEnabled) {
+			batch.add(DELETE_ANCESTORS, rowId);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#saveAcl(org.springframework.security.acls.cassandra.model.AclObjectIdentity)
+	 */
+	public void saveAcl(AclObjectIdentity aoi) throws AclAlreadyExistsException {
+		getUninterruptibly(saveAclAsync(aoi));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.AsyncCassandraAclRepository#saveAclAsync(org.springframework.security.acls.cassandra.model.AclObjectIdentity)
+	 */
+	public ListenableFuture<Void> saveAclAsync(final AclObjectIdentity aoi) {
+		assertAclObjectIdentity(aoi);
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN saveAcl: aclObjectIdentity: " + aoi);
+		}
+
+		if (lightweightTransactionsEnabled) {
+			return saveAclConditionallyAsync(aoi);
+		}
+
+		// Check this object identity hasn't already been persisted
+		return Futures.transform(findAclObjectIdentityAsync(aoi), new AsyncFunction<AclObjectIdentity, Void>() {
+
+			public ListenableFuture<Void> apply(AclObjectIdentity persistedAoi) {
+				if (persistedAoi != null) {
+					throw new AclAlreadyExistsException("Object identity '" + aoi + "' already exists");
+				}
+				
+				return Futures.transform(computeAncestorPathAsync(aoi), new AsyncFunction<List<AclObjectIdentity>, Void>() {
+
+					public ListenableFuture<Void> apply(List<AclObjectIdentity> ancestors) {
+						StatementBatch batch = new StatementBatch();
+						batch.add(INSERT_AOI, aoi.getRowId(), aoi.getId(), aoi.getObjectClass(), aoi.isEntriesInheriting(),
+								aoi.getOwnerId(), aoi.isOwnerPrincipal(), aoi.getParentObjectId(), aoi.getParentObjectClass());
+						
+						if (aoi.getParentRowId() != null) {
+							batch.add(INSERT_CHILD, aoi.getParentRowId(), aoi.getRowId(), aoi.getId(), aoi.getObjectClass());
+						}
+						addAncestorPath(batch, aoi.getRowId(), ancestors, 0);
+						return toVoid(session.executeAsync(batch.toStatement()), "saveAcl");
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Saves an <code>AclObjectIdentity</code> with a conditional insert on the 'aois' table, so that the existence 
+	 * check and the insert are a single atomic operation. The row in the 'children' table and the ancestor path are 
+	 * written once the insert has been applied, since conditional statements cannot be part of a multi-partition batch.
+	 * 
+	 * @param aoi the <code>AclObjectIdentity</code> to save.
+	 * @return a future that completes when all records have been saved.
+	 */
+	private ListenableFuture<Void> saveAclConditionallyAsync(final AclObjectIdentity aoi) {
+		ResultSetFuture insertFuture = session.executeAsync(statement(INSERT_AOI_IF_NOT_EXISTS, aoi.getRowId(), aoi.getId(), aoi.getObjectClass(), 
+				aoi.isEntriesInheriting(), aoi.getOwnerId(), aoi.isOwnerPrincipal(), aoi.getParentObjectId(), aoi.getParentObjectClass(), 0L));
+		
+		return Futures.transform(insertFuture, new AsyncFunction<ResultSet, Void>() {
+
+			public ListenableFuture<Void> apply(ResultSet resultSet) {
+				// The first column of the result of a conditional statement is '[applied]'
+				if (!resultSet.one().getBool(0)) {
+					throw new AclAlreadyExistsException("Object identity '" + aoi + "' already exists");
+				}
+				if (aoi.getParentRowId() == null) {
+					return toVoid(Futures.immediateFuture(resultSet), "saveAcl");
+				}
+
+				return Futures.transform(computeAncestorPathAsync(aoi), new AsyncFunction<List<AclObjectIdentity>, Void>() {
+
+					public ListenableFuture<Void> apply(List<AclObjectIdentity> ancestors) {
+						StatementBatch batch = new StatementBatch();
+						batch.add(INSERT_CHILD, aoi.getParentRowId(), aoi.getRowId(), aoi.getId(), aoi.getObjectClass());
+						addAncestorPath(batch, aoi.getRowId(), ancestors, 0);
+						return toVoid(session.executeAsync(batch.toStatement()), "saveAcl");
+					}
+				});
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#updateAcl(org.springframework.security.acls.cassandra.model.AclObjectIdentity, java.util.List)
+	 */
+	public void updateAcl(AclObjectIdentity aoi, List<AclEntry> entries) throws AclNotFoundException {
+		getUninterruptibly(updateAclAsync(aoi, entries));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#updateAcl(org.springframework.security.acls.cassandra.model.AclObjectIdentity, java.util.List, org.springframework.security.acls.cassandra.model.AclObjectIdentity, java.util.List)
+	 */
+	public void updateAcl(AclObjectIdentity aoi, List<AclEntry> entries, AclObjectIdentity previousAoi, List<AclEntry> previousEntries) 
+			throws AclNotFoundException {
+		getUninterruptibly(updateAclAsync(aoi, entries, previousAoi, previousEntries));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.AsyncCassandraAclRepository#updateAclAsync(org.springframework.security.acls.cassandra.model.AclObjectIdentity, java.util.List)
+	 */
+	public ListenableFuture<Void> updateAclAsync(final AclObjectIdentity aoi, final List<AclEntry> entries) {
+		assertAclObjectIdentity(aoi);
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN updateAcl: aclObjectIdentity: " + aoi + ", entries: " + entries);
+		}
+
+		return readAndUpdateAclAsync(aoi, entries, MAX_CONDITIONAL_UPDATE_ATTEMPTS);
+	}
+
+	/**
+	 * Reads the persisted state of an object and writes the changes to the provided state. With lightweight 
+	 * transactions enabled the 'aois' row is only updated if its version is still the one read, and the update 
+	 * starts over if it is not, so that concurrent updates cannot overwrite each other.
+	 * 
+	 * @param aoi the new state of the <code>AclObjectIdentity</code>.
+	 * @param entries the new entries of the object.
+	 * @param attempts the number of times the update may still be attempted.
+	 * @return a future that completes when all changes have been written.
+	 */
+	private ListenableFuture<Void> readAndUpdateAclAsync(final AclObjectIdentity aoi, final List<AclEntry> entries, final int attempts) {
+		// The persisted object identity and entries are read at once, so that only differences are written
+		List<ListenableFuture<ResultSet>> persistedFutures = new ArrayList<ListenableFuture<ResultSet>>(2);
+		persistedFutures.add(session.executeAsync(statement(SELECT_AOI, aoi.getRowId())));
+		persistedFutures.add(session.executeAsync(statement(SELECT_ACLS, aoi.getRowId())));
+		ListenableFuture<List<ResultSet>> persistedFuture = Futures.allAsList(persistedFutures);
+		return Futures.transform(persistedFuture, new AsyncFunction<List<ResultSet>, Void>() {
+
+			public ListenableFuture<Void> apply(List<ResultSet> resultSets) {
+				Row aoiRow = resultSets.get(0).one();
+				final AclObjectIdentity persistedAoi = convertToAclObjectIdentity(aoiRow, true);
+				if (persistedAoi == null) {
+					throw new AclNotFoundException("Object identity '" + aoi + "' does not exist");
+				}
+				
+				final List<AclEntry> persistedEntries = new ArrayList<AclEntry>();
+				for (Row row : resultSets.get(1)) {
+					persistedEntries.add(convertToAclEntry(row, aoi.getRowId()));
+				}
+				if (!lightweightTransactionsEnabled) {
+					return writeAclChangesAsync(aoi, entries, persistedAoi, persistedEntries, false);
+				}
+				
+				if (!isAclObjectIdentityChanged(persistedAoi, aoi) && !hasAclEntryChanges(persistedEntries, entries)) {
+					aoi.setVersion(persistedAoi.getVersion());
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("END updateAcl: no changes");
+					}
+					return Futures.immediateFuture(null);
+				}
+				
+				// Records written before versioning was introduced have no version to compare with
+				Long expectedVersion = aoiRow.isNull("version") ? null : Long.valueOf(persistedAoi.getVersion());
+				ResultSetFuture updateFuture = session.executeAsync(updateAoiIfVersionStatement(aoi, persistedAoi.getVersion() + 1, expectedVersion));
+				return Futures.transform(updateFuture, new AsyncFunction<ResultSet, Void>() {
+
+					public ListenableFuture<Void> apply(ResultSet resultSet) {
+						// The first column of the result of a conditional statement is '[applied]'
+						if (resultSet.one().getBool(0)) {
+							return writeAclChangesAsync(aoi, entries, persistedAoi, persistedEntries, true);
+						}
+						if (attempts <= 1) {
+							throw new AclConcurrentModificationException("Object identity '" + aoi + "' is being modified concurrently");
+						}
+						if (LOG.isDebugEnabled()) {
+							LOG.debug("Version " + persistedAoi.getVersion() + " of '" + aoi + "' has changed while updating, reading it again");
+						}
+						return readAndUpdateAclAsync(aoi, entries, attempts - 1);
+					}
+				});
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.AsyncCassandraAclRepository#updateAclAsync(org.springframework.security.acls.cassandra.model.AclObjectIdentity, java.util.List, org.springframework.security.acls.cassandra.model.AclObjectIdentity, java.util.List)
+	 */
+	public ListenableFuture<Void> updateAclAsync(final AclObjectIdentity aoi, final List<AclEntry> entries, final AclObjectIdentity previousAoi, 
+			final List<AclEntry> previousEntries) {
+		if (!lightweightTransactionsEnabled || previousAoi == null || previousEntries == null) {
+			return updateAclAsync(aoi, entries);
+		}
+		assertAclObjectIdentity(aoi);
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN updateAcl: aclObjectIdentity: " + aoi + ", entries: " + entries + ", previous version: " + previousAoi.getVersion());
+		}
+		
+		if (!isAclObjectIdentityChanged(previousAoi, aoi) && !hasAclEntryChanges(previousEntries, entries)) {
+			aoi.setVersion(previousAoi.getVersion());
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("END updateAcl: no changes");
+			}
+			return Futures.immediateFuture(null);
+		}
+
+		// The version guarantees the previous state is still persisted, so the changes can be computed without a read
+		ResultSetFuture updateFuture = session.executeAsync(updateAoiIfVersionStatement(aoi, previousAoi.getVersion() + 1, 
+				Long.valueOf(previousAoi.getVersion())));
+		return Futures.transform(updateFuture, new AsyncFunction<ResultSet, Void>() {
+
+			public ListenableFuture<Void> apply(ResultSet resultSet) {
+				// The first column of the result of a conditional statement is '[applied]'
+				if (!resultSet.one().getBool(0)) {
+					// Modified since the previous state was read, or no longer existing
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("Version " + previousAoi.getVersion() + " of '" + aoi + "' is outdated, reading the persisted state");
+					}
+					return readAndUpdateAclAsync(aoi, entries, MAX_CONDITIONAL_UPDATE_ATTEMPTS);
+				}
+				return writeAclChangesAsync(aoi, entries, previousAoi, previousEntries, true);
+			}
+		});
+	}
+
+	/**
+	 * @param aoi the new state of the <code>AclObjectIdentity</code>.
+	 * @param version the version to write.
+	 * @param expectedVersion the version the 'aois' row must have for the update to be applied, 
+	 * 		or <code>null</code> if the row must have no version.
+	 * @return the <code>Query</code> updating the 'aois' row of the object if its version is the expected one.
+	 */
+	private Query updateAoiIfVersionStatement(AclObjectIdentity aoi, long version, Long expectedVersion) {
+		return statement(UPDATE_AOI_IF_VERSION, aoi.isEntriesInheriting(), aoi.getOwnerId(), aoi.isOwnerPrincipal(), 
+				aoi.getParentObjectId(), aoi.getParentObjectClass(), version, aoi.getRowId(), expectedVersion);
+	}
+
+	/**
+	 * Writes the changes between the persisted state of an object and its new state. The version of the provided 
+	 * <code>AclObjectIdentity</code> is set to the version of the written record, which only changes when the 
+	 * 'aois' row has been updated conditionally.
+	 * 
+	 * @param aoi the new state of the <code>AclObjectIdentity</code>.
+	 * @param entries the new entries of the object.
+	 * @param persistedAoi the persisted state of the <code>AclObjectIdentity</code>.
+	 * @param persistedEntries the persisted entries of the object.
+	 * @param aoiWritten whether the 'aois' row has already been updated and its version incremented.
+	 * @return a future that completes when all changes have been written.
+	 */
+	private ListenableFuture<Void> writeAclChangesAsync(final AclObjectIdentity aoi, List<AclEntry> entries, AclObjectIdentity persistedAoi, 
+			List<AclEntry> persistedEntries, boolean aoiWritten) {
+		// Without the Sid index and a change of parent, all changes are on the partitions of the object and are 
+		// written with a single unlogged batch. Rows of the Sid index and the children table are on other 
+		// partitions, so those changes use logged batches, split on entry boundaries to bound their size. Deleted 
+		// and inserted rows never share a primary key, so the statements of a batch do not conflict.
+		final boolean parentChanged = !equal(persistedAoi.getParentRowId(), aoi.getParentRowId());
+		boolean logged = parentChanged || (sidIndexEnabled && hasAclEntryChanges(persistedEntries, entries));
+		List<StatementBatch> batches = new ArrayList<StatementBatch>();
+		batches.add(new StatementBatch(logged));
+		addAclEntryChanges(batches, aoi, persistedEntries, entries);
+		StatementBatch batch = batches.get(batches.size() - 1);
+		
+		// The version is only maintained by the conditional updates, so tables without the column keep working
+		long version = persistedAoi.getVersion();
+		if (aoiWritten) {
+			version++;
+		} else if (!batch.isEmpty() || isAclObjectIdentityChanged(persistedAoi, aoi)) {
+			batch.add(INSERT_AOI, aoi.getRowId(), aoi.getId(), aoi.getObjectClass(), aoi.isEntriesInheriting(),
+					aoi.getOwnerId(), aoi.isOwnerPrincipal(), aoi.getParentObjectId(), aoi.getParentObjectClass());
+		}
+		aoi.setVersion(version);
+	
+		// Check if parent is different and move the object in the children table
+		if (parentChanged) {
+			if (persistedAoi.getParentRowId() != null) {
+				batch.add(DELETE_CHILD, persistedAoi.getParentRowId(), aoi.getRowId());
+			}
+			if (aoi.getParentRowId() != null) {
+				batch.add(INSERT_CHILD, aoi.getParentRowId(), aoi.getRowId(), aoi.getId(), aoi.getObjectClass());
+			}
+		}
+		
+		if (batch.isEmpty()) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("END updateAcl: " + (aoiWritten ? "object identity updated" : "no changes"));
+			}
+			return Futures.immediateFuture(null);
+		}
+		
+		ListenableFuture<?> updateFuture;
+		if (batches.size() == 1) {
+			updateFuture = session.executeAsync(batch.toStatement());
+		} else {
+			List<Query> updates = new ArrayList<Query>(batches.size());
+			for (StatementBatch entryBatch : batches) {
+				updates.add(entryBatch.toStatement());
+			}
+			updateFuture = queryExecutor.executeAll(updates);
+		}
+		if (!parentChanged || !ancestorPathsEnabled) {
+			return toVoid(updateFuture, "updateAcl");
+		}
+		
+		return Futures.transform(updateFuture, new AsyncFunction<Object, Void>() {
+
+			public ListenableFuture<Void> apply(Object result) {
+				return toVoid(rebuildAncestorPathsAsync(aoi), "updateAcl");
+			}
+		});
+	}
+
+	/**
+	 * Compares the persisted entries of an object with the provided ones, and adds the statements inserting new or 
+	 * changed entries and deleting removed entries. Unchanged entries are not written again, so that updates of 
+	 * objects with many entries neither rewrite the whole partition nor leave a tombstone for each entry.
+	 * 
+	 * @param batches the batches to add the statements to. A logged batch is added to the list when the last one 
+	 * 		is full, so that the statements of an entry are always written by the same batch.
+	 * @param aoi the object.
+	 * @param persistedEntries the persisted entries of the object.
+	 * @param entries the new entries of the object.
+	 */
+	private void addAclEntryChanges(List<StatementBatch> batches, AclObjectIdentity aoi, List<AclEntry> persistedEntries, List<AclEntry> entries) {
+		String rowId = aoi.getRowId();
+		Map<String, AclEntry> removedEntries = indexAclEntries(persistedEntries);
+		if (entries != null) {
+			for (AclEntry entry : entries) {
+				AclEntry persistedEntry = removedEntries.remove(entryKey(entry));
+				if (isAclEntryChanged(persistedEntry, entry)) {
+					StatementBatch batch = nextBatch(batches);
+					batch.add(INSERT_ACL, rowId, entry.getOrder(), entry.getSid(), entry.getMask(), entry.isSidPrincipal(),
+							entry.isGranting(), entry.isAuditSuccess(), entry.isAuditFailure());
+					if (sidIndexEnabled) {
+						// A Sid changing between principal and authority moves to another partition of the index
+						if (persistedEntry != null && persistedEntry.isSidPrincipal() != entry.isSidPrincipal()) {
+							batch.add(DELETE_SID_INDEX_ENTRY, sidKey(persistedEntry.getSid(), persistedEntry.isSidPrincipal()), 
+									rowId, persistedEntry.getOrder());
+						}
+						batch.add(INSERT_SID_INDEX_ENTRY, sidKey(entry.getSid(), entry.isSidPrincipal()), rowId, entry.getOrder(), 
+								aoi.getId(), aoi.getObjectClass(), entry.getMask(), entry.isGranting(), entry.isAuditSuccess(), entry.isAuditFailure());
+					}
+				}
+			}
+		}
+		for (AclEntry entry : removedEntries.values()) {
+			StatementBatch batch = nextBatch(batches);
+			batch.add(DELETE_ACL, rowId, entry.getSid(), entry.getOrder());
+			if (sidIndexEnabled) {
+				batch.add(DELETE_SID_INDEX_ENTRY, sidKey(entry.getSid(), entry.isSidPrincipal()), rowId, entry.getOrder());
+			}
+		}
+	}
+
+	/**
+	 * @param batches the batches of an update, holding at least one batch.
+	 * @return the last batch of the list, or a new logged batch added to the list when the last one is logged and 
+	 * 		full. Unlogged batches are on a single partition and are never split.
+	 */
+	private StatementBatch nextBatch(List<StatementBatch> batches) {
+		StatementBatch batch = batches.get(batches.size() - 1);
+		if (batch.isLogged() && batch.size() >= MAX_LOGGED_BATCH_SIZE) {
+			batch = new StatementBatch();
+			batches.add(batch);
+		}
+		return batch;
+	}
+
+	/**
+	 * @param persistedEntries the persisted entries of an object.
+	 * @param entries the new entries of the object.
+	 * @return whether any entry has been added, changed or removed.
+	 */
+	private static boolean hasAclEntryChanges(List<AclEntry> persistedEntries, List<AclEntry> entries) {
+		Map<String, AclEntry> removedEntries = indexAclEntries(persistedEntries);
+		if (entries != null) {
+			for (AclEntry entry : entries) {
+				if (isAclEntryChanged(removedEntries.remove(entryKey(entry)), entry)) {
+					return true;
+				}
+			}
+		}
+		return !removedEntries.isEmpty();
+	}
+
+	/**
+	 * @param entries the entries to index.
+	 * @return the entries keyed on the clustering columns of the 'acls' table.
+	 */
+	private static Map<String, AclEntry> indexAclEntries(List<AclEntry> entries) {
+		Map<String, AclEntry> result = new HashMap<String, AclEntry>();
+		if (entries != null) {
+			for (AclEntry entry : entries) {
+				result.put(entryKey(entry), entry);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param entry the <code>AclEntry</code> to get the key of.
+	 * @return the values of the clustering columns of the 'acls' table for the entry.
+	 */
+	private static String entryKey(AclEntry entry) {
+		return entry.getSid() + ":" + entry.getOrder();
+	}
+
+	/**
+	 * @param persistedEntry the persisted entry with the same key, or <code>null</code> if there is none.
+	 * @param entry the new entry.
+	 * @return whether the entry needs to be written.
+	 */
+	private static boolean isAclEntryChanged(AclEntry persistedEntry, AclEntry entry) {
+		return persistedEntry == null || persistedEntry.getMask() != entry.getMask() || persistedEntry.isSidPrincipal() != entry.isSidPrincipal()
+				|| persistedEntry.isGranting() != entry.isGranting() || persistedEntry.isAuditSuccess() != entry.isAuditSuccess()
+				|| persistedEntry.isAuditFailure() != entry.isAuditFailure();
+	}
+
+	/**
+	 * @param persistedAoi the persisted <code>AclObjectIdentity</code>.
+	 * @param aoi the new state of the <code>AclObjectIdentity</code>.
+	 * @return whether any of the stored attributes of the <code>AclObjectIdentity</code> has changed.
+	 */
+	private static boolean isAclObjectIdentityChanged(AclObjectIdentity persistedAoi, AclObjectIdentity aoi) {
+		return persistedAoi.isEntriesInheriting() != aoi.isEntriesInheriting() 
+				|| persistedAoi.isOwnerPrincipal() != aoi.isOwnerPrincipal()
+				|| !equal(persistedAoi.getOwnerId(), aoi.getOwnerId())
+				|| !equal(persistedAoi.getParentObjectId(), aoi.getParentObjectId())
+				|| !equal(persistedAoi.getParentObjectClass(), aoi.getParentObjectClass());
+	}
+
+	/**
+	 * @return whether both objects are <code>null</code> or equal.
+	 */
+	private static boolean equal(Object o1, Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findEffectivePermissions(org.springframework.security.acls.cassandra.model.AclObjectIdentity, java.util.List, java.util.List)
+	 */
+	public List<EffectivePermission> findEffectivePermissions(AclObjectIdentity objectId, List<Sid> sids, List<Integer> masks) {
+		return getUninterruptibly(findEffectivePermissionsAsync(objectId, sids, masks));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.AsyncCassandraAclRepository#findEffectivePermissionsAsync(org.springframework.security.acls.cassandra.model.AclObjectIdentity, java.util.List, java.util.List)
+	 */
+	public ListenableFuture<List<EffectivePermission>> findEffectivePermissionsAsync(AclObjectIdentity objectId, List<Sid> sids, List<Integer> masks) {
+		assertAclObjectIdentity(objectId);
+		Assert.notEmpty(sids, "Sids to lookup required");
+		Assert.notEmpty(masks, "Masks to lookup required");
+		
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN findEffectivePermissions: objectIdentity: " + objectId + ", sids: " + sids + ", masks: " + masks);
+		}
+
+		// The sid is not the last clustering column, so each sid needs its own single-partition query
+		String cql = "SELECT * FROM " + KEYSPACE + "." + PERMISSIONS_TABLE + " WHERE id = ? AND sid = ? AND isSidPrincipal = ? AND mask IN (" 
+				+ bindMarkers(masks.size()) + ")";
+		List<Query> queries = new ArrayList<Query>(sids.size());
+		for (Sid sid : sids) {
+			List<Object> values = new ArrayList<Object>(masks.size() + 3);
+			values.add(objectId.getRowId());
+			if (sid instanceof PrincipalSid) {
+				values.add(((PrincipalSid) sid).getPrincipal());
+				values.add(true);
+			} else if (sid instanceof GrantedAuthoritySid) {
+				values.add(((GrantedAuthoritySid) sid).getGrantedAuthority());
+				values.add(false);
+			} else {
+				continue;
+			}
+			values.addAll(masks);
+			queries.add(shapeStatement(cql, values.toArray()));
+		}
+		
+		return Futures.transform(queryExecutor.executeAll(queries), new Function<List<ResultSet>, List<EffectivePermission>>() {
+
+			public List<EffectivePermission> apply(List<ResultSet> resultSets) {
+				List<EffectivePermission> result = new ArrayList<EffectivePermission>();
+				for (ResultSet resultSet : resultSets) {
+					for (Row row : resultSet) {
+						result.add(convertToEffectivePermission(row));
+					}
+				}
+				
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("END findEffectivePermissions: effectivePermissions: " + result);
+				}
+				return result;
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#updateEffectivePermissions(java.util.Map)
+	 */
+	public void updateEffectivePermissions(Map<AclObjectIdentity, List<EffectivePermission>> permissions) {
+		getUninterruptibly(updateEffectivePermissionsAsync(permissions));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.AsyncCassandraAclRepository#updateEffectivePermissionsAsync(java.util.Map)
+	 */
+	public ListenableFuture<Void> updateEffectivePermissionsAsync(final Map<AclObjectIdentity, List<EffectivePermission>> permissions) {
+		Assert.notNull(permissions, "Effective permissions required");
+		assertAclObjectIdentityList(new ArrayList<AclObjectIdentity>(permissions.keySet()));
+		
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN updateEffectivePermissions: effectivePermissions: " + permissions);
+		}
+		
+		// Objects losing all their permissions are cleared without reading the stored rows first
+		final List<Query> writes = new ArrayList<Query>();
+		final List<AclObjectIdentity> objectsToReplace = new ArrayList<AclObjectIdentity>();
+		List<String> idsToReplace = new ArrayList<String>();
+		for (Map.Entry<AclObjectIdentity, List<EffectivePermission>> entry : permissions.entrySet()) {
+			if (entry.getValue() == null || entry.getValue().isEmpty()) {
+				writes.add(statement(DELETE_PERMISSIONS, entry.getKey().getRowId()));
+			} else {
+				objectsToReplace.add(entry.getKey());
+				idsToReplace.add(entry.getKey().getRowId());
+			}
+		}
+		
+		if (objectsToReplace.isEmpty()) {
+			return toVoid(queryExecutor.executeAll(writes), "updateEffectivePermissions");
+		}
+		
+		return Futures.transform(selectPartitions(PERMISSIONS_TABLE, idsToReplace), new AsyncFunction<List<ResultSet>, Void>() {
+
+			public ListenableFuture<Void> apply(List<ResultSet> resultSets) {
+				Map<String, List<Row>> storedRows = new HashMap<String, List<Row>>();
+				for (ResultSet resultSet : resultSets) {
+					for (Row row : resultSet) {
+						List<Row> rows = storedRows.get(row.getString("id"));
+						if (rows == null) {
+							rows = new ArrayList<Row>();
+							storedRows.put(row.getString("id"), rows);
+						}
+						rows.add(row);
+					}
+				}
+				
+				for (AclObjectIdentity aoi : objectsToReplace) {
+					// Rows only touch a single partition, and the inserted and deleted keys never overlap
+					StatementBatch batch = new StatementBatch(false);
+					Set<String> keys = new HashSet<String>();
+					for (EffectivePermission permission : permissions.get(aoi)) {
+						keys.add(permissionKey(permission.getSid(), permission.isSidPrincipal(), permission.getMask()));
+						batch.add(INSERT_PERMISSION, aoi.getRowId(), permission.getSid(), permission.isSidPrincipal(), permission.getMask(), 
+								permission.getDepth(), permission.isGranting(), permission.isAuditSuccess(), permission.isAuditFailure());
+					}
+					
+					List<Row> rows = storedRows.get(aoi.getRowId());
+					if (rows != null) {
+						for (Row row : rows) {
+							if (!keys.contains(permissionKey(row.getString("sid"), row.getBool("isSidPrincipal"), row.getInt("mask")))) {
+								batch.add(DELETE_PERMISSION, aoi.getRowId(), row.getString("sid"), row.getBool("isSidPrincipal"), row.getInt("mask"));
+							}
+						}
+					}
+					writes.add(batch.toStatement());
+				}
+				return toVoid(queryExecutor.executeAll(writes), "updateEffectivePermissions");
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAclEntriesBySid(org.springframework.security.acls.model.Sid, java.lang.String, java.lang.String, int)
+	 */
+	public AclPage<AclObjectEntries> findAclEntriesBySid(Sid sid, String objectClass, String pagingState, int pageSize) {
+		return getUninterruptibly(findAclEntriesBySidAsync(sid, objectClass, pagingState, pageSize));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.security.acls.cassandra.repository.AsyncCassandraAclRepository#findAclEntriesBySidAsync(org.springframework.security.acls.model.Sid, java.lang.String, java.lang.String, int)
+	 */
+	public ListenableFuture<AclPage<AclObjectEntries>> findAclEntriesBySidAsync(Sid sid, String objectClass, String pagingState, final int pageSize) {
+		Assert.state(sidIndexEnabled, "The Sid index is not enabled");
+		Assert.notNull(sid, "The Sid cannot be null");
+		Assert.isTrue(pageSize > 0, "The page size must be positive");
+		final String sidKey = sidKey(sid);
+		Assert.notNull(sidKey, "Unsupported Sid type: " + sid.getClass().getName());
+		
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN findAclEntriesBySid: sid: " + sid + ", objectClass: " + objectClass + ", pagingState: " + pagingState);
+		}
+		
+		// Row ids start with the object class, so a class is a range of the 'aoiId' clustering column
+		StringBuilder cql = new StringBuilder("SELECT * FROM ").append(KEYSPACE).append('.').append(SID_INDEX_TABLE).append(" WHERE sid = ?");
+		List<Object> values = new ArrayList<Object>();
+		values.add(sidKey);
+		String lowerBound = pagingState != null ? pagingState : (objectClass != null ? objectClass + ":" : null);
+		if (lowerBound != null) {
+			cql.append(" AND aoiId > ?");
+			values.add(lowerBound);
+		}
+		if (objectClass != null) {
+			cql.append(" AND aoiId < ?");
+			values.add(objectClass + ";");
+		}
+		cql.append(" LIMIT ").append(pageSize);
+		
+		// The conditions and the limit depend on the request, so the query is prepared by shape
+		ResultSetFuture future = session.executeAsync(shapeStatement(cql.toString(), values.toArray()));
+		return Futures.transform(future, new AsyncFunction<ResultSet, AclPage<AclObjectEntries>>() {
+
+			public ListenableFuture<AclPage<AclObjectEntries>> apply(ResultSet resultSet) {
+				final List<Row> rows = new ArrayList<Row>(pageSize);
+				for (Row row : resultSet) {
+					rows.add(row);
+				}
+				if (rows.size() < pageSize) {
+					return Futures.immediateFuture(convertToAclPage(sidKey, rows, false));
+				}
+				
+				// The entries of the last object may continue past the limit, and are read so that no object spans two pages
+				Row lastRow = rows.get(rows.size() - 1);
+				ResultSetFuture remainingFuture = session.executeAsync(statement(SELECT_SID_INDEX_REMAINING, sidKey, lastRow.getString("aoiId"), 
+						lastRow.getInt("aclOrder")));
+				return Futures.transform(remainingFuture, new Function<ResultSet, AclPage<AclObjectEntries>>() {
+
+					public AclPage<AclObjectEntries> apply(ResultSet remaining) {
+						for (Row row : remaining) {
+							rows.add(row);
+						}
+						return convertToAclPage(sidKey, rows, true);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Reads all rows of the provided partitions of a table, using the configured {@link ReadStrategy}.
+	 * 
+	 * @param table the table to read the rows from.
+	 * @param ids the partition keys of the partitions to read.
+	 * @return a future holding the <code>ResultSet</code> objects with the rows of all partitions.
+	 */
+	private ListenableFuture<List<ResultSet>> selectPartitions(String table, List<String> ids) {
+		return selectPartitions(table, ids, Functions.<ResultSet>identity());
+	}
+
+	/**
+	 * Reads all rows of the provided partitions of a table, using the configured {@link ReadStrategy}, and converts 
+	 * the rows of each query as soon as it returns. <code>IN</code> queries read at most <code>maxPartitionsPerQuery</code> 
+	 * partitions each.
+	 * 
+	 * @param table the table to read the rows from.
+	 * @param ids the partition keys of the partitions to read.
+	 * @param converter the function converting the <code>ResultSet</code> of each query.
+	 * @return a future holding the converted result of each query.
+	 */
+	private <T> ListenableFuture<List<T>> selectPartitions(String table, List<String> ids, Function<? super ResultSet, ? extends T> converter) {
+		List<Query> queries = new ArrayList<Query>();
+		if ((readStrategy == ReadStrategy.PARALLEL_PARTITIONS && ids.size() > 1) || ids.size() == 1) {
+			String cql = selectCql(table);
+			for (String id : ids) {
+				queries.add(statement(cql, id));
+			}
+		} else {
+			for (List<String> slice : slices(ids)) {
+				queries.add(shapeStatement(selectInCql(table, slice.size()), slice.toArray()));
+			}
+		}
+		return queryExecutor.executeAll(queries, converter);
+	}
+
+	/**
+	 * Splits the provided partition keys in slices of at most <code>maxPartitionsPerQuery</code> keys.
+	 * 
+	 * @param ids the partition keys to split.
+	 * @return the slices of partition keys.
+	 */
+	private List<List<String>> slices(List<String> ids) {
+		int sliceSize = maxPartitionsPerQuery;
+		if (ids.size() <= sliceSize) {
+			return Collections.singletonList(ids);
+		}
+		List<List<String>> slices = new ArrayList<List<String>>();
+		for (int i = 0; i < ids.size(); i += sliceSize) {
+			slices.add(ids.subList(i, Math.min(i + sliceSize, ids.size())));
+		}
+		return slices;
+	}
+
+	/**
+	 * Reads the rows of the 'acls' table belonging to the provided Sids. Since 'sid' is the first clustering column, 
+	 * each Sid restricts the read to a single slice of every partition.
+	 * 
+	 * @param ids the row ids of the objects to read the entries of.
+	 * @param sids the Sids to read the entries of.
+	 * @param converter the function converting the <code>ResultSet</code> of each query.
+	 * @return a future holding the converted result of each query.
+	 */
+	private <T> ListenableFuture<List<T>> selectAclsBySid(List<String> ids, List<Sid> sids, Function<? super ResultSet, ? extends T> converter) {
+		// Principals and authorities with the same name share a slice, and are told apart when converting the rows
+		Set<String> sidNames = new HashSet<String>();
+		for (Sid sid : sids) {
+			if (sid instanceof PrincipalSid) {
+				sidNames.add(((PrincipalSid) sid).getPrincipal());
+			} else if (sid instanceof GrantedAuthoritySid) {
+				sidNames.add(((GrantedAuthoritySid) sid).getGrantedAuthority());
+			}
+		}
+		
+		// IN is only allowed on the last clustering column, so each Sid needs its own query
+		List<Query> queries = new ArrayList<Query>();
+		for (String sidName : sidNames) {
+			if ((readStrategy == ReadStrategy.PARALLEL_PARTITIONS && ids.size() > 1) || ids.size() == 1) {
+				for (String id : ids) {
+					queries.add(statement(SELECT_ACLS_BY_SID, id, sidName));
+				}
+			} else {
+				for (List<String> slice : slices(ids)) {
+					List<Object> values = new ArrayList<Object>(slice);
+					values.add(sidName);
+					queries.add(shapeStatement("SELECT * FROM " + KEYSPACE + "." + ACL_TABLE + " WHERE id IN (" + bindMarkers(slice.size()) + ") AND sid = ?", 
+							values.toArray()));
+				}
+			}
+		}
+		return queryExecutor.executeAll(queries, converter);
+	}
+
+	/**
+	 * Computes the ancestor path of the provided <code>AclObjectIdentity</code> out of its parent and 
+	 * the stored ancestor path of the parent.
+	 * 
+	 * @param aoi the <code>AclObjectIdentity</code> to compute the ancestor path for.
+	 * @return a future holding the ancestors, nearest first. The list is empty if the object has no parent 
+	 * 		or ancestor paths are not enabled.
+	 */
+	private ListenableFuture<List<AclObjectIdentity>> computeAncestorPathAsync(AclObjectIdentity aoi) {
+		if (!ancestorPathsEnabled || aoi.getParentRowId() == null) {
+			return Futures.immediateFuture((List<AclObjectIdentity>) new ArrayList<AclObjectIdentity>());
+		}
+		
+		final AclObjectIdentity parent = new AclObjectIdentity();
+		parent.setId(aoi.getParentObjectId());
+		parent.setObjectClass(aoi.getParentObjectClass());
+		return Futures.transform(findStoredAncestorPathAsync(parent.getRowId()), new Function<List<AclObjectIdentity>, List<AclObjectIdentity>>() {
+
+			public List<AclObjectIdentity> apply(List<AclObjectIdentity> parentAncestors) {
+				List<AclObjectIdentity> ancestors = new ArrayList<AclObjectIdentity>(parentAncestors.size() + 1);
+				ancestors.add(parent);
+				ancestors.addAll(parentAncestors);
+				return ancestors;
+			}
+		});
+	}
+
+	/**
+	 * Reads the stored ancestor path of a single object.
+	 * 
+	 * @param rowId the row id of the object.
+	 * @return a future holding the stored ancestors, nearest first.
+	 */
+	private ListenableFuture<List<AclObjectIdentity>> findStoredAncestorPathAsync(String rowId) {
+		return Futures.transform(session.executeAsync(statement(SELECT_ANCESTORS, rowId)), new Function<ResultSet, List<AclObjectIdentity>>() {
+
+			public List<AclObjectIdentity> apply(ResultSet resultSet) {
+				List<AclObjectIdentity> ancestors = new ArrayList<AclObjectIdentity>();
+				for (Row row : resultSet) {
+					ancestors.add(convertToAclObjectIdentity(row, false));
+				}
+				return ancestors;
+			}
+		});
+	}
+
+	/**
+	 * Rewrites the stored ancestor paths of the provided <code>AclObjectIdentity</code> and all its descendants, 
+	 * after its parent has changed.
+	 * 
+	 * @param aoi the <code>AclObjectIdentity</code> whose parent has changed.
+	 * @return a future that completes when all ancestor paths have been rewritten.
+	 */
+	private ListenableFuture<Void> rebuildAncestorPathsAsync(final AclObjectIdentity aoi) {
+		List<ListenableFuture<List<AclObjectIdentity>>> pathFutures = new ArrayList<ListenableFuture<List<AclObjectIdentity>>>(2);
+		pathFutures.add(computeAncestorPathAsync(aoi));
+		pathFutures.add(findStoredAncestorPathAsync(aoi.getRowId()));
+		
+		return Futures.transform(Futures.allAsList(pathFutures), new AsyncFunction<List<List<AclObjectIdentity>>, Void>() {
+
+			public ListenableFuture<Void> apply(List<List<AclObjectIdentity>> paths) {
+				Map<AclObjectIdentity, List<AclObjectIdentity>> level = new LinkedHashMap<AclObjectIdentity, List<AclObjectIdentity>>();
+				level.put(aoi, paths.get(0));
+				// All descendants have their path shortened or extended by the same number of ancestors
+				int lengthDelta = paths.get(1).size() - paths.get(0).size();
+				return rewriteAncestorPaths(level, lengthDelta, new HashSet<String>());
+			}
+		});
+	}
+
+	/**
+	 * Writes the new ancestor paths of one level of a hierarchy and continues with the children of that level, 
+	 * reading and writing the partitions of a level concurrently. The children are read page by page, like 
+	 * <code>findChildrenOfAclObjectIdentities</code>, so that no query reads a whole children partition.
+	 * 
+	 * @param level the objects of the level mapped to their new ancestor paths.
+	 * @param lengthDelta the difference between the old and the new length of the ancestor paths.
+	 * @param visited the row ids of all objects already rewritten, protecting against cyclic hierarchies.
+	 * @return a future that completes when the paths of the level and all levels below it have been written.
+	 */
+	private ListenableFuture<Void> rewriteAncestorPaths(final Map<AclObjectIdentity, List<AclObjectIdentity>> level, final int lengthDelta, 
+			final Set<String> visited) {
+		if (level.isEmpty()) {
+			return Futures.immediateFuture(null);
+		}
+		
+		List<AclObjectIdentity> nodes = new ArrayList<AclObjectIdentity>(level.keySet());
+		List<Query> writes = new ArrayList<Query>(nodes.size());
+		for (AclObjectIdentity node : nodes) {
+			visited.add(node.getRowId());
+			List<AclObjectIdentity> ancestors = level.get(node);
+			StatementBatch batch = new StatementBatch(false);
+			addAncestorPath(batch, node.getRowId(), ancestors, ancestors.size() + lengthDelta);
+			if (!batch.isEmpty()) {
+				writes.add(batch.toStatement());
+			}
+		}
+		
+		final ListenableFuture<List<ResultSet>> writesFuture = queryExecutor.executeAll(writes);
+		return Futures.transform(findChildrenOfAclObjectIdentitiesAsync(nodes), 
+				new AsyncFunction<Map<AclObjectIdentity, List<AclObjectIdentity>>, Void>() {
+
+			public ListenableFuture<Void> apply(Map<AclObjectIdentity, List<AclObjectIdentity>> children) {
+				final Map<AclObjectIdentity, List<AclObjectIdentity>> nextLevel = new LinkedHashMap<AclObjectIdentity, List<AclObjectIdentity>>();
+				for (Map.Entry<AclObjectIdentity, List<AclObjectIdentity>> entry : children.entrySet()) {
+					AclObjectIdentity node = entry.getKey();
+					List<AclObjectIdentity> childAncestors = new ArrayList<AclObjectIdentity>(level.get(node).size() + 1);
+					childAncestors.add(node);
+					childAncestors.addAll(level.get(node));
+					
+					for (AclObjectIdentity child : entry.getValue()) {
+						if (!visited.contains(child.getRowId())) {
+							nextLevel.put(child, childAncestors);
+						}
+					}
+				}
+				
+				// The next level is only written once the paths of this level have been written
+				return Futures.transform(writesFuture, new AsyncFunction<List<ResultSet>, Void>() {
+
+					public ListenableFuture<Void> apply(List<ResultSet> resultSets) {
+						return rewriteAncestorPaths(nextLevel, lengthDelta, visited);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Adds the statements writing an ancestor path to a batch.
+	 * 
+	 * @param batch the batch to add the statements to.
+	 * @param rowId the row id of the object the path belongs to.
+	 * @param ancestors the ancestors of the object, nearest first.
+	 * @param storedLength the length of the currently stored path. Rows beyond the new path are deleted.
+	 */
+	private void addAncestorPath(StatementBatch batch, String rowId, List<AclObjectIdentity> ancestors, int storedLength) {
+		for (int depth = 0; depth < ancestors.size(); depth++) {
+			AclObjectIdentity ancestor = ancestors.get(depth);
+			batch.add(INSERT_ANCESTOR, rowId, depth, ancestor.getRowId(), ancestor.getId(), ancestor.getObjectClass());
+		}
+		for (int depth = ancestors.size(); depth < storedLength; depth++) {
+			batch.add(DELETE_ANCESTOR, rowId, depth);
+		}
+	}
+
+	/**
+	 * Builds a key identifying a row of the 'permissions' table within its partition.
+	 * 
+	 * @param sid the identifier of the Sid.
+	 * @param sidPrincipal whether the Sid is a principal.
+	 * @param mask the permission mask.
+	 * @return the key of the row.
+	 */
+	private static String permissionKey(String sid, boolean sidPrincipal, int mask) {
+		return sidKey(sid, sidPrincipal) + ":" + mask;
+	}
+
+	/**
+	 * @param sid the identifier of the Sid.
+	 * @param sidPrincipal whether the Sid is a principal.
+	 * @return a key telling apart principals and authorities with the same identifier.
+	 */
+	static String sidKey(String sid, boolean sidPrincipal) {
+		return (sidPrincipal ? "P:" : "A:") + sid;
+	}
+
+	/**
+	 * @param sid the {@link Sid} to build the key for.
+	 * @return the key of the {@link Sid}, or <code>null</code> if the type of the {@link Sid} is not supported.
+	 */
+	private static String sidKey(Sid sid) {
+		if (sid instanceof PrincipalSid) {
+			return sidKey(((PrincipalSid) sid).getPrincipal(), true);
+		} else if (sid instanceof GrantedAuthoritySid) {
+			return sidKey(((GrantedAuthoritySid) sid).getGrantedAuthority(), false);
+		}
+		return null;
+	}
+
+	/**
+	 * Converts rows of the 'acls_by_sid' table to a page of {@link AclObjectEntries}.
+	 * 
+	 * @param sidKey the key of the Sid the rows belong to.
+	 * @param rows the rows, ordered by object and entry order.
+	 * @param hasMore whether more rows may follow the provided ones.
+	 * @return the page of {@link AclObjectEntries}.
+	 */
+	private static AclPage<AclObjectEntries> convertToAclPage(String sidKey, List<Row> rows, boolean hasMore) {
+		String sid = sidKey.substring(2);
+		boolean sidPrincipal = sidKey.equals(sidKey(sid, true));
+		List<AclObjectEntries> content = new ArrayList<AclObjectEntries>();
+		String lastAoiId = null;
+		List<AclEntry> entries = null;
+		for (Row row : rows) {
+			String aoiId = row.getString("aoiId");
+			if (!aoiId.equals(lastAoiId)) {
+				AclObjectIdentity aoi = new AclObjectIdentity();
+				aoi.setId(row.getString("objId"));
+				aoi.setObjectClass(row.getString("objClass"));
+				entries = new ArrayList<AclEntry>();
+				content.add(new AclObjectEntries(aoi, entries));
+				lastAoiId = aoiId;
+			}
+			AclEntry entry = new AclEntry();
+			entry.setSid(sid);
+			entry.setSidPrincipal(sidPrincipal);
+			entry.setOrder(row.getInt("aclOrder"));
+			entry.setMask(row.getInt("mask"));
+			entry.setGranting(row.getBool("isGranting"));
+			entry.setAuditSuccess(row.getBool("isAuditSuccess"));
+			entry.setAuditFailure(row.getBool("isAuditFailure"));
+			entry.setId(aoiId + ":" + sid + ":" + entry.getOrder());
+			entries.add(entry);
+		}
+		return new AclPage<AclObjectEntries>(content, hasMore ? lastAoiId : null);
+	}
+
+	/**
+	 * Creates an {@link EffectivePermission} out of a row of the 'permissions' table.
+	 * 
+	 * @param row the row to convert.
+	 * @return the {@link EffectivePermission}.
+	 */
+	private static EffectivePermission convertToEffectivePermission(Row row) {
+		EffectivePermission permission = new EffectivePermission();
+		permission.setSid(row.getString("sid"));
+		permission.setSidPrincipal(row.getBool("isSidPrincipal"));
+		permission.setMask(row.getInt("mask"));
+		permission.setDepth(row.getInt("depth"));
+		permission.setGranting(row.getBool("isGranting"));
+		permission.setAuditSuccess(row.getBool("isAuditSuccess"));
+		permission.setAuditFailure(row.getBool("isAuditFailure"));
+		return permission;
+	}
+
+	/**
+	 * Merges the converted results of the queries on the 'aois' and 'acls' tables to the map returned by <code>findAcls</code>.
+	 * 
+	 * @param aoisResults the <code>AclObjectIdentity</code> objects returned by each 'aois' query.
+	 * @param entriesResults the <code>AclEntry</code> objects returned by each 'acls' query, keyed on the row id of their object.
+	 * @return a map with a set of <code>AclEntry</code> instances for each <code>AclObjectIdentity</code> found.
+	 */
+	static Map<AclObjectIdentity, Set<AclEntry>> convertToAcls(List<List<AclObjectIdentity>> aoisResults, 
+			List<Map<String, List<AclEntry>>> entriesResults) {
+		Map<AclObjectIdentity, Set<AclEntry>> resultMap = new HashMap<AclObjectIdentity, Set<AclEntry>>();		
+		// Index of the entry sets on the row id, so the entries of each object find their set with a single lookup
+		Map<String, Set<AclEntry>> entriesByRowId = new HashMap<String, Set<AclEntry>>();
+
+		for (List<AclObjectIdentity> aois : aoisResults) {
+			for (AclObjectIdentity aoi : aois) {
+				Set<AclEntry> aclEntries = new TreeSet<AclEntry>(ORDER_COMPARATOR);
+				resultMap.put(aoi, aclEntries);
+				entriesByRowId.put(aoi.getRowId(), aclEntries);
+			}
+		}
+		
+		for (Map<String, List<AclEntry>> entries : entriesResults) {
+			for (Map.Entry<String, List<AclEntry>> entry : entries.entrySet()) {
+				Set<AclEntry> aclEntries = entriesByRowId.get(entry.getKey());
+				// Entries of an object identity that does not exist are skipped
+				if (aclEntries != null) {
+					aclEntries.addAll(entry.getValue());
+				}
+			}
+		}
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("END findAcls: objectIdentities: " + resultMap.keySet() + ", aclEntries: " + resultMap.values());
+		}
+		return resultMap;
+	}
+
+	/**
+	 * @return whether statements are prepared once and then executed by binding values to them, 
+	 * 		instead of sending the full CQL text with every request.
+	 */
+	public boolean isUsePreparedStatements() {
+		return usePreparedStatements;
+	}
+
+	/**
+	 * Sets whether statements are prepared once and then executed by binding values to them. 
+	 * Statements are prepared in the background on first use, and sent unprepared until then, so that no 
+	 * thread ever blocks on a prepare request. Prepared statements are re-prepared by the driver on hosts 
+	 * that come back up. Disabling this sends the full CQL text with every request. Statements whose text depends 
+	 * on the request, such as batches, <code>IN</code> queries of arbitrary size and caller-provided limits, are 
+	 * prepared for each shape, keeping the 500 most recently used shapes. Batches of more than 20 statements 
+	 * are always sent unprepared. Defaults to <code>true</code>.
+	 * 
+	 * @param usePreparedStatements whether prepared statements should be used.
+	 */
+	public void setUsePreparedStatements(boolean usePreparedStatements) {
+		this.usePreparedStatements = usePreparedStatements;
+	}
+
+	/**
+	 * @return the strategy used by <code>findAcls</code> to read the rows of multiple objects.
+	 */
+	public ReadStrategy getReadStrategy() {
+		return readStrategy;
+	}
+
+	/**
+	 * Sets the strategy used by <code>findAcls</code> to read the rows of multiple objects. 
+	 * Defaults to {@link ReadStrategy#IN_QUERY}.
+	 * 
+	 * @param readStrategy the {@link ReadStrategy} to use.
+	 */
+	public void setReadStrategy(ReadStrategy readStrategy) {
+		Assert.notNull(readStrategy, "ReadStrategy required");
+		this.readStrategy = readStrategy;
+	}
+
+	/**
+	 * @return whether the ancestor path of each object is stored in the 'ancestors' table.
+	 */
+	public boolean isAncestorPathsEnabled() {
+		return ancestorPathsEnabled;
+	}
+
+	/**
+	 * Sets whether the full ancestor path of each object is stored in the 'ancestors' table. The paths are 
+	 * maintained by <code>saveAcl</code>, <code>updateAcl</code> (including all descendants when the parent changes) 
+	 * and <code>deleteAcls</code>, and allow <code>findAclObjectIdentityAncestors</code> to return all ancestors 
+	 * of an object with a single read. Objects saved while disabled have no stored path until their parent is 
+	 * updated. Defaults to <code>false</code>.
+	 * 
+	 * @param ancestorPathsEnabled whether ancestor paths should be stored.
+	 */
+	public void setAncestorPathsEnabled(boolean ancestorPathsEnabled) {
+		this.ancestorPathsEnabled = ancestorPathsEnabled;
+	}
+
+	/**
+	 * @return whether lightweight transactions are used to guard writes.
+	 */
+	public boolean isLightweightTransactionsEnabled() {
+		return lightweightTransactionsEnabled;
+	}
+
+	/**
+	 * Sets whether writes are guarded with lightweight transactions instead of a separate read. When enabled, 
+	 * <code>saveAcl</code> inserts the 'aois' row with <code>IF NOT EXISTS</code>, which saves a round trip and 
+	 * prevents concurrent calls from saving the same object identity twice. <code>updateAcl</code> given the previous 
+	 * state of an object updates the 'aois' row only if its version is unchanged, and then writes the entry changes 
+	 * without reading the persisted state. <code>updateAcl</code> without a previous state, or with an outdated one, 
+	 * reads the persisted state and updates the 'aois' row only if its version is still the one read, starting over 
+	 * if it is not, and fails with an {@link AclConcurrentModificationException} after 10 attempts. The version is 
+	 * stored in the 'version' column of the 'aois' table, which is only written while this is enabled. 
+	 * Requires Cassandra 2.0 or later. Defaults to <code>false</code>.
+	 * 
+	 * @param lightweightTransactionsEnabled whether lightweight transactions should be used.
+	 */
+	public void setLightweightTransactionsEnabled(boolean lightweightTransactionsEnabled) {
+		this.lightweightTransactionsEnabled = lightweightTransactionsEnabled;
+	}
+
+	/**
+	 * @return whether the Sid index is maintained.
+	 */
+	public boolean isSidIndexEnabled() {
+		return sidIndexEnabled;
+	}
+
+	/**
+	 * Sets whether the entries of every object are also stored in the 'acls_by_sid' table, partitioned by Sid, so that 
+	 * the objects a Sid has entries on can be paged through with <code>findAclEntriesBySid</code>. The index is 
+	 * maintained by <code>updateAcl</code> and <code>deleteAcls</code>, the latter reading the entries of the deleted 
+	 * objects first, and its rows are written in the same logged batch as the rows of the entry they index. Updates 
+	 * changing many entries are written with several logged batches of at most 100 statements. Entries written 
+	 * while the index was disabled are not indexed. Defaults to <code>false</code>.
+	 * 
+	 * @param sidIndexEnabled whether the Sid index should be maintained.
+	 */
+	public void setSidIndexEnabled(boolean sidIndexEnabled) {
+		this.sidIndexEnabled = sidIndexEnabled;
+	}
+
+	/**
+	 * @return the maximum number of children rows read with a single query.
+	 */
+	public int getChildrenPageSize() {
+		return childrenPageSize;
+	}
+
+	/**
+	 * Sets the maximum number of children rows read with a single query when loading all children of an object. 
+	 * Objects with more children are read in several consecutive queries, so that large partitions of the 'children' 
+	 * table are never returned in a single response. Defaults to 1000.
+	 * 
+	 * @param childrenPageSize the maximum number of children rows per query.
+	 */
+	public void setChildrenPageSize(int childrenPageSize) {
+		Assert.isTrue(childrenPageSize > 0, "The children page size must be positive");
+		this.childrenPageSize = childrenPageSize;
+	}
+
+	/**
+	 * @return the maximum number of partitions read with a single <code>IN</code> query.
+	 */
+	public int getMaxPartitionsPerQuery() {
+		return maxPartitionsPerQuery;
+	}
+
+	/**
+	 * Sets the maximum number of partitions read with a single <code>IN</code> query when using 
+	 * {@link ReadStrategy#IN_QUERY}. Larger lookups are split in several queries, sent through the same bounded 
+	 * executor as single-partition queries, and the rows of each query are converted as soon as it returns. This 
+	 * bounds the size of each response and the number of raw rows held at once. Defaults to 100.
+	 * 
+	 * @param maxPartitionsPerQuery the maximum number of partitions per query.
+	 */
+	public void setMaxPartitionsPerQuery(int maxPartitionsPerQuery) {
+		Assert.isTrue(maxPartitionsPerQuery > 0, "The maximum number of partitions per query must be positive");
+		this.maxPartitionsPerQuery = maxPartitionsPerQuery;
+	}
+
+	/**
+	 * @return the maximum number of single-partition queries a call may have in flight at the same time.
+	 */
+	public int getMaxConcurrentReads() {
+		return queryExecutor.getMaxInFlight();
+	}
+
+	/**
+	 * Sets the maximum number of single-partition queries a call may have in flight at the same time 
+	 * for each table, e.g. when using {@link ReadStrategy#PARALLEL_PARTITIONS} or deleting many objects. Defaults to 32.
+	 * 
+	 * @param maxConcurrentReads the maximum number of queries in flight per call.
+	 */
+	public void setMaxConcurrentReads(int maxConcurrentReads) {
+		this.queryExecutor = new ThrottledQueryExecutor(session, maxConcurrentReads);
+	}
 
 	/**
-	 * Constructs a new <code>CassandraAclRepositoryImpl</code>.
-	 * 
-	 * @param session the <code>Session</code> to use for connectivity with Cassandra.
+	 * Removes all statements from the statement registry, so that they are prepared again on next use.
+	 * Should be called after the schema has been changed outside this repository.
 	 */
-	public CassandraAclRepositoryImpl(Session session) {
-		this.session = session;
+	public void clearPreparedStatements() {
+		preparedStatements.clear();
+		preparedShapes.clear();
 	}
-	
+
 	/**
-	 * Constructs a new <code>CassandraAclRepositoryImpl</code> and optionally creates 
-	 * the Cassandra keyspace and schema for storing ACLs.
-	 * 
-	 * @param session the <code>Session</code> to use for connectivity with Cassandra.
-	 * @param initSchema whether the keyspace and schema for storing ACLs should be created.
-	 * @param replicationStrategy the replication strategy to use when creating the keyspace.
-	 * @param replicationFactor the replication factor to use when creating the keyspace.
+	 * @return the number of statements in the statement registry.
 	 */
-	public CassandraAclRepositoryImpl(Session session, boolean initSchema, String replicationStrategy, int replicationFactor) {
-		this(session);
-		if (initSchema) {
-			this.replicationFactor = replicationFactor;
-			this.replicationStrategy = replicationStrategy;
-			
-			createKeyspace();
-			createAoisTable();
-			createChilrenTable();
-			createAclsTable();
-		}
+	int getPreparedStatementCount() {
+		return preparedStatements.size();
 	}
-	
+
 	/**
-	 * Constructs a new <code>CassandraAclRepositoryImpl</code> and optionally creates 
-	 * the Cassandra keyspace and schema for storing ACLs.
+	 * @return the number of statements kept prepared for shapes depending on the request.
+	 */
+	int getPreparedShapeCount() {
+		return preparedShapes.size();
+	}
+
+	/**
+	 * Waits for the statements handed to the prepare executor to be prepared.
 	 * 
-	 * @param session the <code>Session</code> to use for connectivity with Cassandra.
-	 * @param initSchema whether the keyspace and schema for storing ACLs should be created.
+	 * @param timeout the maximum time to wait.
+	 * @param unit the unit of the timeout.
+	 * @return whether all statements were prepared before the timeout.
 	 */
-	public CassandraAclRepositoryImpl(Session session, boolean initSchema) {
-		this(session);
-		if (initSchema) {
-			createKeyspace();
-			createAoisTable();
-			createChilrenTable();
-			createAclsTable();
+	boolean awaitPendingStatements(long timeout, TimeUnit unit) {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!pendingStatements.isEmpty()) {
+			if (System.nanoTime() >= deadline) {
+				return false;
+			}
+			Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
 		}
+		return true;
 	}
 
-	/* (non-Javadoc)
-	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAcls(java.util.List)
+	/**
+	 * Waits for the provided future to complete and returns its result. Failures are rethrown 
+	 * as the exception that caused them.
+	 * 
+	 * @param future the future to wait for.
+	 * @return the result of the future.
 	 */
-	public Map<AclObjectIdentity, Set<AclEntry>> findAcls(List<AclObjectIdentity> objectIdsToLookup) {
-		assertAclObjectIdentityList(objectIdsToLookup);
-
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("BEGIN findAcls: objectIdentities: " + objectIdsToLookup);
+	static <T> T getUninterruptibly(ListenableFuture<T> future) {
+		try {
+			return Uninterruptibles.getUninterruptibly(future);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
 		}
-		Map<AclObjectIdentity, Set<AclEntry>> resultMap = new HashMap<AclObjectIdentity, Set<AclEntry>>();		
+	}
 
-		List<String> ids = new ArrayList<String>();
-		for (AclObjectIdentity entry : objectIdsToLookup) {
-			ids.add(entry.getRowId());
-		}
-		
-		ResultSet resultSet = session.execute(QueryBuilder.select().all().from(KEYSPACE, AOI_TABLE).where(QueryBuilder.in("id", ids.toArray())));
-		for (Row row : resultSet.all()) {
-			resultMap.put(convertToAclObjectIdentity(row, true), new TreeSet<AclEntry>(new Comparator<AclEntry>() {
+	/**
+	 * Converts the future of a write operation to a future without result.
+	 * 
+	 * @param future the future of the write operation.
+	 * @param operation the name of the operation, used for logging.
+	 * @return a future that completes when the write operation has completed.
+	 */
+	private static <T> ListenableFuture<Void> toVoid(ListenableFuture<T> future, final String operation) {
+		return Futures.transform(future, new Function<T, Void>() {
 
-				public int compare(AclEntry o1, AclEntry o2) {
-					return new Integer(o1.getOrder()).compareTo(o2.getOrder());
-				}
-			}));
-		}
-		
-		resultSet = session.execute(QueryBuilder.select().all().from(KEYSPACE, ACL_TABLE).where(QueryBuilder.in("id", ids.toArray())));
-		for (Row row : resultSet.all()) {
-			String aoiId = row.getString("id");
-			
-			AclEntry aclEntry = new AclEntry();
-			aclEntry.setAuditFailure(row.getBool("isAuditFailure"));
-			aclEntry.setAuditSuccess(row.getBool("isAuditSuccess"));
-			aclEntry.setGranting(row.getBool("isGranting"));
-			aclEntry.setMask(row.getInt("mask"));
-			aclEntry.setOrder(row.getInt("aclOrder"));
-			aclEntry.setSid(row.getString("sid"));
-			aclEntry.setSidPrincipal(row.getBool("isSidPrincipal"));			
-			aclEntry.setId(aoiId + ":" + aclEntry.getSid() + ":" + aclEntry.getOrder());
-			
-			for (Entry<AclObjectIdentity, Set<AclEntry>> entry : resultMap.entrySet()) {
-				if (entry.getKey().getRowId().equals(aoiId)) {
-					entry.getValue().add(aclEntry);
-					break;
+			public Void apply(T result) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("END " + operation);
 				}
+				return null;
 			}
-		}
+		});
+	}
 
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("END findAcls: objectIdentities: " + resultMap.keySet() + ", aclEntries: " + resultMap.values());
+	/**
+	 * Creates the <code>Query</code> to execute for the provided CQL and values. Depending on the 
+	 * configuration the values are either bound to a prepared statement or inlined in the CQL text.
+	 * 
+	 * @param cql the CQL text of the statement, using '?' as bind marker.
+	 * @param values the values to bind, in the order of the bind markers.
+	 * @return the <code>Query</code> to execute.
+	 */
+	private Query statement(String cql, Object... values) {
+		if (usePreparedStatements) {
+			PreparedStatement prepared = prepare(cql);
+			if (prepared != null) {
+				return prepared.bind(values);
+			}
 		}
-		return resultMap;
+		return unpreparedStatement(cql, values);
 	}
 
-	/* (non-Javadoc)
-	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAclObjectIdentity(org.springframework.security.acls.cassandra.model.AclObjectIdentity)
+	/**
+	 * Creates the <code>Query</code> to execute for a statement whose text depends on the request, such as an 
+	 * <code>IN</code> list or a batch. Depending on the configuration the values are either bound to a statement 
+	 * prepared for this shape or inlined in the CQL text. Only the most recently used shapes are kept prepared.
+	 * 
+	 * @param cql the CQL text of the statement, using '?' as bind marker.
+	 * @param values the values to bind, in the order of the bind markers.
+	 * @return the <code>Query</code> to execute.
 	 */
-	public AclObjectIdentity findAclObjectIdentity(AclObjectIdentity objectId) {
-		assertAclObjectIdentity(objectId);
-
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("BEGIN findAclObjectIdentity: objectIdentity: " + objectId);
+	private Query shapeStatement(String cql, Object... values) {
+		if (usePreparedStatements) {
+			PreparedStatement prepared = preparedShapes.get(cql);
+			if (prepared != null) {
+				return prepared.bind(values);
+			}
+			prepareAsync(cql, true);
 		}
+		return unpreparedStatement(cql, values);
+	}
 
-		Row row = session.execute(QueryBuilder.select().all().from(KEYSPACE, AOI_TABLE).where(QueryBuilder.eq("id", objectId.getRowId()))).one();
-		AclObjectIdentity objectIdentity = convertToAclObjectIdentity(row, true);
+	/**
+	 * Creates a <code>Query</code> with the provided values inlined in the CQL text.
+	 * 
+	 * @param cql the CQL text of the statement, using '?' as bind marker.
+	 * @param values the values to inline, in the order of the bind markers.
+	 * @return the <code>Query</code> to execute.
+	 */
+	private Query unpreparedStatement(String cql, Object... values) {
+		return new SimpleStatement(inlineValues(cql, values));
+	}
 
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("END findAclObjectIdentity: objectIdentity: " + objectIdentity);
+	/**
+	 * Retrieves the <code>PreparedStatement</code> for the provided CQL from the statement registry. 
+	 * Statements that have not been used before are handed to the prepare executor, and are sent 
+	 * unprepared until they have been prepared. This method never blocks, so it is safe to call from 
+	 * the driver threads completing asynchronous calls.
+	 * 
+	 * @param cql the CQL text of the statement.
+	 * @return the <code>PreparedStatement</code> for the CQL, or <code>null</code> if it is not prepared yet.
+	 */
+	private PreparedStatement prepare(String cql) {
+		PreparedStatement prepared = preparedStatements.get(cql);
+		if (prepared == null) {
+			prepareAsync(cql, false);
 		}
-		return objectIdentity;
+		return prepared;
 	}
 
-	/* (non-Javadoc)
-	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#findAclObjectIdentityChildren(org.springframework.security.acls.cassandra.model.AclObjectIdentity)
+	/**
+	 * Prepares a statement with the prepare executor and adds it to the statement registry, 
+	 * unless it is already being prepared or the registry is full.
+	 * 
+	 * @param cql the CQL text of the statement.
+	 * @param shape whether the text of the statement depends on the request.
 	 */
-	public List<AclObjectIdentity> findAclObjectIdentityChildren(AclObjectIdentity objectId) {
-		assertAclObjectIdentity(objectId);
-
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("BEGIN findAclObjectIdentityChildren: objectIdentity: " + objectId);
+	private void prepareAsync(final String cql, final boolean shape) {
+		if (!shape && preparedStatements.size() >= MAX_PREPARED_STATEMENTS) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Statement registry is full, sending statement unprepared: " + cql);
+			}
+			return;
 		}
-		List<AclObjectIdentity> result = new ArrayList<AclObjectIdentity>();
-
-		ResultSet resultSet = session.execute(QueryBuilder.select().all().from(KEYSPACE, CHILDREN_TABLE)
-				.where(QueryBuilder.eq("id", objectId.getRowId())));
-		for (Row row : resultSet.all()) {
-			result.add(convertToAclObjectIdentity(row, false));
+		if (pendingStatements.putIfAbsent(cql, Boolean.TRUE) != null) {
+			return;
 		}
+		PREPARE_EXECUTOR.execute(new Runnable() {
 
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("END findAclObjectIdentityChildren: children: " + result);
-		}
-		return result;
+			public void run() {
+				try {
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("Preparing statement: " + cql);
+					}
+					PreparedStatement prepared = session.prepare(cql);
+					if (shape) {
+						preparedShapes.intern(cql, prepared);
+					} else {
+						preparedStatements.putIfAbsent(cql, prepared);
+					}
+				} catch (RuntimeException e) {
+					LOG.warn("Could not prepare statement, sending it unprepared: " + cql, e);
+				} finally {
+					pendingStatements.remove(cql);
+				}
+			}
+		});
 	}
 
-	/* (non-Javadoc)
-	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#deleteAcls(java.util.List)
+	/**
+	 * @return the executor preparing statements, running a single daemon thread that stops when idle.
 	 */
-	public void deleteAcls(List<AclObjectIdentity> objectIdsToDelete) {
-		assertAclObjectIdentityList(objectIdsToDelete);
+	private static ThreadPoolExecutor createPrepareExecutor() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), 
+				new ThreadFactory() {
 
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("BEGIN deleteAcls: objectIdsToDelete: " + objectIdsToDelete);
-		}
-
-		List<String> ids = new ArrayList<String>();
-		for (AclObjectIdentity entry : objectIdsToDelete) {
-			ids.add(entry.getRowId());
-		}
-		Batch batch = QueryBuilder.batch();
-		batch.add(QueryBuilder.delete().all().from(KEYSPACE, AOI_TABLE).where(QueryBuilder.in("id", ids.toArray())));
-		batch.add(QueryBuilder.delete().all().from(KEYSPACE, CHILDREN_TABLE).where(QueryBuilder.in("id", ids.toArray())));
-		session.execute(batch);
-		
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("END deleteAcls");
-		}
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "cassandra-acl-prepare");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
 	}
 
-	/* (non-Javadoc)
-	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#saveAcl(org.springframework.security.acls.cassandra.model.AclObjectIdentity)
+	/**
+	 * Replaces the bind markers of the provided CQL with the provided values as CQL literals.
+	 * 
+	 * @param cql the CQL text of the statement, using '?' as bind marker.
+	 * @param values the values to inline, in the order of the bind markers.
+	 * @return the CQL text with all values inlined.
 	 */
-	public void saveAcl(AclObjectIdentity aoi) throws AclAlreadyExistsException {
-		assertAclObjectIdentity(aoi);
-
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("BEGIN saveAcl: aclObjectIdentity: " + aoi);
+	private static String inlineValues(String cql, Object[] values) {
+		StringBuilder sb = new StringBuilder(cql.length() + values.length * 16);
+		int valueIndex = 0;
+		for (int i = 0; i < cql.length(); i++) {
+			char c = cql.charAt(i);
+			if (c == '?') {
+				Assert.isTrue(valueIndex < values.length, "Not enough values for statement: " + cql);
+				Object value = values[valueIndex++];
+				if (value == null) {
+					sb.append("null");
+				} else if (value instanceof String) {
+					sb.append('\'').append(((String) value).replace("'", "''")).append('\'');
+				} else {
+					sb.append(value);
+				}
+			} else {
+				sb.append(c);
+			}
 		}
+		Assert.isTrue(valueIndex == values.length, "Too many values for statement: " + cql);
+		return sb.toString();
+	}
 
-		// Check this object identity hasn't already been persisted
-		if (findAclObjectIdentity(aoi) != null) {
-			throw new AclAlreadyExistsException("Object identity '" + aoi + "' already exists");
-		}
-		
-		Batch batch = QueryBuilder.batch();
-		batch.add(QueryBuilder.insertInto(KEYSPACE, AOI_TABLE).values(AOI_KEYS, new Object[] { aoi.getRowId(), aoi.getId(), aoi.getObjectClass(), aoi.isEntriesInheriting(),
-				aoi.getOwnerId(), aoi.isOwnerPrincipal(), aoi.getParentObjectId(), aoi.getParentObjectClass() }));
-		
-		if (aoi.getParentRowId() != null) {
-			batch.add(QueryBuilder.insertInto(KEYSPACE, CHILDREN_TABLE).values(CHILD_KEYS, new Object[] { aoi.getParentRowId(), aoi.getRowId(), aoi.getId(), aoi.getObjectClass() }));
-		}
-		session.execute(batch);
-		
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("END saveAcl");
+	/**
+	 * Builds the CQL to insert a row with the provided columns.
+	 * 
+	 * @param table the table to insert the row in.
+	 * @param keys the column names of the row.
+	 * @return the CQL text with a bind marker for each column.
+	 */
+	private static String insertCql(String table, String[] keys) {
+		StringBuilder sb = new StringBuilder("INSERT INTO ").append(KEYSPACE).append('.').append(table).append(" (");
+		for (int i = 0; i < keys.length; i++) {
+			sb.append(i == 0 ? "" : ", ").append(keys[i]);
 		}
+		sb.append(") VALUES (").append(bindMarkers(keys.length)).append(')');
+		return sb.toString();
 	}
 
-	/* (non-Javadoc)
-	 * @see org.springframework.security.acls.cassandra.repository.CassandraAclRepository#updateAcl(org.springframework.security.acls.cassandra.model.AclObjectIdentity, java.util.List)
+	/**
+	 * Builds the CQL to select all rows of a single partition of the provided table.
+	 * 
+	 * @param table the table to select the rows from.
+	 * @return the CQL text with a bind marker for the partition key.
 	 */
-	public void updateAcl(AclObjectIdentity aoi, List<AclEntry> entries) throws AclNotFoundException {
-		assertAclObjectIdentity(aoi);
+	private static String selectCql(String table) {
+		return "SELECT * FROM " + KEYSPACE + "." + table + " WHERE id = ?";
+	}
 
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("BEGIN updateAcl: aclObjectIdentity: " + aoi + ", entries: " + entries);
-		}
+	/**
+	 * Builds the CQL to select all rows of the provided table for a number of partitions.
+	 * 
+	 * @param table the table to select the rows from.
+	 * @param size the number of partition keys that will be bound.
+	 * @return the CQL text with a bind marker for each partition key.
+	 */
+	private static String selectInCql(String table, int size) {
+		return "SELECT * FROM " + KEYSPACE + "." + table + " WHERE id IN (" + bindMarkers(size) + ")";
+	}
 
-		// Check this object identity is already persisted
-		AclObjectIdentity persistedAoi = findAclObjectIdentity(aoi);
-		if (persistedAoi == null) {
-			throw new AclNotFoundException("Object identity '" + aoi + "' does not exist");
-		}
-		
-		// Update AOI & delete existing ACLs
-		Batch batch = QueryBuilder.batch();
-		batch.add(QueryBuilder.insertInto(KEYSPACE, AOI_TABLE).values(AOI_KEYS, new Object[] { aoi.getRowId(), aoi.getId(), aoi.getObjectClass(), aoi.isEntriesInheriting(),
-				aoi.getOwnerId(), aoi.isOwnerPrincipal(), aoi.getParentObjectId(), aoi.getParentObjectClass() }));
-		batch.add(QueryBuilder.delete().all().from(KEYSPACE, ACL_TABLE).where(QueryBuilder.eq("id", aoi.getRowId())));
-	
-		// Check if parent is different and delete from children table
-		boolean parentChanged = false;
-		if (!(persistedAoi.getParentRowId() == null ? aoi.getParentRowId() == null : persistedAoi.getParentRowId().equals(aoi.getParentRowId()))) {
-			parentChanged = true;
-			
-			if (persistedAoi.getParentRowId() != null) {
-				batch.add(QueryBuilder.delete().all().from(KEYSPACE, CHILDREN_TABLE).where(QueryBuilder.eq("id", persistedAoi.getParentRowId())).and(QueryBuilder.eq("childId", aoi.getRowId())));
-			}			
-		}
-		session.execute(batch);
-		
-		// Update ACLs & children table	
-		batch = QueryBuilder.batch();
-		boolean executeBatch = false;
-		
-		if (entries != null && !entries.isEmpty()) {
-			for (AclEntry entry : entries) {
-				batch.add(QueryBuilder.insertInto(KEYSPACE, ACL_TABLE).values(ACL_KEYS, new Object[] { aoi.getRowId(), entry.getOrder(), entry.getSid(), entry.getMask(), entry.isSidPrincipal(),
-						entry.isGranting(), entry.isAuditSuccess(), entry.isAuditFailure() }));
-			}
-			executeBatch = true;
-		}		
-		if (parentChanged) {
-			if (aoi.getParentRowId() != null) {
-				batch.add(QueryBuilder.insertInto(KEYSPACE, CHILDREN_TABLE).values(CHILD_KEYS, new Object[] { aoi.getParentRowId(), aoi.getRowId(), aoi.getId(), aoi.getObjectClass() }));
-			}
-			executeBatch = true;
-		}
-		if (executeBatch) {
-			session.execute(batch);
-		}		
+	/**
+	 * Builds the CQL to delete all rows of a single partition of the provided table.
+	 * 
+	 * @param table the table to delete the rows from.
+	 * @return the CQL text with a bind marker for the partition key.
+	 */
+	private static String deleteCql(String table) {
+		return "DELETE FROM " + KEYSPACE + "." + table + " WHERE id = ?";
+	}
 
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("END updateAcl");
+	/**
+	 * @param size the number of bind markers.
+	 * @return a comma separated list of bind markers.
+	 */
+	private static String bindMarkers(int size) {
+		StringBuilder sb = new StringBuilder(size * 3);
+		for (int i = 0; i < size; i++) {
+			sb.append(i == 0 ? "?" : ", ?");
 		}
+		return sb.toString();
 	}
 
 	/**
@@ -361,15 +2192,43 @@ public class CassandraAclRepositoryImpl implements CassandraAclRepository {
 				result.setOwnerPrincipal(row.getBool("isOwnerPrincipal"));
 				result.setParentObjectClass(row.getString("parentObjClass"));
 				result.setParentObjectId(row.getString("parentObjId"));
+				// Tables created before versioning was introduced have no version column, 
+				// and records written without lightweight transactions have no version
+				if (row.getColumnDefinitions().contains("version")) {
+					result.setVersion(row.getLong("version"));
+				}
 			}			
 		}		
 		return result;
 	}
 	
 	/**
-	 * Creates the schema for the table holding <code>AclObjectIdentity</code> representations.
+	 * Converts a row of the 'acls' table to an <code>AclEntry</code>.
+	 * 
+	 * @param row the row to convert.
+	 * @param aoiId the identifier of the object the entry belongs to, in the form 'objectClass:objectId'.
+	 * @return the <code>AclEntry</code>.
+	 */
+	private AclEntry convertToAclEntry(Row row, String aoiId) {
+		AclEntry aclEntry = new AclEntry();
+		aclEntry.setAuditFailure(row.getBool("isAuditFailure"));
+		aclEntry.setAuditSuccess(row.getBool("isAuditSuccess"));
+		aclEntry.setGranting(row.getBool("isGranting"));
+		aclEntry.setMask(row.getInt("mask"));
+		aclEntry.setOrder(row.getInt("aclOrder"));
+		aclEntry.setSid(row.getString("sid"));
+		aclEntry.setSidPrincipal(row.getBool("isSidPrincipal"));			
+		aclEntry.setId(aoiId + ":" + aclEntry.getSid() + ":" + aclEntry.getOrder());
+		return aclEntry;
+	}
+
+	/**
+	 * Creates the schema for the table holding <code>AclObjectIdentity</code> representations. The 'version' column is 
+	 * only written with lightweight transactions enabled, so tables created by earlier versions need it to be added with 
+	 * <code>ALTER TABLE aois ADD version bigint</code> before enabling them.
 	 */
 	public void createAoisTable() {
+		clearPreparedStatements();
 		try {
 			session.execute("CREATE TABLE " + KEYSPACE + ".aois (" 
 					+ "id varchar PRIMARY KEY," 
@@ -379,7 +2238,8 @@ public class CassandraAclRepositoryImpl implements CassandraAclRepository {
 					+ "owner varchar,"
 					+ "isOwnerPrincipal boolean," 
 					+ "parentObjId varchar,"
-					+ "parentObjClass varchar"
+					+ "parentObjClass varchar,"
+					+ "version bigint"
 					+ ");");
 		} catch (AlreadyExistsException e) {
 			LOG.warn(e);
@@ -390,6 +2250,7 @@ public class CassandraAclRepositoryImpl implements CassandraAclRepository {
 	 * Creates the schema for the table holding <code>AclObjectIdentity</code> children.
 	 */
 	public void createChilrenTable() {
+		clearPreparedStatements();
 		try {
 			session.execute("CREATE TABLE " + KEYSPACE + ".children (" 
 					+ "id varchar," 
@@ -407,6 +2268,7 @@ public class CassandraAclRepositoryImpl implements CassandraAclRepository {
 	 * Creates the schema for the table holding <code>AclEntry</code> representations.
 	 */
 	public void createAclsTable() {
+		clearPreparedStatements();
 		try {
 			session.execute("CREATE TABLE " + KEYSPACE + ".acls (" 
 					+ "id varchar," 					
@@ -424,6 +2286,70 @@ public class CassandraAclRepositoryImpl implements CassandraAclRepository {
 		}
 	}
 
+	/**
+	 * Creates the schema for the table holding the ancestor paths of <code>AclObjectIdentity</code> objects.
+	 */
+	public void createAncestorsTable() {
+		clearPreparedStatements();
+		try {
+			session.execute("CREATE TABLE " + KEYSPACE + ".ancestors (" 
+					+ "id varchar," 
+					+ "depth int,"
+					+ "ancestorId varchar,"
+					+ "objId varchar,"
+					+ "objClass varchar,"
+					+ "PRIMARY KEY (id, depth)"
+					+ ");");
+		} catch (AlreadyExistsException e) {
+			LOG.warn(e);
+		}
+	}
+
+	/**
+	 * Creates the schema for the table holding the effective permissions of domain objects.
+	 */
+	public void createPermissionsTable() {
+		clearPreparedStatements();
+		try {
+			session.execute("CREATE TABLE " + KEYSPACE + ".permissions (" 
+					+ "id varchar," 
+					+ "sid varchar,"
+					+ "isSidPrincipal boolean,"
+					+ "mask int,"
+					+ "depth int,"
+					+ "isGranting boolean,"
+					+ "isAuditSuccess boolean,"
+					+ "isAuditFailure boolean,"
+					+ "PRIMARY KEY (id, sid, isSidPrincipal, mask)"
+					+ ");");
+		} catch (AlreadyExistsException e) {
+			LOG.warn(e);
+		}
+	}
+
+	/**
+	 * Creates the schema for the table holding the entries of every object by Sid.
+	 */
+	public void createAclsBySidTable() {
+		clearPreparedStatements();
+		try {
+			session.execute("CREATE TABLE " + KEYSPACE + ".acls_by_sid (" 
+					+ "sid varchar," 
+					+ "aoiId varchar,"
+					+ "aclOrder int,"
+					+ "objId varchar,"
+					+ "objClass varchar,"
+					+ "mask int,"
+					+ "isGranting boolean,"
+					+ "isAuditSuccess boolean,"
+					+ "isAuditFailure boolean,"
+					+ "PRIMARY KEY (sid, aoiId, aclOrder)"
+					+ ");");
+		} catch (AlreadyExistsException e) {
+			LOG.warn(e);
+		}
+	}
+
 	/**
 	 * Creates the schema for the 'SpringSecurityAclCassandra' keyspace.
 	 */
@@ -436,4 +2362,85 @@ public class CassandraAclRepositoryImpl implements CassandraAclRepository {
 		}
 	}
 
+	/**
+	 * Collects statements and their values to be executed as a single batch. The statements are grouped by their 
+	 * CQL text, so that batches with the same number of statements of each kind share their text and are prepared 
+	 * once. All statements of a batch are written with the same timestamp, so their order does not matter.
+	 */
+	private final class StatementBatch {
+
+		private final boolean logged;
+		private final Map<String, List<Object[]>> statements = new TreeMap<String, List<Object[]>>();
+		private int size = 0;
+
+		/**
+		 * Creates a logged batch.
+		 */
+		StatementBatch() {
+			this(true);
+		}
+
+		/**
+		 * @param logged whether the batch is logged. Unlogged batches skip the batch log and
+		 * 		should only be used for statements on a single partition.
+		 */
+		StatementBatch(boolean logged) {
+			this.logged = logged;
+		}
+
+		/**
+		 * Adds a statement to the batch.
+		 * 
+		 * @param statementCql the CQL text of the statement, using '?' as bind marker.
+		 * @param statementValues the values to bind to the statement.
+		 */
+		void add(String statementCql, Object... statementValues) {
+			List<Object[]> statementsValues = statements.get(statementCql);
+			if (statementsValues == null) {
+				statementsValues = new ArrayList<Object[]>();
+				statements.put(statementCql, statementsValues);
+			}
+			statementsValues.add(statementValues);
+			size++;
+		}
+
+		/**
+		 * @return the number of statements added to the batch.
+		 */
+		int size() {
+			return size;
+		}
+
+		/**
+		 * @return true if the batch is logged.
+		 */
+		boolean isLogged() {
+			return logged;
+		}
+
+		/**
+		 * @return true if no statements have been added to the batch.
+		 */
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		/**
+		 * @return the <code>Query</code> executing all added statements.
+		 */
+		Query toStatement() {
+			StringBuilder cql = new StringBuilder(logged ? "BEGIN BATCH " : "BEGIN UNLOGGED BATCH ");
+			List<Object> values = new ArrayList<Object>();
+			for (Map.Entry<String, List<Object[]>> entry : statements.entrySet()) {
+				for (Object[] statementValues : entry.getValue()) {
+					cql.append(entry.getKey()).append("; ");
+					values.addAll(Arrays.asList(statementValues));
+				}
+			}
+			cql.append("APPLY BATCH");
+			return size <= MAX_PREPARED_BATCH_SIZE ? shapeStatement(cql.toString(), values.toArray()) 
+					: unpreparedStatement(cql.toString(), values.toArray());
+		}
+	}
+
 }
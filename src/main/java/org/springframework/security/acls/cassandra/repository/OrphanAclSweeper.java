@@ -0,0 +1,615 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.repository;
+
+import static org.springframework.security.acls.cassandra.repository.CassandraAclRepositoryImpl.ACL_TABLE;
+import static org.springframework.security.acls.cassandra.repository.CassandraAclRepositoryImpl.ANCESTORS_TABLE;
+import static org.springframework.security.acls.cassandra.repository.CassandraAclRepositoryImpl.AOI_TABLE;
+import static org.springframework.security.acls.cassandra.repository.CassandraAclRepositoryImpl.CHILDREN_TABLE;
+import static org.springframework.security.acls.cassandra.repository.CassandraAclRepositoryImpl.DELETE_ACLS;
+import static org.springframework.security.acls.cassandra.repository.CassandraAclRepositoryImpl.DELETE_ANCESTORS;
+import static org.springframework.security.acls.cassandra.repository.CassandraAclRepositoryImpl.DELETE_CHILD;
+import static org.springframework.security.acls.cassandra.repository.CassandraAclRepositoryImpl.DELETE_CHILDREN;
+import static org.springframework.security.acls.cassandra.repository.CassandraAclRepositoryImpl.DELETE_SID_INDEX_ENTRY;
+import static org.springframework.security.acls.cassandra.repository.CassandraAclRepositoryImpl.KEYSPACE;
+import static org.springframework.security.acls.cassandra.repository.CassandraAclRepositoryImpl.SID_INDEX_TABLE;
+import static org.springframework.security.acls.cassandra.repository.CassandraAclRepositoryImpl.getUninterruptibly;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.security.acls.cassandra.model.AclObjectIdentity;
+import org.springframework.util.Assert;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Query;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Maintenance job removing data left behind in the tables of the {@link CassandraAclRepositoryImpl}:
+ * <ul>
+ * <li>partitions of the 'acls' and 'ancestors' tables that belong to no <code>AclObjectIdentity</code>,</li>
+ * <li>partitions of the 'children' table whose parent <code>AclObjectIdentity</code> does not exist,</li>
+ * <li>rows of the 'children' table pointing to an <code>AclObjectIdentity</code> that does not exist or 
+ * 		no longer has the partition's object as parent,</li>
+ * <li>rows of the 'acls_by_sid' table pointing to an <code>AclObjectIdentity</code> that does not exist, 
+ * 		if the Sid index is enabled.</li>
+ * </ul>
+ * <code>AclObjectIdentity</code> records referencing a parent that does not exist are reported but never deleted.
+ * <p>
+ * Tables are read by token range in pages of a fixed size, with the token ranges split among a number of threads, 
+ * so the job can run against a live cluster without any full table query. Every candidate is read again right 
+ * before it is deleted, and deletes are executed at a bounded rate. The token range scans require the 
+ * <code>Murmur3Partitioner</code>, which is the default partitioner since Cassandra 1.2.
+ * <p>
+ * The job can be run directly with {@link #sweep()}, or scheduled as a <code>Runnable</code>.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+public class OrphanAclSweeper implements Runnable {
+
+	private static final Log LOG = LogFactory.getLog(OrphanAclSweeper.class);
+
+	private static final String MURMUR3_PARTITIONER = "org.apache.cassandra.dht.Murmur3Partitioner";
+	private static final String SELECT_PARTITIONER = "SELECT partitioner FROM system.local";
+	private static final String SELECT_AOI_PARENT = "SELECT id, parentObjId, parentObjClass FROM " + KEYSPACE + "." + AOI_TABLE + " WHERE id = ?";
+	private static final String SELECT_SID_INDEX_ORDERS = "SELECT aclOrder FROM " + KEYSPACE + "." + SID_INDEX_TABLE 
+			+ " WHERE sid = ? AND aoiId = ?";
+
+	// Each thread scans several token ranges, so that threads finishing early pick up the remaining work
+	private static final int SEGMENTS_PER_THREAD = 4;
+	private static final int MAX_IN_FLIGHT_READS = 32;
+
+	private final Session session;
+	private int threads = 4;
+	private int pageSize = 1000;
+	private double maxDeletesPerSecond = 100;
+	private boolean ancestorPathsEnabled = false;
+	private boolean sidIndexEnabled = false;
+	private boolean dryRun = false;
+
+	/**
+	 * Constructs a new <code>OrphanAclSweeper</code>.
+	 * 
+	 * @param session the <code>Session</code> to use for connectivity with Cassandra.
+	 */
+	public OrphanAclSweeper(Session session) {
+		Assert.notNull(session, "Session required");
+		this.session = session;
+	}
+
+	/**
+	 * Runs the job, logging its report.
+	 * 
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		OrphanSweepReport report = sweep();
+		LOG.info("Orphan ACL sweep completed: " + report);
+	}
+
+	/**
+	 * Scans all tables for orphaned data and deletes it, unless this is a dry run.
+	 * 
+	 * @return the {@link OrphanSweepReport} with the counts of the run.
+	 * @throws IllegalStateException if the cluster does not use the <code>Murmur3Partitioner</code>.
+	 */
+	public OrphanSweepReport sweep() {
+		String partitioner = session.execute(SELECT_PARTITIONER).one().getString("partitioner");
+		if (!MURMUR3_PARTITIONER.equals(partitioner)) {
+			throw new IllegalStateException("Token range scans require the " + MURMUR3_PARTITIONER + ", the cluster uses " + partitioner);
+		}
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("BEGIN sweep: threads: " + threads + ", pageSize: " + pageSize + ", dryRun: " + dryRun);
+		}
+		
+		long startTime = System.currentTimeMillis();
+		final Sweep sweep = new Sweep();
+		int segments = threads * SEGMENTS_PER_THREAD;
+		BigInteger minToken = BigInteger.valueOf(Long.MIN_VALUE);
+		BigInteger tokenSpan = BigInteger.valueOf(Long.MAX_VALUE).subtract(minToken);
+		
+		ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
+		try {
+			List<ListenableFuture<Void>> futures = new ArrayList<ListenableFuture<Void>>(segments);
+			for (int i = 0; i < segments; i++) {
+				// Token ranges are exclusive of their start, and Murmur3 never assigns the minimum token
+				final long start = minToken.add(tokenSpan.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(segments))).longValue();
+				final long end = i == segments - 1 ? Long.MAX_VALUE 
+						: minToken.add(tokenSpan.multiply(BigInteger.valueOf(i + 1)).divide(BigInteger.valueOf(segments))).longValue();
+				futures.add(executor.submit(new Callable<Void>() {
+
+					public Void call() {
+						sweep.sweepRange(start, end);
+						return null;
+					}
+				}));
+			}
+			getUninterruptibly(Futures.allAsList(futures));
+		} finally {
+			executor.shutdownNow();
+		}
+
+		sweep.report.setDurationMillis(System.currentTimeMillis() - startTime);
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("END sweep: " + sweep.report);
+		}
+		return sweep.report;
+	}
+
+	/**
+	 * @return the number of threads scanning token ranges.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Sets the number of threads scanning token ranges in parallel. Defaults to 4.
+	 * 
+	 * @param threads the number of threads.
+	 */
+	public void setThreads(int threads) {
+		Assert.isTrue(threads > 0, "The number of threads must be positive");
+		this.threads = threads;
+	}
+
+	/**
+	 * @return the maximum number of rows read with a single query.
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Sets the maximum number of rows read with a single query. Defaults to 1000.
+	 * 
+	 * @param pageSize the maximum number of rows per query.
+	 */
+	public void setPageSize(int pageSize) {
+		Assert.isTrue(pageSize > 0, "The page size must be positive");
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * @return the maximum number of delete statements executed per second, or 0 if deletes are not throttled.
+	 */
+	public double getMaxDeletesPerSecond() {
+		return maxDeletesPerSecond;
+	}
+
+	/**
+	 * Sets the maximum number of delete statements executed per second by all threads of a run. Defaults to 100.
+	 * 
+	 * @param maxDeletesPerSecond the maximum number of deletes per second, or 0 to disable throttling.
+	 */
+	public void setMaxDeletesPerSecond(double maxDeletesPerSecond) {
+		Assert.isTrue(maxDeletesPerSecond >= 0, "The maximum number of deletes per second cannot be negative");
+		this.maxDeletesPerSecond = maxDeletesPerSecond;
+	}
+
+	/**
+	 * @return whether the 'ancestors' table is scanned.
+	 */
+	public boolean isAncestorPathsEnabled() {
+		return ancestorPathsEnabled;
+	}
+
+	/**
+	 * Sets whether the 'ancestors' table is scanned. Should match the configuration of the 
+	 * {@link CassandraAclRepositoryImpl}, as the table only exists when ancestor paths are used. Defaults to false.
+	 * 
+	 * @param ancestorPathsEnabled whether the 'ancestors' table is scanned.
+	 */
+	public void setAncestorPathsEnabled(boolean ancestorPathsEnabled) {
+		this.ancestorPathsEnabled = ancestorPathsEnabled;
+	}
+
+	/**
+	 * @return whether the 'acls_by_sid' table is scanned.
+	 */
+	public boolean isSidIndexEnabled() {
+		return sidIndexEnabled;
+	}
+
+	/**
+	 * Sets whether the 'acls_by_sid' table is scanned. Should match the configuration of the 
+	 * {@link CassandraAclRepositoryImpl}, as the table only exists when the Sid index is used. Defaults to false.
+	 * 
+	 * @param sidIndexEnabled whether the 'acls_by_sid' table is scanned.
+	 */
+	public void setSidIndexEnabled(boolean sidIndexEnabled) {
+		this.sidIndexEnabled = sidIndexEnabled;
+	}
+
+	/**
+	 * @return whether orphaned data is only reported, without being deleted.
+	 */
+	public boolean isDryRun() {
+		return dryRun;
+	}
+
+	/**
+	 * Sets whether orphaned data is only reported, without being deleted. Defaults to false.
+	 * 
+	 * @param dryRun whether orphaned data is only reported.
+	 */
+	public void setDryRun(boolean dryRun) {
+		this.dryRun = dryRun;
+	}
+
+	/**
+	 * The state of a single run, holding a copy of the configuration so that changes do not affect a run in progress.
+	 */
+	private final class Sweep {
+
+		private final OrphanSweepReport report = new OrphanSweepReport();
+		private final ThrottledQueryExecutor queryExecutor = new ThrottledQueryExecutor(session, MAX_IN_FLIGHT_READS);
+		private final RateLimiter rateLimiter = maxDeletesPerSecond > 0 ? RateLimiter.create(maxDeletesPerSecond) : null;
+		private final int pageSize = OrphanAclSweeper.this.pageSize;
+		private final boolean ancestorPathsEnabled = OrphanAclSweeper.this.ancestorPathsEnabled;
+		private final boolean sidIndexEnabled = OrphanAclSweeper.this.sidIndexEnabled;
+		private final boolean dryRun = OrphanAclSweeper.this.dryRun;
+		private final ConcurrentMap<String, PreparedStatement> preparedStatements = new ConcurrentHashMap<String, PreparedStatement>();
+
+		/**
+		 * Scans all tables in the provided token range.
+		 * 
+		 * @param start the token the range starts after.
+		 * @param end the last token of the range.
+		 */
+		void sweepRange(long start, long end) {
+			sweepAois(start, end);
+			sweepPartitions(ACL_TABLE, DELETE_ACLS, start, end);
+			sweepChildren(start, end);
+			if (ancestorPathsEnabled) {
+				sweepPartitions(ANCESTORS_TABLE, DELETE_ANCESTORS, start, end);
+			}
+			if (sidIndexEnabled) {
+				sweepSidIndex(start, end);
+			}
+		}
+
+		/**
+		 * Reports the objects of the 'aois' table in the provided token range that reference a parent that does not exist.
+		 */
+		private void sweepAois(long start, long end) {
+			String lastId = null;
+			boolean hasMore = true;
+			while (hasMore) {
+				List<Row> rows = scanPage(AOI_TABLE, "id", "id, parentObjId, parentObjClass", start, end, lastId);
+				hasMore = rows.size() == pageSize;
+				report.addScannedPartitions(rows.size());
+				
+				List<String> parentIds = new ArrayList<String>();
+				Map<String, String> parentIdsById = new HashMap<String, String>();
+				for (Row row : rows) {
+					lastId = row.getString("id");
+					String parentId = toAclObjectIdentity(row).getParentRowId();
+					if (parentId != null) {
+						parentIds.add(parentId);
+						parentIdsById.put(lastId, parentId);
+					}
+				}
+				
+				Map<String, AclObjectIdentity> parents = findAclObjectIdentities(parentIds);
+				for (Map.Entry<String, String> entry : parentIdsById.entrySet()) {
+					if (!parents.containsKey(entry.getValue())) {
+						LOG.warn("AclObjectIdentity '" + entry.getKey() + "' references missing parent '" + entry.getValue() + "'");
+						report.incrementAoisWithMissingParent();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Deletes the partitions of the provided table in the provided token range that belong to no <code>AclObjectIdentity</code>.
+		 */
+		private void sweepPartitions(String table, String deleteCql, long start, long end) {
+			String lastId = null;
+			boolean hasMore = true;
+			while (hasMore) {
+				List<Row> rows = scanPage(table, "id", "id", start, end, lastId);
+				hasMore = rows.size() == pageSize;
+				List<String> ids = distinctIds(rows, "id");
+				if (!ids.isEmpty()) {
+					lastId = ids.get(ids.size() - 1);
+				}
+				report.addScannedPartitions(ids.size());
+				
+				for (String id : findOrphans(ids)) {
+					if (ACL_TABLE.equals(table)) {
+						report.incrementOrphanAclPartitions();
+					} else {
+						report.incrementOrphanAncestorPartitions();
+					}
+					delete(deleteCql, id);
+				}
+			}
+		}
+
+		/**
+		 * Deletes the partitions of the 'children' table in the provided token range whose parent does not exist, 
+		 * and the rows of the remaining partitions pointing to an <code>AclObjectIdentity</code> that is not a child.
+		 */
+		private void sweepChildren(long start, long end) {
+			String lastId = null;
+			boolean hasMore = true;
+			while (hasMore) {
+				List<Row> rows = scanPage(CHILDREN_TABLE, "id", "id", start, end, lastId);
+				hasMore = rows.size() == pageSize;
+				List<String> ids = distinctIds(rows, "id");
+				if (!ids.isEmpty()) {
+					lastId = ids.get(ids.size() - 1);
+				}
+				report.addScannedPartitions(ids.size());
+				
+				List<String> orphans = findOrphans(ids);
+				for (String id : orphans) {
+					report.incrementOrphanChildrenPartitions();
+					delete(DELETE_CHILDREN, id);
+				}
+				for (String id : ids) {
+					if (!orphans.contains(id)) {
+						sweepChildRows(id);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Deletes the rows of a partition of the 'children' table pointing to an <code>AclObjectIdentity</code> 
+		 * that does not exist or has a different parent.
+		 * 
+		 * @param parentId the partition key, which is the row id of the parent.
+		 */
+		private void sweepChildRows(String parentId) {
+			String lastChildId = null;
+			boolean hasMore = true;
+			while (hasMore) {
+				String cql = "SELECT childId FROM " + KEYSPACE + "." + CHILDREN_TABLE + " WHERE id = ?" 
+						+ (lastChildId == null ? "" : " AND childId > ?") + " LIMIT " + pageSize;
+				Object[] values = lastChildId == null ? new Object[] { parentId } : new Object[] { parentId, lastChildId };
+				List<String> childIds = new ArrayList<String>();
+				for (Row row : session.execute(statement(cql, values))) {
+					childIds.add(row.getString("childId"));
+				}
+				hasMore = childIds.size() == pageSize;
+				if (!childIds.isEmpty()) {
+					lastChildId = childIds.get(childIds.size() - 1);
+				}
+				
+				List<String> dangling = findDanglingChildren(parentId, childIds);
+				if (!dangling.isEmpty()) {
+					// Read again, so that children whose parent was being changed during the scan are not deleted
+					for (String childId : findDanglingChildren(parentId, dangling)) {
+						report.incrementDanglingChildren();
+						delete(DELETE_CHILD, parentId, childId);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Deletes the rows of the 'acls_by_sid' table in the provided token range pointing to an 
+		 * <code>AclObjectIdentity</code> that does not exist.
+		 */
+		private void sweepSidIndex(long start, long end) {
+			String lastSid = null;
+			boolean hasMore = true;
+			while (hasMore) {
+				List<Row> rows = scanPage(SID_INDEX_TABLE, "sid", "sid", start, end, lastSid);
+				hasMore = rows.size() == pageSize;
+				List<String> sids = distinctIds(rows, "sid");
+				if (!sids.isEmpty()) {
+					lastSid = sids.get(sids.size() - 1);
+				}
+				report.addScannedPartitions(sids.size());
+				
+				for (String sid : sids) {
+					sweepSidIndexRows(sid);
+				}
+			}
+		}
+
+		/**
+		 * Deletes the rows of a partition of the 'acls_by_sid' table pointing to an <code>AclObjectIdentity</code> 
+		 * that does not exist.
+		 * 
+		 * @param sid the partition key, which is the key of the Sid.
+		 */
+		private void sweepSidIndexRows(String sid) {
+			String lastAoiId = null;
+			boolean hasMore = true;
+			while (hasMore) {
+				String cql = "SELECT aoiId FROM " + KEYSPACE + "." + SID_INDEX_TABLE + " WHERE sid = ?" 
+						+ (lastAoiId == null ? "" : " AND aoiId > ?") + " LIMIT " + pageSize;
+				Object[] values = lastAoiId == null ? new Object[] { sid } : new Object[] { sid, lastAoiId };
+				List<Row> rows = new ArrayList<Row>();
+				for (Row row : session.execute(statement(cql, values))) {
+					rows.add(row);
+				}
+				hasMore = rows.size() == pageSize;
+				List<String> aoiIds = distinctIds(rows, "aoiId");
+				if (!aoiIds.isEmpty()) {
+					lastAoiId = aoiIds.get(aoiIds.size() - 1);
+				}
+				
+				for (String aoiId : findOrphans(aoiIds)) {
+					// The page may end within the rows of an object, so its rows are read again
+					for (Row row : session.execute(statement(SELECT_SID_INDEX_ORDERS, sid, aoiId))) {
+						report.incrementDanglingSidIndexEntries();
+						delete(DELETE_SID_INDEX_ENTRY, sid, aoiId, row.getInt("aclOrder"));
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return the provided children that do not exist or do not have the provided parent.
+		 */
+		private List<String> findDanglingChildren(String parentId, List<String> childIds) {
+			Map<String, AclObjectIdentity> children = findAclObjectIdentities(childIds);
+			List<String> dangling = new ArrayList<String>();
+			for (String childId : childIds) {
+				AclObjectIdentity child = children.get(childId);
+				if (child == null || !parentId.equals(child.getParentRowId())) {
+					dangling.add(childId);
+				}
+			}
+			return dangling;
+		}
+
+		/**
+		 * @return the provided row ids that do not exist in the 'aois' table, read twice so that objects 
+		 * 		created during the scan are not reported.
+		 */
+		private List<String> findOrphans(List<String> ids) {
+			List<String> orphans = missingIds(ids);
+			return orphans.isEmpty() ? orphans : missingIds(orphans);
+		}
+
+		private List<String> missingIds(List<String> ids) {
+			Map<String, AclObjectIdentity> existing = findAclObjectIdentities(ids);
+			List<String> missing = new ArrayList<String>();
+			for (String id : ids) {
+				if (!existing.containsKey(id)) {
+					missing.add(id);
+				}
+			}
+			return missing;
+		}
+
+		/**
+		 * Reads the 'aois' rows with the provided row ids, with a single partition query for each.
+		 * 
+		 * @param ids the row ids to read.
+		 * @return the <code>AclObjectIdentity</code> objects found, with their parent, keyed on their row id.
+		 */
+		private Map<String, AclObjectIdentity> findAclObjectIdentities(List<String> ids) {
+			Map<String, AclObjectIdentity> result = new HashMap<String, AclObjectIdentity>();
+			if (ids.isEmpty()) {
+				return result;
+			}
+			List<Query> queries = new ArrayList<Query>(ids.size());
+			for (String id : ids) {
+				queries.add(statement(SELECT_AOI_PARENT, id));
+			}
+			for (ResultSet resultSet : getUninterruptibly(queryExecutor.executeAll(queries))) {
+				Row row = resultSet.one();
+				if (row != null) {
+					result.put(row.getString("id"), toAclObjectIdentity(row));
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Reads a page of rows of the provided table in the provided token range.
+		 * 
+		 * @param table the table to read.
+		 * @param partitionKey the partition key column of the table.
+		 * @param columns the columns to read, including the partition key.
+		 * @param start the token the range starts after.
+		 * @param end the last token of the range.
+		 * @param lastId the partition key of the last row of the previous page, or <code>null</code> for the first page. 
+		 * 		The remaining rows of that partition are skipped.
+		 * @return the rows of the page, which has less than <code>pageSize</code> rows if it is the last one.
+		 */
+		private List<Row> scanPage(String table, String partitionKey, String columns, long start, long end, String lastId) {
+			String token = "token(" + partitionKey + ")";
+			String cql = "SELECT " + columns + " FROM " + KEYSPACE + "." + table 
+					+ " WHERE " + token + " > " + (lastId == null ? "?" : "token(?)") + " AND " + token + " <= ? LIMIT " + pageSize;
+			List<Row> rows = new ArrayList<Row>();
+			for (Row row : session.execute(statement(cql, lastId == null ? start : lastId, end))) {
+				rows.add(row);
+			}
+			return rows;
+		}
+
+		/**
+		 * @return the values of the provided key column of the rows, without the repetitions of consecutive rows 
+		 * 		sharing the same key.
+		 */
+		private List<String> distinctIds(List<Row> rows, String column) {
+			List<String> ids = new ArrayList<String>();
+			String previousId = null;
+			for (Row row : rows) {
+				String id = row.getString(column);
+				if (!id.equals(previousId)) {
+					ids.add(id);
+					previousId = id;
+				}
+			}
+			return ids;
+		}
+
+		private AclObjectIdentity toAclObjectIdentity(Row row) {
+			AclObjectIdentity aoi = new AclObjectIdentity();
+			aoi.setParentObjectId(row.getString("parentObjId"));
+			aoi.setParentObjectClass(row.getString("parentObjClass"));
+			return aoi;
+		}
+
+		/**
+		 * Executes a delete statement at the configured rate, unless this is a dry run.
+		 */
+		private void delete(String cql, Object... values) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Deleting orphaned data: " + cql + " " + Arrays.asList(values));
+			}
+			if (dryRun) {
+				return;
+			}
+			if (rateLimiter != null) {
+				rateLimiter.acquire();
+			}
+			session.execute(statement(cql, values));
+			report.incrementDeletes();
+		}
+
+		private Query statement(String cql, Object... values) {
+			PreparedStatement prepared = preparedStatements.get(cql);
+			if (prepared == null) {
+				prepared = session.prepare(cql);
+				PreparedStatement existing = preparedStatements.putIfAbsent(cql, prepared);
+				if (existing != null) {
+					prepared = existing;
+				}
+			}
+			return prepared.bind(values);
+		}
+	}
+
+}
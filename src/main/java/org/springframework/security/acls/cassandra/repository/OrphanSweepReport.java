@@ -0,0 +1,158 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.repository;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the counts collected by a run of the {@link OrphanAclSweeper}. The counts are updated 
+ * concurrently by the threads of the sweeper while the run is in progress.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+public class OrphanSweepReport {
+
+	private final AtomicLong scannedPartitions = new AtomicLong();
+	private final AtomicLong orphanAclPartitions = new AtomicLong();
+	private final AtomicLong orphanChildrenPartitions = new AtomicLong();
+	private final AtomicLong danglingChildren = new AtomicLong();
+	private final AtomicLong orphanAncestorPartitions = new AtomicLong();
+	private final AtomicLong aoisWithMissingParent = new AtomicLong();
+	private final AtomicLong danglingSidIndexEntries = new AtomicLong();
+	private final AtomicLong deletes = new AtomicLong();
+	private volatile long durationMillis;
+
+	/**
+	 * @return the number of partitions read from all scanned tables.
+	 */
+	public long getScannedPartitions() {
+		return scannedPartitions.get();
+	}
+
+	/**
+	 * @return the number of partitions of the 'acls' table that belong to no <code>AclObjectIdentity</code>.
+	 */
+	public long getOrphanAclPartitions() {
+		return orphanAclPartitions.get();
+	}
+
+	/**
+	 * @return the number of partitions of the 'children' table whose parent <code>AclObjectIdentity</code> does not exist.
+	 */
+	public long getOrphanChildrenPartitions() {
+		return orphanChildrenPartitions.get();
+	}
+
+	/**
+	 * @return the number of rows of the 'children' table pointing to an <code>AclObjectIdentity</code> that does not 
+	 * 		exist or no longer has the partition's object as parent.
+	 */
+	public long getDanglingChildren() {
+		return danglingChildren.get();
+	}
+
+	/**
+	 * @return the number of partitions of the 'ancestors' table that belong to no <code>AclObjectIdentity</code>.
+	 */
+	public long getOrphanAncestorPartitions() {
+		return orphanAncestorPartitions.get();
+	}
+
+	/**
+	 * @return the number of <code>AclObjectIdentity</code> records referencing a parent that does not exist. These 
+	 * 		are only reported, never deleted.
+	 */
+	public long getAoisWithMissingParent() {
+		return aoisWithMissingParent.get();
+	}
+
+	/**
+	 * @return the number of rows of the 'acls_by_sid' table pointing to an <code>AclObjectIdentity</code> that does not exist.
+	 */
+	public long getDanglingSidIndexEntries() {
+		return danglingSidIndexEntries.get();
+	}
+
+	/**
+	 * @return the number of delete statements executed, which is 0 for a dry run.
+	 */
+	public long getDeletes() {
+		return deletes.get();
+	}
+
+	/**
+	 * @return the duration of the run in milliseconds.
+	 */
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	void addScannedPartitions(long count) {
+		scannedPartitions.addAndGet(count);
+	}
+
+	void incrementOrphanAclPartitions() {
+		orphanAclPartitions.incrementAndGet();
+	}
+
+	void incrementOrphanChildrenPartitions() {
+		orphanChildrenPartitions.incrementAndGet();
+	}
+
+	void incrementDanglingChildren() {
+		danglingChildren.incrementAndGet();
+	}
+
+	void incrementOrphanAncestorPartitions() {
+		orphanAncestorPartitions.incrementAndGet();
+	}
+
+	void incrementAoisWithMissingParent() {
+		aoisWithMissingParent.incrementAndGet();
+	}
+
+	void incrementDanglingSidIndexEntries() {
+		danglingSidIndexEntries.incrementAndGet();
+	}
+
+	void incrementDeletes() {
+		deletes.incrementAndGet();
+	}
+
+	void setDurationMillis(long durationMillis) {
+		this.durationMillis = durationMillis;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("OrphanSweepReport [").append("scannedPartitions: ").append(getScannedPartitions());
+		sb.append(", orphanAclPartitions: ").append(getOrphanAclPartitions());
+		sb.append(", orphanChildrenPartitions: ").append(getOrphanChildrenPartitions());
+		sb.append(", danglingChildren: ").append(getDanglingChildren());
+		sb.append(", orphanAncestorPartitions: ").append(getOrphanAncestorPartitions());
+		sb.append(", aoisWithMissingParent: ").append(getAoisWithMissingParent());
+		sb.append(", danglingSidIndexEntries: ").append(getDanglingSidIndexEntries());
+		sb.append(", deletes: ").append(getDeletes());
+		sb.append(", durationMillis: ").append(getDurationMillis());
+		sb.append("]");
+		return sb.toString();
+	}
+
+}
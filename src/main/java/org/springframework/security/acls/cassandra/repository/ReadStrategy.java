@@ -0,0 +1,37 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.repository;
+
+/**
+ * Strategies for reading a number of partitions of the same table.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+public enum ReadStrategy {
+
+	/**
+	 * A single query with an <code>IN</code> clause over all partition keys. One coordinator
+	 * fetches all partitions from their replicas and returns them in one response.
+	 */
+	IN_QUERY,
+	
+	/**
+	 * One single-partition query per partition key, executed concurrently. With prepared 
+	 * statements and a token aware load balancing policy, each query is sent straight to 
+	 * a replica of its partition.
+	 */
+	PARALLEL_PARTITIONS
+}
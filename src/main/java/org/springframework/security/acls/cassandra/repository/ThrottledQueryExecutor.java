@@ -0,0 +1,158 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.util.Assert;
+
+import com.datastax.driver.core.Query;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Executes a list of queries asynchronously, keeping at most a fixed number of them in flight 
+ * for each call. A new query is only sent when a previous one has completed, so no thread 
+ * is ever blocked waiting for a free slot.
+ * 
+ * @author Rigas Grigoropoulos
+ *
+ */
+public class ThrottledQueryExecutor {
+
+	private final Session session;
+	private final int maxInFlight;
+
+	/**
+	 * Constructs a new <code>ThrottledQueryExecutor</code>.
+	 * 
+	 * @param session the <code>Session</code> to execute queries with.
+	 * @param maxInFlight the maximum number of queries of a single call that may be in flight at the same time.
+	 */
+	public ThrottledQueryExecutor(Session session, int maxInFlight) {
+		Assert.notNull(session, "Session required");
+		Assert.isTrue(maxInFlight > 0, "maxInFlight must be greater than 0");
+		this.session = session;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Executes all provided queries. The returned future fails as soon as one of the queries fails, 
+	 * in which case the remaining queries are not sent.
+	 * 
+	 * @param queries the queries to execute.
+	 * @return a future holding the <code>ResultSet</code> of each query, in the order of the queries.
+	 */
+	public ListenableFuture<List<ResultSet>> executeAll(List<Query> queries) {
+		return executeAll(queries, Functions.<ResultSet>identity());
+	}
+
+	/**
+	 * Executes all provided queries, converting the <code>ResultSet</code> of each query as soon as it arrives. 
+	 * Only the converted results are kept until all queries have completed, so the rows of a query can be released 
+	 * while other queries are still in flight. The returned future fails if a conversion fails.
+	 * 
+	 * @param queries the queries to execute.
+	 * @param converter the function converting the <code>ResultSet</code> of a query. It is called by the 
+	 * 		thread completing the query, concurrently for different queries.
+	 * @return a future holding the converted result of each query, in the order of the queries.
+	 */
+	public <T> ListenableFuture<List<T>> executeAll(List<Query> queries, Function<? super ResultSet, ? extends T> converter) {
+		Assert.notNull(queries, "Queries required");
+		Assert.notNull(converter, "Converter required");
+		Execution<T> execution = new Execution<T>(queries, converter);
+		execution.start();
+		return execution.result;
+	}
+
+	/**
+	 * @return the maximum number of queries of a single call that may be in flight at the same time.
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * The state of a single <code>executeAll</code> call.
+	 */
+	private final class Execution<T> {
+
+		private final List<Query> queries;
+		private final Function<? super ResultSet, ? extends T> converter;
+		private final AtomicReferenceArray<T> results;
+		private final AtomicInteger nextIndex = new AtomicInteger(0);
+		private final AtomicInteger remaining;
+		private final SettableFuture<List<T>> result = SettableFuture.create();
+
+		Execution(List<Query> queries, Function<? super ResultSet, ? extends T> converter) {
+			this.queries = queries;
+			this.converter = converter;
+			this.results = new AtomicReferenceArray<T>(queries.size());
+			this.remaining = new AtomicInteger(queries.size());
+		}
+
+		void start() {
+			if (queries.isEmpty()) {
+				result.set(new ArrayList<T>());
+				return;
+			}
+			int initial = Math.min(maxInFlight, queries.size());
+			for (int i = 0; i < initial; i++) {
+				sendNext();
+			}
+		}
+
+		void sendNext() {
+			final int index = nextIndex.getAndIncrement();
+			if (index >= queries.size() || result.isDone()) {
+				return;
+			}
+			Futures.addCallback(session.executeAsync(queries.get(index)), new FutureCallback<ResultSet>() {
+
+				public void onSuccess(ResultSet resultSet) {
+					try {
+						results.set(index, converter.apply(resultSet));
+					} catch (RuntimeException e) {
+						result.setException(e);
+						return;
+					}
+					if (remaining.decrementAndGet() == 0) {
+						List<T> list = new ArrayList<T>(results.length());
+						for (int i = 0; i < results.length(); i++) {
+							list.add(results.get(i));
+						}
+						result.set(list);
+					} else {
+						sendNext();
+					}
+				}
+
+				public void onFailure(Throwable t) {
+					result.setException(t);
+				}
+			});
+		}
+	}
+
+}
@@ -0,0 +1,230 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.security.acls.cassandra.model.AclEntry;
+import org.springframework.security.acls.cassandra.model.AclObjectIdentity;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AuditLogger;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.ConsoleAuditLogger;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.DefaultPermissionGrantingStrategy;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.UnloadedSidException;
+
+public class CassandraAclImplTest {
+
+	private static final String aoi_class = "a.b.c.Class";
+	private static final String sid1 = "sid1@some.com";
+	private static final String sid2 = "sid2@some.com";
+
+	private final AclAuthorizationStrategy authorizationStrategy = new AclAuthorizationStrategy() {
+		public void securityCheck(Acl acl, int changeType) {}
+	};
+
+	@Test
+	public void testEntriesWithOrderGaps() {
+		List<AclEntry> entries = new ArrayList<AclEntry>();
+		entries.add(createEntry(sid1, 2, BasePermission.READ.getMask()));
+		entries.add(createEntry(sid1, 5, BasePermission.WRITE.getMask()));
+		List<Sid> sids = Arrays.<Sid>asList(new PrincipalSid(sid1));
+		CassandraAclImpl acl = createAcl(entries, sids);
+		
+		assertEquals(2, acl.getEntries().size());
+		assertEquals(BasePermission.READ, acl.getEntries().get(0).getPermission());
+		assertEquals(BasePermission.WRITE, acl.getEntries().get(1).getPermission());
+		assertSame(acl, acl.getEntries().get(0).getAcl());
+		assertFalse(acl.isFullyLoaded());
+		assertNull(acl.getLoadedObjectIdentity());
+		assertNull(acl.getLoadedEntries());
+		assertTrue(acl.isGranted(Arrays.<Permission>asList(BasePermission.WRITE), sids, false));
+		
+		try {
+			acl.isGranted(Arrays.<Permission>asList(BasePermission.WRITE), Arrays.<Sid>asList(new PrincipalSid(sid2)), false);
+			fail("Expected UnloadedSidException");
+		} catch (UnloadedSidException e) {
+			// Expected exception
+		}
+	}
+
+	@Test
+	public void testCopyOnWrite() {
+		List<AclEntry> entries = new ArrayList<AclEntry>();
+		entries.add(createEntry(sid1, 0, BasePermission.READ.getMask()));
+		CassandraAclImpl acl = createAcl(entries, null);
+		assertTrue(acl.isFullyLoaded());
+		assertEquals(1, acl.getLoadedEntries().size());
+		assertEquals(entries.get(0).getId(), acl.getLoadedEntries().get(0).getId());
+		assertEquals(BasePermission.READ.getMask(), acl.getLoadedEntries().get(0).getMask());
+		
+		List<AccessControlEntry> snapshot = acl.getEntries();
+		acl.insertAce(0, BasePermission.ADMINISTRATION, new PrincipalSid(sid2), true);
+		acl.updateAce(1, BasePermission.WRITE);
+		acl.updateAuditing(1, true, false);
+		
+		assertEquals(1, snapshot.size());
+		assertEquals(BasePermission.READ, snapshot.get(0).getPermission());
+		assertEquals(2, acl.getEntries().size());
+		assertEquals(new PrincipalSid(sid2), acl.getEntries().get(0).getSid());
+		assertEquals(BasePermission.WRITE, acl.getEntries().get(1).getPermission());
+		assertEquals(snapshot.get(0).getId(), acl.getEntries().get(1).getId());
+		
+		acl.deleteAce(0);
+		assertEquals(1, acl.getEntries().size());
+		assertEquals(new PrincipalSid(sid1), acl.getEntries().get(0).getSid());
+		assertEquals(1, acl.getLoadedEntries().size());
+	}
+
+	@Test
+	public void testIsGrantedOnPackedEntries() {
+		List<AclEntry> entries = new ArrayList<AclEntry>();
+		AclEntry denied = createEntry(sid2, 0, BasePermission.READ.getMask());
+		denied.setGranting(false);
+		entries.add(denied);
+		entries.add(createEntry(sid1, 1, BasePermission.READ.getMask()));
+		entries.add(createEntry(sid2, 2, BasePermission.WRITE.getMask()));
+		CassandraAclImpl acl = new CassandraAclImpl(createAclObjectIdentity("123"), entries, null, null, authorizationStrategy, 
+				new DefaultPermissionGrantingStrategy(new ConsoleAuditLogger()), new DefaultPermissionFactory(), true);
+		
+		List<Sid> sids = Arrays.<Sid>asList(new PrincipalSid(sid1), new PrincipalSid(sid2));
+		assertTrue(acl.isGranted(Arrays.<Permission>asList(BasePermission.READ), sids, false));
+		assertTrue(acl.isGranted(Arrays.<Permission>asList(BasePermission.WRITE), sids, false));
+		assertFalse(acl.isGranted(Arrays.<Permission>asList(BasePermission.READ), Arrays.<Sid>asList(new PrincipalSid(sid2)), false));
+		
+		try {
+			acl.isGranted(Arrays.<Permission>asList(BasePermission.DELETE), sids, false);
+			fail("Expected NotFoundException");
+		} catch (NotFoundException e) {
+			// Expected exception
+		}
+		
+		// Entries with auditing are checked by the strategy, with the same outcome
+		acl.updateAuditing(0, false, true);
+		assertFalse(acl.isGranted(Arrays.<Permission>asList(BasePermission.READ), Arrays.<Sid>asList(new PrincipalSid(sid2)), false));
+	}
+
+	@Test
+	public void testIsGrantedCallsAuditLogger() {
+		final List<AccessControlEntry> loggedEntries = new ArrayList<AccessControlEntry>();
+		AuditLogger auditLogger = new AuditLogger() {
+			public void logIfNeeded(boolean granted, AccessControlEntry ace) {
+				loggedEntries.add(ace);
+			}
+		};
+		List<AclEntry> entries = new ArrayList<AclEntry>();
+		entries.add(createEntry(sid1, 0, BasePermission.READ.getMask()));
+		CassandraAclImpl acl = new CassandraAclImpl(createAclObjectIdentity("123"), entries, null, null, authorizationStrategy, 
+				new DefaultPermissionGrantingStrategy(auditLogger), new DefaultPermissionFactory());
+		
+		// Packed permission checks are disabled by default, so every check reaches the AuditLogger
+		assertTrue(acl.isGranted(Arrays.<Permission>asList(BasePermission.READ), Arrays.<Sid>asList(new PrincipalSid(sid1)), false));
+		assertEquals(1, loggedEntries.size());
+		assertEquals(acl.getEntries().get(0), loggedEntries.get(0));
+	}
+
+	@Test
+	public void testSerialization() throws Exception {
+		List<AclEntry> parentEntries = new ArrayList<AclEntry>();
+		parentEntries.add(createEntry(sid2, 0, BasePermission.WRITE.getMask()));
+		CassandraAclImpl parentAcl = createAcl(parentEntries, null);
+		List<AclEntry> entries = new ArrayList<AclEntry>();
+		entries.add(createEntry(sid1, 0, BasePermission.READ.getMask()));
+		AclObjectIdentity aoi = createAclObjectIdentity("456");
+		aoi.setEntriesInheriting(true);
+		CassandraAclImpl acl = new CassandraAclImpl(aoi, entries, parentAcl, null, authorizationStrategy, 
+				new DefaultPermissionGrantingStrategy(new ConsoleAuditLogger()), new DefaultPermissionFactory());
+		
+		CassandraAclImpl deserialized = serializeAndDeserialize(acl);
+		assertNull(deserialized.getLoadedObjectIdentity());
+		assertEquals(acl.getObjectIdentity(), deserialized.getObjectIdentity());
+		assertEquals(acl.getOwner(), deserialized.getOwner());
+		assertTrue(deserialized.isSidLoaded(null));
+		
+		// The strategies of the Acl and its parent are set again, those already set are kept
+		DefaultPermissionGrantingStrategy grantingStrategy = new DefaultPermissionGrantingStrategy(new ConsoleAuditLogger());
+		DefaultPermissionFactory permissionFactory = new DefaultPermissionFactory();
+		assertTrue(deserialized.initializeTransientFields(authorizationStrategy, grantingStrategy, permissionFactory));
+		assertTrue(((CassandraAclImpl) deserialized.getParentAcl()).initializeTransientFields(authorizationStrategy, grantingStrategy, 
+				permissionFactory));
+		assertFalse(deserialized.initializeTransientFields(authorizationStrategy, grantingStrategy, permissionFactory));
+		
+		assertEquals(1, deserialized.getEntries().size());
+		assertEquals(BasePermission.READ, deserialized.getEntries().get(0).getPermission());
+		assertEquals(acl, deserialized);
+		assertNotNull(deserialized.toString());
+		
+		List<Sid> sids = Arrays.<Sid>asList(new PrincipalSid(sid1), new PrincipalSid(sid2));
+		assertTrue(deserialized.isGranted(Arrays.<Permission>asList(BasePermission.READ), sids, false));
+		assertTrue(deserialized.isGranted(Arrays.<Permission>asList(BasePermission.WRITE), sids, false));
+		deserialized.insertAce(1, BasePermission.DELETE, new PrincipalSid(sid1), true);
+		assertTrue(deserialized.isGranted(Arrays.<Permission>asList(BasePermission.DELETE), sids, false));
+	}
+
+	private CassandraAclImpl serializeAndDeserialize(CassandraAclImpl acl) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(acl);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		try {
+			return (CassandraAclImpl) in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	private CassandraAclImpl createAcl(List<AclEntry> entries, List<Sid> sids) {
+		return new CassandraAclImpl(createAclObjectIdentity("123"), entries, null, sids, authorizationStrategy, 
+				new DefaultPermissionGrantingStrategy(new ConsoleAuditLogger()), new DefaultPermissionFactory());
+	}
+
+	private AclObjectIdentity createAclObjectIdentity(String id) {
+		AclObjectIdentity aoi = new AclObjectIdentity();
+		aoi.setId(id);
+		aoi.setObjectClass(aoi_class);
+		aoi.setOwnerId(sid1);
+		aoi.setOwnerPrincipal(true);
+		return aoi;
+	}
+
+	private AclEntry createEntry(String sid, int order, int mask) {
+		AclEntry entry = new AclEntry();
+		entry.setId(aoi_class + ":123:" + sid + ":" + order);
+		entry.setSid(sid);
+		entry.setSidPrincipal(true);
+		entry.setOrder(order);
+		entry.setMask(mask);
+		entry.setGranting(true);
+		return entry;
+	}
+
+}
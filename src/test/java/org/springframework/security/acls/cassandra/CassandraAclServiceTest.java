@@ -18,28 +18,38 @@ import static org.junit.Assert.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.acls.cassandra.cache.BoundedAclCache;
 import org.springframework.security.acls.cassandra.repository.CassandraAclRepositoryImpl;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
 import org.springframework.security.acls.domain.BasePermission;
 import org.springframework.security.acls.domain.GrantedAuthoritySid;
 import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PermissionFactory;
 import org.springframework.security.acls.domain.PrincipalSid;
 import org.springframework.security.acls.model.AccessControlEntry;
 import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
 import org.springframework.security.acls.model.AlreadyExistsException;
 import org.springframework.security.acls.model.MutableAcl;
 import org.springframework.security.acls.model.MutableAclService;
 import org.springframework.security.acls.model.NotFoundException;
 import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.ObjectIdentityRetrievalStrategy;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
 import org.springframework.security.acls.model.Sid;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.test.annotation.ExpectedException;
@@ -70,6 +80,15 @@ public class CassandraAclServiceTest {
 
 	@Autowired
 	private Cluster cluster;
+
+	@Autowired
+	private PermissionGrantingStrategy permissionGrantingStrategy;
+
+	@Autowired
+	private AclAuthorizationStrategy authorizationStrategy;
+
+	@Autowired
+	private PermissionFactory permissionFactory;
 	
 	private Session session;
 
@@ -140,6 +159,105 @@ public class CassandraAclServiceTest {
 		}
 	}
 
+	@Test
+	public void testDeleteAclWithChildrenOverSeveralPages() {
+		ObjectIdentity parentObjectIdentity = createDefaultTestOI();
+		MutableAcl parentMutableAcl = service.createAcl(parentObjectIdentity);
+		
+		// More children than the page size used to walk the hierarchy
+		List<ObjectIdentity> children = new ArrayList<ObjectIdentity>();
+		for (int i = 0; i < 250; i++) {
+			ObjectIdentity childObjectIdentity = new ObjectIdentityImpl(aoi_class, "child" + i);
+			MutableAcl childMutableAcl = service.createAcl(childObjectIdentity);
+			childMutableAcl.setParent(parentMutableAcl);
+			service.updateAcl(childMutableAcl);
+			children.add(childObjectIdentity);
+		}
+		
+		service.deleteAcl(parentObjectIdentity, true);
+		
+		List<ObjectIdentity> deletedObjects = new ArrayList<ObjectIdentity>(children);
+		deletedObjects.add(parentObjectIdentity);
+		for (ObjectIdentity oi : deletedObjects) {
+			try {
+				service.readAclById(oi);
+				fail("Expected NotFoundException");
+			} catch (NotFoundException e) {
+				// Expected exception
+			}
+		}
+	}
+
+	@Test
+	public void testDeleteAclInChunks() {
+		CassandraMutableAclService mutableAclService = (CassandraMutableAclService) service;
+		final List<Integer> progress = new ArrayList<Integer>();
+		final List<ObjectIdentity> deletedObjects = new ArrayList<ObjectIdentity>();
+		mutableAclService.setDeleteChunkSize(1);
+		mutableAclService.setDeletionListener(new AclDeletionListener() {
+			public void aclsDeleted(ObjectIdentity objectIdentity, List<ObjectIdentity> deleted, int deletedCount, int totalCount) {
+				deletedObjects.addAll(deleted);
+				progress.add(deletedCount);
+				assertEquals(3, totalCount);
+			}
+		});
+		try {
+			ObjectIdentity parentObjectIdentity = createDefaultTestOI();
+			MutableAcl parentMutableAcl = service.createAcl(parentObjectIdentity);
+			ObjectIdentity firstChildObjectIdentity = new ObjectIdentityImpl(aoi_class, "456");
+			MutableAcl firstChildMutableAcl = service.createAcl(firstChildObjectIdentity);
+			firstChildMutableAcl.setParent(parentMutableAcl);
+			firstChildMutableAcl = service.updateAcl(firstChildMutableAcl);
+			ObjectIdentity secondChildObjectIdentity = new ObjectIdentityImpl(aoi_class, "789");
+			MutableAcl secondChildMutableAcl = service.createAcl(secondChildObjectIdentity);
+			secondChildMutableAcl.setParent(firstChildMutableAcl);
+			service.updateAcl(secondChildMutableAcl);
+			
+			service.deleteAcl(parentObjectIdentity, true);
+			
+			// Deepest objects are deleted first, one per chunk
+			assertEquals(Arrays.asList(new Integer[] { 1, 2, 3 }), progress);
+			assertEquals(Arrays.asList(new ObjectIdentity[] { secondChildObjectIdentity, firstChildObjectIdentity, parentObjectIdentity }), deletedObjects);
+			for (ObjectIdentity oi : deletedObjects) {
+				try {
+					service.readAclById(oi);
+					fail("Expected NotFoundException");
+				} catch (NotFoundException e) {
+					// Expected exception
+				}
+			}
+		} finally {
+			mutableAclService.setDeleteChunkSize(1000);
+			mutableAclService.setDeletionListener(null);
+		}
+	}
+
+	@Test
+	public void testUpdateAclWritesThroughCurrentParent() {
+		AclCache aclCache = new BoundedAclCache(100);
+		CassandraMutableAclService cachingService = new CassandraMutableAclService(repository, aclCache, permissionGrantingStrategy, 
+				authorizationStrategy, permissionFactory);
+		
+		ObjectIdentity parentObjectIdentity = createDefaultTestOI();
+		MutableAcl parentAcl = cachingService.createAcl(parentObjectIdentity);
+		ObjectIdentity childObjectIdentity = new ObjectIdentityImpl(aoi_class, "456");
+		MutableAcl childAcl = cachingService.createAcl(childObjectIdentity);
+		childAcl.setParent(parentAcl);
+		MutableAcl staleChildAcl = cachingService.updateAcl(childAcl);
+		
+		// The parent changes and is evicted from the cache, while the child still holds its previous state
+		parentAcl.insertAce(0, BasePermission.READ, new PrincipalSid(sid1), true);
+		cachingService.updateAcl(parentAcl);
+		aclCache.evictFromCache(parentObjectIdentity);
+		assertEquals(0, staleChildAcl.getParentAcl().getEntries().size());
+		
+		// The child written through to the cache holds the current parent
+		staleChildAcl.insertAce(0, BasePermission.WRITE, new PrincipalSid(sid1), true);
+		MutableAcl updatedChildAcl = cachingService.updateAcl(staleChildAcl);
+		assertEquals(1, updatedChildAcl.getParentAcl().getEntries().size());
+		assertEquals(1, aclCache.getFromCache(childObjectIdentity).getParentAcl().getEntries().size());
+	}
+
 	@Test
 	public void testCreateFindUpdateDeleteAclWithParent() {
 		// Test createAcl
@@ -232,6 +350,189 @@ public class CassandraAclServiceTest {
 		assertNull(children);
 	}
 	
+	@Test
+	public void testReadAclsByIdSharedAncestors() {
+		ObjectIdentity rootObjectIdentity = createDefaultTestOI();
+		MutableAcl rootAcl = service.createAcl(rootObjectIdentity);
+
+		ObjectIdentity parentObjectIdentity = new ObjectIdentityImpl(aoi_class, "456");
+		MutableAcl parentAcl = service.createAcl(parentObjectIdentity);
+		parentAcl.setParent(rootAcl);
+		parentAcl = service.updateAcl(parentAcl);
+
+		List<ObjectIdentity> childObjectIdentities = new ArrayList<ObjectIdentity>();
+		for (String id : new String[] { "567", "789" }) {
+			ObjectIdentity childObjectIdentity = new ObjectIdentityImpl(aoi_class, id);
+			MutableAcl childAcl = service.createAcl(childObjectIdentity);
+			childAcl.setParent(parentAcl);
+			service.updateAcl(childAcl);
+			childObjectIdentities.add(childObjectIdentity);
+		}
+
+		Map<ObjectIdentity, Acl> resultMap = service.readAclsById(childObjectIdentities);
+		assertEquals(2, resultMap.size());
+		Acl firstParent = resultMap.get(childObjectIdentities.get(0)).getParentAcl();
+		Acl secondParent = resultMap.get(childObjectIdentities.get(1)).getParentAcl();
+		assertAcl(parentAcl, firstParent);
+		assertSame(firstParent, secondParent);
+		assertSame(firstParent.getParentAcl(), secondParent.getParentAcl());
+		assertAcl(rootAcl, firstParent.getParentAcl());
+	}
+
+	@Test
+	public void testReadAclByIdConcurrently() throws Exception {
+		final ObjectIdentity oi = createDefaultTestOI();
+		MutableAcl acl = service.createAcl(oi);
+		acl.insertAce(0, BasePermission.READ, new PrincipalSid(sid1), true);
+		final MutableAcl updatedAcl = service.updateAcl(acl);
+		
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 16; i++) {
+			Thread thread = new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						start.await();
+						assertAcl(updatedAcl, service.readAclById(oi));
+					} catch (Throwable t) {
+						failures.add(t);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+	}
+
+	@Test
+	public void testAclCollectionFilter() {
+		MutableAcl grantedAcl = service.createAcl(new ObjectIdentityImpl(aoi_class, "1"));
+		grantedAcl.insertAce(0, BasePermission.READ, new PrincipalSid(sid1), true);
+		service.updateAcl(grantedAcl);
+		service.createAcl(new ObjectIdentityImpl(aoi_class, "2"));
+		
+		AclCollectionFilter filter = new AclCollectionFilter((CassandraAclService) service);
+		filter.setObjectIdentityRetrievalStrategy(new ObjectIdentityRetrievalStrategy() {
+
+			public ObjectIdentity getObjectIdentity(Object domainObject) {
+				return new ObjectIdentityImpl(aoi_class, (String) domainObject);
+			}
+		});
+		
+		Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+		List<String> result = filter.filter(auth, Arrays.asList(new String[] { "1", "2", "3", null, "1" }), "read");
+		assertEquals(Arrays.asList(new String[] { "1", "1" }), result);
+	}
+
+	@Test
+	public void testReadAclByIdWithSidFiltering() {
+		CassandraAclService cassandraAclService = (CassandraAclService) service;
+		ObjectIdentity parentObjectIdentity = createDefaultTestOI();
+		MutableAcl parentAcl = service.createAcl(parentObjectIdentity);
+		parentAcl.insertAce(0, BasePermission.READ, new PrincipalSid(sid2), true);
+		parentAcl.insertAce(1, BasePermission.WRITE, new PrincipalSid(sid1), true);
+		parentAcl = service.updateAcl(parentAcl);
+		
+		ObjectIdentity childObjectIdentity = new ObjectIdentityImpl(aoi_class, "456");
+		MutableAcl childAcl = service.createAcl(childObjectIdentity);
+		childAcl.setParent(parentAcl);
+		childAcl.setEntriesInheriting(true);
+		childAcl.insertAce(0, BasePermission.READ, new PrincipalSid(sid2), true);
+		childAcl.insertAce(1, BasePermission.READ, new GrantedAuthoritySid(sid1), true);
+		childAcl.insertAce(2, BasePermission.READ, new PrincipalSid(sid1), false);
+		service.updateAcl(childAcl);
+		
+		cassandraAclService.setSidFilteringEnabled(true);
+		try {
+			List<Sid> sids = Arrays.asList(new Sid[] { new PrincipalSid(sid1) });
+			Acl filteredAcl = service.readAclById(childObjectIdentity, sids);
+			assertEquals(1, filteredAcl.getEntries().size());
+			assertEquals(new PrincipalSid(sid1), filteredAcl.getEntries().get(0).getSid());
+			assertEquals(1, filteredAcl.getParentAcl().getEntries().size());
+			assertTrue(filteredAcl.isSidLoaded(sids));
+			assertFalse(filteredAcl.isSidLoaded(Arrays.asList(new Sid[] { new PrincipalSid(sid2) })));
+			assertFalse(filteredAcl.isGranted(Arrays.asList(new Permission[] { BasePermission.READ }), sids, false));
+			assertTrue(filteredAcl.isGranted(Arrays.asList(new Permission[] { BasePermission.WRITE }), sids, false));
+			
+			// A partially loaded Acl is never returned for all entries
+			assertEquals(3, service.readAclById(childObjectIdentity).getEntries().size());
+		} finally {
+			cassandraAclService.setSidFilteringEnabled(false);
+		}
+	}
+
+	@Test
+	public void testEffectivePermissions() {
+		CassandraMutableAclService mutableAclService = (CassandraMutableAclService) service;
+		repository.createPermissionsTable();
+		mutableAclService.setEffectivePermissionsEnabled(true);
+		try {
+			CassandraPermissionEvaluator evaluator = new CassandraPermissionEvaluator(service, repository);
+			Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+			
+			ObjectIdentity parentObjectIdentity = createDefaultTestOI();
+			MutableAcl parentAcl = service.createAcl(parentObjectIdentity);
+			ObjectIdentity childObjectIdentity = new ObjectIdentityImpl(aoi_class, "456");
+			MutableAcl childAcl = service.createAcl(childObjectIdentity);
+			childAcl.setParent(parentAcl);
+			childAcl.setEntriesInheriting(true);
+			childAcl = service.updateAcl(childAcl);
+			assertFalse(evaluator.hasPermission(auth, "456", aoi_class, BasePermission.READ));
+			
+			// Entries of the parent are propagated to the child
+			parentAcl.insertAce(0, BasePermission.READ, new PrincipalSid(sid1), true);
+			parentAcl.insertAce(1, BasePermission.WRITE, new GrantedAuthoritySid(ROLE_ADMIN), false);
+			parentAcl = service.updateAcl(parentAcl);
+			assertTrue(evaluator.hasPermission(auth, "456", aoi_class, BasePermission.READ));
+			assertFalse(evaluator.hasPermission(auth, "456", aoi_class, BasePermission.WRITE));
+			assertTrue(evaluator.hasPermission(auth, "456", aoi_class, new Permission[] { BasePermission.WRITE, BasePermission.READ }));
+			
+			// The nearest entry decides
+			childAcl.insertAce(0, BasePermission.READ, new GrantedAuthoritySid(ROLE_ADMIN), false);
+			childAcl = service.updateAcl(childAcl);
+			assertFalse(evaluator.hasPermission(auth, "456", aoi_class, BasePermission.READ));
+			assertTrue(evaluator.hasPermission(auth, aoi_id, aoi_class, BasePermission.READ));
+			
+			service.deleteAcl(parentObjectIdentity, true);
+			assertFalse(evaluator.hasPermission(auth, aoi_id, aoi_class, BasePermission.READ));
+		} finally {
+			mutableAclService.setEffectivePermissionsEnabled(false);
+		}
+	}
+
+	@Test
+	public void testRefreshEffectivePermissionsDanglingChild() {
+		CassandraMutableAclService mutableAclService = (CassandraMutableAclService) service;
+		repository.createPermissionsTable();
+		
+		ObjectIdentity parentObjectIdentity = createDefaultTestOI();
+		MutableAcl parentAcl = service.createAcl(parentObjectIdentity);
+		for (String id : new String[] { "456", "789" }) {
+			MutableAcl childAcl = service.createAcl(new ObjectIdentityImpl(aoi_class, id));
+			childAcl.setParent(parentAcl);
+			childAcl.setEntriesInheriting(true);
+			service.updateAcl(childAcl);
+		}
+		
+		// A row of the children table pointing to an object that no longer exists is skipped
+		session.execute("DELETE FROM " + KEYSPACE + ".aois WHERE id = '" + aoi_class + ":456'");
+		parentAcl.insertAce(0, BasePermission.READ, new PrincipalSid(sid1), true);
+		parentAcl = service.updateAcl(parentAcl);
+		mutableAclService.refreshEffectivePermissions(parentObjectIdentity);
+		
+		CassandraPermissionEvaluator evaluator = new CassandraPermissionEvaluator(service, repository);
+		Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+		assertTrue(evaluator.hasPermission(auth, "789", aoi_class, BasePermission.READ));
+	}
+
 	@Test
 	@ExpectedException(IllegalArgumentException.class)
 	public void testCreateNullAcl() {
@@ -0,0 +1,138 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.cache;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AclAuthorizationStrategyImpl;
+import org.springframework.security.acls.domain.AclImpl;
+import org.springframework.security.acls.domain.ConsoleAuditLogger;
+import org.springframework.security.acls.domain.DefaultPermissionGrantingStrategy;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+public class BoundedAclCacheTest {
+
+	private static final String aoi_class = "a.b.c.Class";
+
+	private final AclAuthorizationStrategy authorizationStrategy = new AclAuthorizationStrategyImpl(new SimpleGrantedAuthority("ROLE_ADMIN"));
+
+	@Test
+	public void testPutGetEvict() {
+		BoundedAclCache cache = new BoundedAclCache(10);
+		MutableAcl acl = createAcl("123");
+		cache.putInCache(acl);
+		
+		assertSame(acl, cache.getFromCache(acl.getObjectIdentity()));
+		assertSame(acl, cache.getFromCache(acl.getId()));
+		assertEquals(2, cache.getHitCount());
+		
+		cache.evictFromCache(acl.getId());
+		assertNull(cache.getFromCache(acl.getObjectIdentity()));
+		assertNull(cache.getFromCache(acl.getId()));
+		assertEquals(2, cache.getMissCount());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() {
+		BoundedAclCache cache = new BoundedAclCache(2, 0, 1);
+		MutableAcl acl1 = createAcl("1");
+		MutableAcl acl2 = createAcl("2");
+		MutableAcl acl3 = createAcl("3");
+		cache.putInCache(acl1);
+		cache.putInCache(acl2);
+		
+		// Touch the first entry so that the second is the least recently used
+		assertNotNull(cache.getFromCache(acl1.getObjectIdentity()));
+		cache.putInCache(acl3);
+		
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertSame(acl1, cache.getFromCache(acl1.getObjectIdentity()));
+		assertNull(cache.getFromCache(acl2.getObjectIdentity()));
+		assertNull(cache.getFromCache(acl2.getId()));
+		assertSame(acl3, cache.getFromCache(acl3.getObjectIdentity()));
+	}
+
+	@Test
+	public void testMaxEntriesAcrossSegments() {
+		BoundedAclCache cache = new BoundedAclCache(100);
+		for (int i = 0; i < 1000; i++) {
+			cache.putInCache(createAcl(String.valueOf(i)));
+		}
+		assertTrue(cache.size() <= 100);
+		assertEquals(1000 - cache.size(), cache.getEvictionCount());
+	}
+
+	@Test
+	public void testExpireAfterWrite() {
+		final long[] now = new long[] { 0 };
+		BoundedAclCache cache = new BoundedAclCache(10, 1000) {
+
+			@Override
+			protected long currentTimeMillis() {
+				return now[0];
+			}
+		};
+		MutableAcl acl = createAcl("123");
+		cache.putInCache(acl);
+		
+		now[0] = 999;
+		assertSame(acl, cache.getFromCache(acl.getObjectIdentity()));
+		now[0] = 1000;
+		assertNull(cache.getFromCache(acl.getObjectIdentity()));
+		assertEquals(1, cache.getExpirationCount());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testParentIsCached() {
+		BoundedAclCache cache = new BoundedAclCache(10);
+		MutableAcl parent = createAcl("1");
+		MutableAcl child = new AclImpl(new ObjectIdentityImpl(aoi_class, "2"), "2", authorizationStrategy, 
+				new DefaultPermissionGrantingStrategy(new ConsoleAuditLogger()), parent, null, true, new PrincipalSid("sid1@system"));
+		cache.putInCache(child);
+		
+		assertSame(parent, cache.getFromCache(parent.getObjectIdentity()));
+		assertSame(child, cache.getFromCache(child.getObjectIdentity()));
+	}
+
+	@Test
+	public void testClearCache() {
+		BoundedAclCache cache = new BoundedAclCache(10);
+		MutableAcl acl = createAcl("123");
+		cache.putInCache(acl);
+		cache.clearCache();
+		
+		assertEquals(0, cache.size());
+		assertNull(cache.getFromCache(acl.getId()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidMaxEntries() {
+		new BoundedAclCache(0);
+	}
+
+	private MutableAcl createAcl(String id) {
+		ObjectIdentity objectIdentity = new ObjectIdentityImpl(aoi_class, id);
+		return new AclImpl(objectIdentity, id, authorizationStrategy, new ConsoleAuditLogger());
+	}
+}
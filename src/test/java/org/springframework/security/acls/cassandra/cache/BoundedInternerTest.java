@@ -0,0 +1,107 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.cache;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.springframework.security.acls.cassandra.model.AclEntry;
+import org.springframework.security.acls.cassandra.model.AclObjectIdentity;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.CumulativePermission;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.Permission;
+
+public class BoundedInternerTest {
+
+	private static final String sid1 = "sid1@some.com";
+
+	@Test
+	public void testEvictLeastRecentlyUsed() {
+		BoundedInterner<String, String> interner = new BoundedInterner<String, String>(2);
+		String first = new String("a");
+		assertSame(first, interner.intern("a", first));
+		assertSame(first, interner.intern("a", new String("a")));
+		assertSame(first, interner.get("a"));
+		String second = new String("b");
+		assertSame(second, interner.intern("b", second));
+		
+		// Full, the least recently used value makes room for the new one
+		assertSame(first, interner.get("a"));
+		String third = new String("c");
+		assertSame(third, interner.intern("c", third));
+		assertNull(interner.get("b"));
+		assertSame(first, interner.get("a"));
+		assertSame(third, interner.get("c"));
+		assertEquals(2, interner.size());
+		
+		interner.clear();
+		assertEquals(0, interner.size());
+	}
+
+	@Test
+	public void testSharedSids() {
+		AclEntry entry1 = new AclEntry();
+		entry1.setSid(sid1);
+		entry1.setSidPrincipal(true);
+		AclEntry entry2 = new AclEntry();
+		entry2.setSid(new String(sid1));
+		entry2.setSidPrincipal(true);
+		AclObjectIdentity aoi = new AclObjectIdentity();
+		aoi.setOwnerId(sid1);
+		aoi.setOwnerPrincipal(true);
+		
+		assertEquals(new PrincipalSid(sid1), entry1.getSidObject());
+		assertSame(entry1.getSidObject(), entry2.getSidObject());
+		assertSame(entry1.getSidObject(), aoi.getOwnerSid());
+		assertNotSame(entry1.getSidObject(), AclInterners.grantedAuthoritySid(sid1));
+	}
+
+	@Test
+	public void testRowIdRecomputedOnChange() {
+		AclObjectIdentity aoi = new AclObjectIdentity();
+		aoi.setObjectClass("a.b.c.Class");
+		aoi.setId("1");
+		assertEquals("a.b.c.Class:1", aoi.getRowId());
+		assertSame(aoi.getRowId(), aoi.getRowId());
+		aoi.setId("2");
+		assertEquals("a.b.c.Class:2", aoi.getRowId());
+	}
+
+	@Test
+	public void testObjectClassInternedByConstructor() {
+		AclObjectIdentity aoi = new AclObjectIdentity(new ObjectIdentityImpl(new String("a.b.c.Class"), "1"));
+		assertSame(AclInterners.objectClass("a.b.c.Class"), aoi.getObjectClass());
+	}
+
+	@Test
+	public void testInterningPermissionFactory() {
+		InterningPermissionFactory factory = new InterningPermissionFactory(new DefaultPermissionFactory());
+		int mask = BasePermission.READ.getMask() | BasePermission.WRITE.getMask();
+		assertSame(BasePermission.READ, factory.buildFromMask(BasePermission.READ.getMask()));
+		assertSame(factory.buildFromMask(BasePermission.READ.getMask()), factory.buildFromMask(BasePermission.READ.getMask()));
+		assertEquals(BasePermission.READ, factory.buildFromName("READ"));
+		
+		// Cumulative permissions can be changed, so they are never shared
+		Permission permission = factory.buildFromMask(mask);
+		assertEquals(mask, permission.getMask());
+		assertNotSame(permission, factory.buildFromMask(mask));
+		((CumulativePermission) permission).clear(BasePermission.WRITE);
+		assertEquals(mask, factory.buildFromMask(mask).getMask());
+	}
+
+}
@@ -18,10 +18,13 @@ import static org.junit.Assert.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
@@ -29,9 +32,14 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.acls.cassandra.model.AclEntry;
+import org.springframework.security.acls.cassandra.model.AclObjectEntries;
 import org.springframework.security.acls.cassandra.model.AclObjectIdentity;
+import org.springframework.security.acls.cassandra.model.AclPage;
 import org.springframework.security.acls.cassandra.repository.exceptions.AclAlreadyExistsException;
 import org.springframework.security.acls.cassandra.repository.exceptions.AclNotFoundException;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.Sid;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -117,6 +125,251 @@ public class CassandraAclRepositoryTest {
 		assertNull(aoi);
 	}
 
+	@Test
+	public void testSaveFindUpdateDeleteAclUnprepared() {
+		service.setUsePreparedStatements(false);
+		try {
+			testSaveFindUpdateDeleteAcl();
+		} finally {
+			service.setUsePreparedStatements(true);
+		}
+	}
+
+	@Test
+	public void testVariableStatementsPreparedByShape() {
+		AclObjectIdentity root = createTestAOI("1", null);
+		service.saveAcl(root);
+		List<AclObjectIdentity> aois = new ArrayList<AclObjectIdentity>();
+		for (int i = 0; i < 3; i++) {
+			AclObjectIdentity child = createTestAOI("child" + i, root);
+			service.saveAcl(child);
+			aois.add(child);
+		}
+		service.updateAcl(root, Arrays.asList(new AclEntry[] { createTestAclEntry(sid1, 0) }));
+		service.findAcls(Arrays.asList(new AclObjectIdentity[] { root }));
+		assertTrue(service.awaitPendingStatements(10, TimeUnit.SECONDS));
+		int preparedCount = service.getPreparedStatementCount();
+		
+		// Page sizes, IN lists and batches depending on the request are prepared by shape, outside the statement registry
+		for (int pageSize = 1; pageSize < 5; pageSize++) {
+			service.findAclObjectIdentityChildren(root, null, pageSize);
+		}
+		for (int i = 2; i <= aois.size(); i++) {
+			service.findAcls(aois.subList(0, i));
+		}
+		service.updateAcl(root, Arrays.asList(new AclEntry[] { createTestAclEntry(sid1, 0), createTestAclEntry(ROLE_ADMIN, 1) }));
+		assertTrue(service.awaitPendingStatements(10, TimeUnit.SECONDS));
+		assertEquals(preparedCount, service.getPreparedStatementCount());
+		int shapeCount = service.getPreparedShapeCount();
+		assertTrue(shapeCount > 0);
+		
+		// Requests of the same shapes reuse the prepared statements
+		for (int pageSize = 1; pageSize < 5; pageSize++) {
+			assertEquals(Math.min(pageSize, aois.size()), service.findAclObjectIdentityChildren(root, null, pageSize).getContent().size());
+		}
+		for (int i = 2; i <= aois.size(); i++) {
+			assertEquals(i, service.findAcls(aois.subList(0, i)).size());
+		}
+		AclEntry changedEntry = createTestAclEntry(ROLE_ADMIN, 1);
+		changedEntry.setMask(2);
+		service.updateAcl(root, Arrays.asList(new AclEntry[] { createTestAclEntry(sid1, 0), changedEntry }));
+		assertTrue(service.awaitPendingStatements(10, TimeUnit.SECONDS));
+		assertEquals(shapeCount, service.getPreparedShapeCount());
+		assertEquals(2, service.findAcls(Arrays.asList(new AclObjectIdentity[] { root })).values().iterator().next().size());
+	}
+
+	@Test
+	public void testStatementsPreparedInBackground() {
+		AclObjectIdentity aoi = createDefaultTestAOI();
+		service.saveAcl(aoi);
+		service.clearPreparedStatements();
+		
+		// Statements are sent unprepared until the prepare executor has prepared them
+		assertAclObjectIdentity(aoi, service.findAclObjectIdentity(aoi));
+		assertTrue(service.awaitPendingStatements(10, TimeUnit.SECONDS));
+		int preparedCount = service.getPreparedStatementCount();
+		assertTrue(preparedCount > 0);
+		assertAclObjectIdentity(aoi, service.findAclObjectIdentity(aoi));
+		assertEquals(preparedCount, service.getPreparedStatementCount());
+	}
+
+	@Test
+	public void testUpdateAclChangedEntries() {
+		AclObjectIdentity aoi = createDefaultTestAOI();
+		service.saveAcl(aoi);
+		AclEntry entry1 = createTestAclEntry(sid1, 0);
+		AclEntry entry2 = createTestAclEntry(ROLE_ADMIN, 1);
+		service.updateAcl(aoi, Arrays.asList(new AclEntry[] { entry1, entry2 }));
+		
+		// Change the first entry, replace the second and add a third
+		AclEntry changedEntry1 = createTestAclEntry(sid1, 0);
+		changedEntry1.setMask(2);
+		AclEntry entry3 = createTestAclEntry(sid1, 1);
+		AclEntry entry4 = createTestAclEntry(ROLE_ADMIN, 2);
+		List<AclEntry> entries = Arrays.asList(new AclEntry[] { changedEntry1, entry3, entry4 });
+		service.updateAcl(aoi, entries);
+		// Writes nothing
+		service.updateAcl(aoi, entries);
+		
+		Set<AclEntry> aclEntries = service.findAcls(Arrays.asList(new AclObjectIdentity[] { aoi })).values().iterator().next();
+		assertEquals(3, aclEntries.size());
+		Iterator<AclEntry> it = aclEntries.iterator();
+		assertAclEntry(aoi, changedEntry1, it.next());
+		assertAclEntry(aoi, entry3, it.next());
+		assertAclEntry(aoi, entry4, it.next());
+	}
+
+	@Test
+	public void testUpdateAclManyEntries() {
+		AclObjectIdentity aoi = createDefaultTestAOI();
+		service.saveAcl(aoi);
+		List<AclEntry> entries = new ArrayList<AclEntry>();
+		for (int i = 0; i < 250; i++) {
+			entries.add(createTestAclEntry(sid1, i));
+		}
+		service.updateAcl(aoi, entries);
+		assertEquals(250, service.findAcls(Arrays.asList(new AclObjectIdentity[] { aoi })).values().iterator().next().size());
+		
+		// Changes and removals of one object are written together, whatever their number
+		List<AclEntry> changedEntries = new ArrayList<AclEntry>();
+		for (int i = 0; i < 200; i++) {
+			AclEntry entry = createTestAclEntry(sid1, i);
+			entry.setMask(2);
+			changedEntries.add(entry);
+		}
+		service.updateAcl(aoi, changedEntries);
+		
+		Set<AclEntry> aclEntries = service.findAcls(Arrays.asList(new AclObjectIdentity[] { aoi })).values().iterator().next();
+		assertEquals(200, aclEntries.size());
+		for (AclEntry entry : aclEntries) {
+			assertEquals(2, entry.getMask());
+		}
+	}
+
+	@Test
+	public void testUpdateAclManyIndexedEntries() {
+		service.createAclsBySidTable();
+		service.setSidIndexEnabled(true);
+		try {
+			AclObjectIdentity aoi = createDefaultTestAOI();
+			service.saveAcl(aoi);
+			List<AclEntry> entries = new ArrayList<AclEntry>();
+			for (int i = 0; i < 250; i++) {
+				entries.add(createTestAclEntry(sid1, i));
+			}
+			
+			// Changes spanning the partitions of the index are written with several logged batches
+			service.updateAcl(aoi, entries);
+			assertEquals(250, service.findAcls(Arrays.asList(new AclObjectIdentity[] { aoi })).values().iterator().next().size());
+			AclPage<AclObjectEntries> page = service.findAclEntriesBySid(new PrincipalSid(sid1), null, null, 100);
+			assertEquals(1, page.getContent().size());
+			assertEquals(250, page.getContent().get(0).getEntries().size());
+			
+			service.updateAcl(aoi, entries.subList(0, 50));
+			page = service.findAclEntriesBySid(new PrincipalSid(sid1), null, null, 100);
+			assertEquals(50, page.getContent().get(0).getEntries().size());
+		} finally {
+			service.setSidIndexEnabled(false);
+		}
+	}
+
+	@Test
+	public void testUpdateAclVersion() {
+		AclObjectIdentity aoi = createDefaultTestAOI();
+		service.saveAcl(aoi);
+		AclObjectIdentity persistedAoi = service.findAclObjectIdentity(aoi);
+		assertEquals(0, persistedAoi.getVersion());
+		
+		// Without lightweight transactions the persisted state is read and the version is not written
+		List<AclEntry> entries = Arrays.asList(new AclEntry[] { createTestAclEntry(sid1, 0) });
+		service.updateAcl(aoi, entries, persistedAoi, new ArrayList<AclEntry>());
+		assertEquals(0, aoi.getVersion());
+		assertEquals(0, service.findAclObjectIdentity(aoi).getVersion());
+		
+		// Nothing is written when nothing changed
+		service.updateAcl(aoi, entries, persistedAoi, new ArrayList<AclEntry>());
+		assertEquals(0, service.findAclObjectIdentity(aoi).getVersion());
+		assertEquals(1, service.findAcls(Arrays.asList(new AclObjectIdentity[] { aoi })).values().iterator().next().size());
+	}
+
+	@Test
+	public void testUpdateAclVersionConditionally() {
+		service.setLightweightTransactionsEnabled(true);
+		try {
+			AclObjectIdentity aoi = createDefaultTestAOI();
+			service.saveAcl(aoi);
+			AclObjectIdentity staleAoi = service.findAclObjectIdentity(aoi);
+			assertEquals(0, staleAoi.getVersion());
+			
+			List<AclEntry> entries = Arrays.asList(new AclEntry[] { createTestAclEntry(sid1, 0) });
+			service.updateAcl(aoi, entries, staleAoi, new ArrayList<AclEntry>());
+			assertEquals(1, aoi.getVersion());
+			assertEquals(1, service.findAclObjectIdentity(aoi).getVersion());
+			
+			// The outdated previous state is detected, and the changes are computed against the persisted state
+			AclObjectIdentity changedAoi = createDefaultTestAOI();
+			changedAoi.setEntriesInheriting(false);
+			List<AclEntry> changedEntries = Arrays.asList(new AclEntry[] { createTestAclEntry(sid1, 0), createTestAclEntry(ROLE_ADMIN, 1) });
+			service.updateAcl(changedAoi, changedEntries, staleAoi, new ArrayList<AclEntry>());
+			assertEquals(2, changedAoi.getVersion());
+			AclObjectIdentity persistedAoi = service.findAclObjectIdentity(aoi);
+			assertEquals(2, persistedAoi.getVersion());
+			assertFalse(persistedAoi.isEntriesInheriting());
+			assertEquals(2, service.findAcls(Arrays.asList(new AclObjectIdentity[] { aoi })).values().iterator().next().size());
+			
+			// Nothing is written when nothing changed compared to the persisted state
+			service.updateAcl(changedAoi, changedEntries, staleAoi, new ArrayList<AclEntry>());
+			assertEquals(2, changedAoi.getVersion());
+			assertEquals(2, service.findAclObjectIdentity(aoi).getVersion());
+			
+			// Updates without a previous state are conditional on the version read
+			service.updateAcl(aoi, entries);
+			assertEquals(3, aoi.getVersion());
+			assertEquals(3, service.findAclObjectIdentity(aoi).getVersion());
+			assertEquals(1, service.findAcls(Arrays.asList(new AclObjectIdentity[] { aoi })).values().iterator().next().size());
+		} finally {
+			service.setLightweightTransactionsEnabled(false);
+		}
+	}
+
+	@Test
+	public void testUpdateAclConcurrently() throws Exception {
+		service.setLightweightTransactionsEnabled(true);
+		try {
+			AclObjectIdentity aoi = createDefaultTestAOI();
+			service.saveAcl(aoi);
+			
+			final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int i = 0; i < 8; i++) {
+				final AclObjectIdentity changedAoi = createDefaultTestAOI();
+				changedAoi.setOwnerId("owner" + i);
+				Thread thread = new Thread() {
+
+					@Override
+					public void run() {
+						try {
+							service.updateAcl(changedAoi, new ArrayList<AclEntry>());
+						} catch (Throwable t) {
+							failures.add(t);
+						}
+					}
+				};
+				thread.start();
+				threads.add(thread);
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			
+			// Every update has been applied on top of the previous one, none has been lost
+			assertTrue(failures.toString(), failures.isEmpty());
+			assertEquals(8, service.findAclObjectIdentity(aoi).getVersion());
+		} finally {
+			service.setLightweightTransactionsEnabled(false);
+		}
+	}
+
 	@Test
 	public void testFindAclListManyAcls() {
 		AclObjectIdentity newAoi1 = createDefaultTestAOI();
@@ -159,6 +412,196 @@ public class CassandraAclRepositoryTest {
 		}	
 	}
 
+	@Test
+	public void testFindAclListManyAclsParallelPartitions() {
+		service.setReadStrategy(ReadStrategy.PARALLEL_PARTITIONS);
+		try {
+			testFindAclListManyAcls();
+		} finally {
+			service.setReadStrategy(ReadStrategy.IN_QUERY);
+		}
+	}
+
+	@Test
+	public void testFindAclListManyAclsSlicedInQueries() {
+		service.setMaxPartitionsPerQuery(1);
+		try {
+			testFindAclListManyAcls();
+		} finally {
+			service.setMaxPartitionsPerQuery(100);
+		}
+	}
+
+	@Test
+	public void testSaveUpdateFindAclAsync() throws Exception {
+		AclObjectIdentity newAoi = createDefaultTestAOI();
+		service.saveAclAsync(newAoi).get();
+
+		AclEntry entry1 = createTestAclEntry(sid1, 0);
+		service.updateAclAsync(newAoi, Arrays.asList(new AclEntry[] { entry1 })).get();
+
+		assertAclObjectIdentity(newAoi, service.findAclObjectIdentityAsync(newAoi).get());
+		Map<AclObjectIdentity, Set<AclEntry>> result = service.findAclsAsync(Arrays.asList(new AclObjectIdentity[] { newAoi })).get();
+		assertEquals(1, result.size());
+		assertAclObjectIdentity(newAoi, result.keySet().iterator().next());
+		assertAclEntry(newAoi, entry1, result.values().iterator().next().iterator().next());
+	}
+
+	@Test
+	public void testFindAclsBatched() throws Exception {
+		final List<AclObjectIdentity> aois = new ArrayList<AclObjectIdentity>();
+		for (int i = 0; i < 4; i++) {
+			AclObjectIdentity newAoi = createDefaultTestAOI();
+			newAoi.setId(String.valueOf(i));
+			service.saveAcl(newAoi);
+			service.updateAcl(newAoi, Arrays.asList(new AclEntry[] { createTestAclEntry(sid1, 0) }));
+			aois.add(newAoi);
+		}
+		
+		// The delay is long enough that only the batch size triggers the merged calls, so 16 lookups make exactly 2 batches
+		final BatchingCassandraAclRepository batchingRepository = new BatchingCassandraAclRepository(service, 30, TimeUnit.SECONDS, 8);
+		try {
+			final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int i = 0; i < 16; i++) {
+				final AclObjectIdentity aoi = aois.get(i % aois.size());
+				Thread thread = new Thread() {
+
+					@Override
+					public void run() {
+						try {
+							Map<AclObjectIdentity, Set<AclEntry>> result = batchingRepository.findAcls(Arrays.asList(new AclObjectIdentity[] { aoi }));
+							assertEquals(1, result.size());
+							assertAclObjectIdentity(aoi, result.keySet().iterator().next());
+							assertAclEntry(aoi, createTestAclEntry(sid1, 0), result.values().iterator().next().iterator().next());
+						} catch (Throwable t) {
+							failures.add(t);
+						}
+					}
+				};
+				thread.start();
+				threads.add(thread);
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			
+			assertTrue(failures.toString(), failures.isEmpty());
+			assertEquals(16, batchingRepository.getLookupCount());
+			assertEquals(2, batchingRepository.getBatchCount());
+			assertTrue(batchingRepository.getLargestBatchSize() <= aois.size());
+		} finally {
+			batchingRepository.shutdown();
+		}
+	}
+
+	@Test
+	public void testAncestorPaths() {
+		service.createAncestorsTable();
+		service.setAncestorPathsEnabled(true);
+		try {
+			AclObjectIdentity root1 = createTestAOI("1", null);
+			AclObjectIdentity root2 = createTestAOI("2", null);
+			AclObjectIdentity middle = createTestAOI("3", root1);
+			AclObjectIdentity leaf = createTestAOI("4", middle);
+			service.saveAcl(root1);
+			service.saveAcl(root2);
+			service.saveAcl(middle);
+			service.saveAcl(leaf);
+			assertAncestors(service.findAclObjectIdentityAncestors(Arrays.asList(new AclObjectIdentity[] { leaf })), leaf, middle, root1);
+			
+			// Moving the middle object rewrites the path of its descendants
+			middle.setParentObjectId(root2.getId());
+			service.updateAcl(middle, new ArrayList<AclEntry>());
+			assertAncestors(service.findAclObjectIdentityAncestors(Arrays.asList(new AclObjectIdentity[] { leaf })), leaf, middle, root2);
+			
+			// Removing the parent shortens the paths
+			middle.setParentObjectId(null);
+			middle.setParentObjectClass(null);
+			service.updateAcl(middle, new ArrayList<AclEntry>());
+			Map<AclObjectIdentity, List<AclObjectIdentity>> result = service.findAclObjectIdentityAncestors(Arrays.asList(new AclObjectIdentity[] { middle, leaf }));
+			assertFalse(result.containsKey(middle));
+			assertAncestors(result, leaf, middle);
+		} finally {
+			service.setAncestorPathsEnabled(false);
+		}
+	}
+
+	@Test
+	public void testAncestorPathsManyChildren() {
+		service.createAncestorsTable();
+		service.setAncestorPathsEnabled(true);
+		service.setChildrenPageSize(2);
+		try {
+			AclObjectIdentity root1 = createTestAOI("1", null);
+			AclObjectIdentity root2 = createTestAOI("2", null);
+			AclObjectIdentity middle = createTestAOI("3", root1);
+			service.saveAcl(root1);
+			service.saveAcl(root2);
+			service.saveAcl(middle);
+			List<AclObjectIdentity> leaves = new ArrayList<AclObjectIdentity>();
+			for (int i = 10; i < 15; i++) {
+				AclObjectIdentity leaf = createTestAOI(String.valueOf(i), middle);
+				service.saveAcl(leaf);
+				leaves.add(leaf);
+			}
+			
+			// The children of the moved object are read over several pages
+			middle.setParentObjectId(root2.getId());
+			service.updateAcl(middle, new ArrayList<AclEntry>());
+			Map<AclObjectIdentity, List<AclObjectIdentity>> result = service.findAclObjectIdentityAncestors(leaves);
+			for (AclObjectIdentity leaf : leaves) {
+				assertAncestors(result, leaf, middle, root2);
+			}
+		} finally {
+			service.setChildrenPageSize(1000);
+			service.setAncestorPathsEnabled(false);
+		}
+	}
+
+	@Test
+	public void testFindAclEntriesBySid() {
+		service.createAclsBySidTable();
+		service.setSidIndexEnabled(true);
+		try {
+			AclObjectIdentity aoi1 = createTestAOI("1", null);
+			AclObjectIdentity aoi2 = createTestAOI("2", null);
+			AclObjectIdentity other = createTestAOI("3", null);
+			other.setObjectClass("a.b.c.Other");
+			for (AclObjectIdentity aoi : new AclObjectIdentity[] { aoi1, aoi2, other }) {
+				service.saveAcl(aoi);
+				service.updateAcl(aoi, Arrays.asList(new AclEntry[] { createTestAclEntry(sid1, 0), createTestAclEntry(sid1, 1), 
+						createTestAclEntry(ROLE_ADMIN, 2) }));
+			}
+			PrincipalSid sid = new PrincipalSid(sid1);
+			
+			// A page ending within an object holds all entries of that object
+			AclPage<AclObjectEntries> page = service.findAclEntriesBySid(sid, aoi_class, null, 1);
+			assertEquals(1, page.getContent().size());
+			assertEquals(aoi1.getId(), page.getContent().get(0).getObjectIdentity().getId());
+			assertEquals(2, page.getContent().get(0).getEntries().size());
+			assertTrue(page.hasNext());
+			page = service.findAclEntriesBySid(sid, aoi_class, page.getPagingState(), 1);
+			assertEquals(aoi2.getId(), page.getContent().get(0).getObjectIdentity().getId());
+			page = service.findAclEntriesBySid(sid, aoi_class, page.getPagingState(), 1);
+			assertTrue(page.getContent().isEmpty());
+			assertFalse(page.hasNext());
+			
+			assertEquals(3, service.findAclEntriesBySid(sid, null, null, 100).getContent().size());
+			assertEquals(3, service.findAclEntriesBySid(new GrantedAuthoritySid(ROLE_ADMIN), null, null, 100).getContent().size());
+			
+			// Removed entries and deleted objects leave the index
+			service.updateAcl(aoi2, Arrays.asList(new AclEntry[] { createTestAclEntry(ROLE_ADMIN, 0) }));
+			service.deleteAcls(Arrays.asList(new AclObjectIdentity[] { aoi1 }));
+			page = service.findAclEntriesBySid(sid, null, null, 100);
+			assertEquals(1, page.getContent().size());
+			assertEquals(other.getObjectClass(), page.getContent().get(0).getObjectIdentity().getObjectClass());
+			assertFalse(page.hasNext());
+		} finally {
+			service.setSidIndexEnabled(false);
+		}
+	}
+
 	@Test
 	@ExpectedException(IllegalArgumentException.class)
 	public void testFindAclListEmpty() {
@@ -211,6 +654,178 @@ public class CassandraAclRepositoryTest {
 		assertEquals(newAoi2.getObjectClass(), children.get(0).getObjectClass());
 	}
 
+	@Test
+	public void testFindChildrenOfAclObjectIdentities() {
+		AclObjectIdentity root = createTestAOI("1", null);
+		AclObjectIdentity child1 = createTestAOI("2", root);
+		AclObjectIdentity child2 = createTestAOI("3", root);
+		AclObjectIdentity grandChild = createTestAOI("4", child1);
+		for (AclObjectIdentity aoi : new AclObjectIdentity[] { root, child1, child2, grandChild }) {
+			service.saveAcl(aoi);
+		}
+		
+		Map<AclObjectIdentity, List<AclObjectIdentity>> result = service.findChildrenOfAclObjectIdentities(
+				Arrays.asList(new AclObjectIdentity[] { root, child1, grandChild }));
+		assertEquals(3, result.size());
+		assertEquals(2, result.get(root).size());
+		assertEquals(1, result.get(child1).size());
+		assertEquals(grandChild.getId(), result.get(child1).get(0).getId());
+		assertTrue(result.get(grandChild).isEmpty());
+	}
+
+	@Test
+	public void testOrphanAclSweeper() {
+		AclObjectIdentity root = createTestAOI("1", null);
+		AclObjectIdentity child = createTestAOI("2", root);
+		service.saveAcl(root);
+		service.saveAcl(child);
+		service.updateAcl(child, Arrays.asList(new AclEntry[] { createTestAclEntry(sid1, 0) }));
+		
+		// Remove only the object record, leaving its entries and its row in the children of the root
+		session.execute("DELETE FROM " + KEYSPACE + ".aois WHERE id = '" + child.getRowId() + "'");
+		
+		OrphanAclSweeper sweeper = new OrphanAclSweeper(session);
+		sweeper.setMaxDeletesPerSecond(0);
+		sweeper.setDryRun(true);
+		OrphanSweepReport report = sweeper.sweep();
+		assertEquals(1, report.getOrphanAclPartitions());
+		assertEquals(1, report.getDanglingChildren());
+		assertEquals(0, report.getDeletes());
+		assertEquals(1, service.findAclObjectIdentityChildren(root).size());
+		
+		sweeper.setDryRun(false);
+		report = sweeper.sweep();
+		assertEquals(1, report.getOrphanAclPartitions());
+		assertEquals(1, report.getDanglingChildren());
+		assertEquals(0, report.getOrphanChildrenPartitions());
+		assertEquals(0, report.getAoisWithMissingParent());
+		assertEquals(2, report.getDeletes());
+		assertTrue(service.findAclObjectIdentityChildren(root).isEmpty());
+		assertTrue(session.execute("SELECT * FROM " + KEYSPACE + ".acls WHERE id = '" + child.getRowId() + "'").all().isEmpty());
+		
+		report = sweeper.sweep();
+		assertEquals(0, report.getDeletes());
+	}
+
+	@Test
+	public void testSidIndexConsistentOnDelete() {
+		service.createAclsBySidTable();
+		service.setSidIndexEnabled(true);
+		try {
+			List<AclObjectIdentity> aois = new ArrayList<AclObjectIdentity>();
+			for (int i = 0; i < 3; i++) {
+				AclObjectIdentity aoi = createTestAOI(String.valueOf(i), null);
+				service.saveAcl(aoi);
+				service.updateAcl(aoi, Arrays.asList(new AclEntry[] { createTestAclEntry(sid1, 0), createTestAclEntry(ROLE_ADMIN, 1) }));
+				aois.add(aoi);
+			}
+			PrincipalSid sid = new PrincipalSid(sid1);
+			GrantedAuthoritySid authority = new GrantedAuthoritySid(ROLE_ADMIN);
+			assertEquals(3, service.findAclEntriesBySid(sid, null, null, 100).getContent().size());
+			
+			service.deleteAcls(aois.subList(0, 2));
+			List<AclObjectEntries> content = service.findAclEntriesBySid(sid, null, null, 100).getContent();
+			assertEquals(1, content.size());
+			assertEquals(aois.get(2).getId(), content.get(0).getObjectIdentity().getId());
+			content = service.findAclEntriesBySid(authority, null, null, 100).getContent();
+			assertEquals(1, content.size());
+			assertEquals(aois.get(2).getId(), content.get(0).getObjectIdentity().getId());
+			
+			service.deleteAcls(aois.subList(2, 3));
+			assertTrue(service.findAclEntriesBySid(sid, null, null, 100).getContent().isEmpty());
+			assertTrue(service.findAclEntriesBySid(authority, null, null, 100).getContent().isEmpty());
+		} finally {
+			service.setSidIndexEnabled(false);
+		}
+	}
+
+	@Test
+	public void testOrphanAclSweeperSidIndex() {
+		service.createAclsBySidTable();
+		service.setSidIndexEnabled(true);
+		try {
+			AclObjectIdentity aoi = createTestAOI("1", null);
+			AclObjectIdentity other = createTestAOI("2", null);
+			for (AclObjectIdentity entry : new AclObjectIdentity[] { aoi, other }) {
+				service.saveAcl(entry);
+				service.updateAcl(entry, Arrays.asList(new AclEntry[] { createTestAclEntry(sid1, 0), createTestAclEntry(ROLE_ADMIN, 1) }));
+			}
+			
+			// Remove only the object record, leaving its entries and its rows in the Sid index
+			session.execute("DELETE FROM " + KEYSPACE + ".aois WHERE id = '" + aoi.getRowId() + "'");
+			
+			OrphanAclSweeper sweeper = new OrphanAclSweeper(session);
+			sweeper.setMaxDeletesPerSecond(0);
+			sweeper.setSidIndexEnabled(true);
+			sweeper.setDryRun(true);
+			OrphanSweepReport report = sweeper.sweep();
+			assertEquals(1, report.getOrphanAclPartitions());
+			assertEquals(2, report.getDanglingSidIndexEntries());
+			assertEquals(0, report.getDeletes());
+			
+			sweeper.setDryRun(false);
+			report = sweeper.sweep();
+			assertEquals(2, report.getDanglingSidIndexEntries());
+			assertEquals(3, report.getDeletes());
+			for (Sid sid : new Sid[] { new PrincipalSid(sid1), new GrantedAuthoritySid(ROLE_ADMIN) }) {
+				List<AclObjectEntries> content = service.findAclEntriesBySid(sid, null, null, 100).getContent();
+				assertEquals(1, content.size());
+				assertEquals(other.getId(), content.get(0).getObjectIdentity().getId());
+			}
+			
+			report = sweeper.sweep();
+			assertEquals(0, report.getDeletes());
+		} finally {
+			service.setSidIndexEnabled(false);
+		}
+	}
+
+	@Test
+	public void testFindAclChildrenPaged() {
+		AclObjectIdentity root = createTestAOI("1", null);
+		AclObjectIdentity otherRoot = createTestAOI("2", null);
+		service.saveAcl(root);
+		service.saveAcl(otherRoot);
+		for (int i = 0; i < 5; i++) {
+			service.saveAcl(createTestAOI("child" + i, root));
+		}
+		service.saveAcl(createTestAOI("other", otherRoot));
+		
+		// Loading all children reads them in several pages
+		service.setChildrenPageSize(2);
+		try {
+			assertEquals(5, service.findAclObjectIdentityChildren(root).size());
+			Map<AclObjectIdentity, List<AclObjectIdentity>> allChildren = service.findChildrenOfAclObjectIdentities(
+					Arrays.asList(new AclObjectIdentity[] { root, otherRoot }));
+			assertEquals(5, allChildren.get(root).size());
+			assertEquals(1, allChildren.get(otherRoot).size());
+		} finally {
+			service.setChildrenPageSize(1000);
+		}
+		
+		List<String> childIds = new ArrayList<String>();
+		AclPage<AclObjectIdentity> page = service.findAclObjectIdentityChildren(root, null, 2);
+		assertEquals(2, page.getContent().size());
+		for (; page.hasNext(); page = service.findAclObjectIdentityChildren(root, page.getPagingState(), 2)) {
+			for (AclObjectIdentity child : page.getContent()) {
+				childIds.add(child.getId());
+			}
+		}
+		for (AclObjectIdentity child : page.getContent()) {
+			childIds.add(child.getId());
+		}
+		assertEquals(Arrays.asList(new String[] { "child0", "child1", "child2", "child3", "child4" }), childIds);
+		
+		Map<AclObjectIdentity, String> pagingStates = new LinkedHashMap<AclObjectIdentity, String>();
+		pagingStates.put(root, null);
+		pagingStates.put(otherRoot, null);
+		Map<AclObjectIdentity, AclPage<AclObjectIdentity>> pages = service.findChildrenOfAclObjectIdentities(pagingStates, 3);
+		assertEquals(3, pages.get(root).getContent().size());
+		assertTrue(pages.get(root).hasNext());
+		assertEquals(1, pages.get(otherRoot).getContent().size());
+		assertFalse(pages.get(otherRoot).hasNext());
+	}
+
 	@Test
 	public void testFindAclChildrenForAclWithNoChildren() {
 		AclObjectIdentity newAoi1 = createDefaultTestAOI();
@@ -293,6 +908,30 @@ public class CassandraAclRepositoryTest {
 		service.saveAcl(newAoi);
 	}
 
+	@Test
+	public void testSaveAclAlreadyExistingConditionally() {
+		service.setLightweightTransactionsEnabled(true);
+		try {
+			AclObjectIdentity newAoi = createDefaultTestAOI();
+			service.saveAcl(newAoi);
+			
+			AclObjectIdentity duplicateAoi = createDefaultTestAOI();
+			duplicateAoi.setOwnerId(ROLE_ADMIN);
+			duplicateAoi.setOwnerPrincipal(false);
+			try {
+				service.saveAcl(duplicateAoi);
+				fail("Expected AclAlreadyExistsException");
+			} catch (AclAlreadyExistsException e) {
+				// expected
+			}
+			
+			// The conditional insert has not overwritten the existing row
+			assertAclObjectIdentity(newAoi, service.findAclObjectIdentity(newAoi));
+		} finally {
+			service.setLightweightTransactionsEnabled(false);
+		}
+	}
+
 	@Test
 	@ExpectedException(IllegalArgumentException.class)
 	public void testDeleteNullAcl() {
@@ -308,6 +947,18 @@ public class CassandraAclRepositoryTest {
 		service.deleteAcls(Arrays.asList(new AclObjectIdentity[] { newAoi }));
 	}
 
+	@Test
+	public void testDeleteAclRemovesChildFromParent() {
+		AclObjectIdentity root = createTestAOI("1", null);
+		AclObjectIdentity child = createTestAOI("2", root);
+		service.saveAcl(root);
+		service.saveAcl(child);
+		assertEquals(1, service.findAclObjectIdentityChildren(root).size());
+		
+		service.deleteAcls(Arrays.asList(new AclObjectIdentity[] { createTestAOI("2", null) }));
+		assertTrue(service.findAclObjectIdentityChildren(root).isEmpty());
+	}
+
 	@Test
 	@ExpectedException(IllegalArgumentException.class)
 	public void testDeleteEmptyAclList() {
@@ -356,6 +1007,24 @@ public class CassandraAclRepositoryTest {
 		return newAoi;
 	}
 
+	private AclObjectIdentity createTestAOI(String id, AclObjectIdentity parent) {
+		AclObjectIdentity newAoi = createDefaultTestAOI();
+		newAoi.setId(id);
+		newAoi.setParentObjectId(parent != null ? parent.getId() : null);
+		newAoi.setParentObjectClass(parent != null ? parent.getObjectClass() : null);
+		return newAoi;
+	}
+
+	private void assertAncestors(Map<AclObjectIdentity, List<AclObjectIdentity>> result, AclObjectIdentity aoi, AclObjectIdentity... expected) {
+		List<AclObjectIdentity> ancestors = result.get(aoi);
+		assertNotNull(ancestors);
+		assertEquals(expected.length, ancestors.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i].getId(), ancestors.get(i).getId());
+			assertEquals(expected[i].getObjectClass(), ancestors.get(i).getObjectClass());
+		}
+	}
+
 	private void assertAclObjectIdentity(AclObjectIdentity expected, AclObjectIdentity actual) {
 		assertEquals(expected.getId(), actual.getId());
 		assertEquals(expected.getObjectClass(), actual.getObjectClass());
@@ -0,0 +1,181 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.repository;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.acls.cassandra.model.AclEntry;
+import org.springframework.security.acls.cassandra.model.AclObjectIdentity;
+
+/**
+ * Measures the assembly of the <code>findAcls</code> result from already converted rows, without a cluster,
+ * comparing <code>convertToAcls</code> with the nested-loop assembly it replaced, which scanned all objects
+ * for every entry. It is not matched by the surefire test patterns and has to be run explicitly, e.g.
+ * <code>mvn test -DskipTests=false -Dtest=ConvertToAclsBenchmark</code>.
+ */
+public class ConvertToAclsBenchmark {
+
+	private static final String aoi_class = "a.b.c.Class";
+	private static final int[] OBJECT_COUNTS = new int[] { 100, 1000, 2500 };
+	private static final int ENTRIES_PER_OBJECT = 10;
+	// Number of objects read by each query of the lookup
+	private static final int QUERY_SIZE = 100;
+	private static final int WARMUP_ITERATIONS = 5;
+	private static final int ITERATIONS = 20;
+
+	private List<List<AclObjectIdentity>> aoisResults;
+	private List<Map<String, List<AclEntry>>> entriesResults;
+	private Level repositoryLogLevel;
+
+	@Before
+	public void setUp() {
+		// The debug message of convertToAcls prints the whole result and would dominate the measurement
+		Logger logger = Logger.getLogger(CassandraAclRepositoryImpl.class);
+		repositoryLogLevel = logger.getLevel();
+		logger.setLevel(Level.INFO);
+		createResults(OBJECT_COUNTS[OBJECT_COUNTS.length - 1]);
+	}
+
+	@After
+	public void tearDown() {
+		Logger.getLogger(CassandraAclRepositoryImpl.class).setLevel(repositoryLogLevel);
+	}
+
+	@Test
+	public void testSameResultAsNestedLoop() {
+		Map<AclObjectIdentity, Set<AclEntry>> expected = nestedLoopConvertToAcls(aoisResults, entriesResults);
+		Map<AclObjectIdentity, Set<AclEntry>> result = CassandraAclRepositoryImpl.convertToAcls(aoisResults, entriesResults);
+		assertEquals(expected.size(), result.size());
+		for (Entry<AclObjectIdentity, Set<AclEntry>> entry : expected.entrySet()) {
+			assertEquals(new ArrayList<AclEntry>(entry.getValue()), new ArrayList<AclEntry>(result.get(entry.getKey())));
+		}
+	}
+
+	@Test
+	public void benchmarkConvertToAcls() {
+		System.out.printf("%10s %20s %20s%n", "objects", "nested loop", "convertToAcls");
+		for (int count : OBJECT_COUNTS) {
+			createResults(count);
+			double nestedLoop = measure(true);
+			double indexed = measure(false);
+			System.out.printf("%10d %17.2f ms %17.2f ms%n", count, nestedLoop, indexed);
+		}
+	}
+
+	private double measure(boolean nestedLoop) {
+		int expectedSize = 0;
+		for (List<AclObjectIdentity> aois : aoisResults) {
+			expectedSize += aois.size();
+		}
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			assertEquals(expectedSize, convert(nestedLoop).size());
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			assertEquals(expectedSize, convert(nestedLoop).size());
+		}
+		return (System.nanoTime() - start) / 1000000.0 / ITERATIONS;
+	}
+
+	private Map<AclObjectIdentity, Set<AclEntry>> convert(boolean nestedLoop) {
+		return nestedLoop ? nestedLoopConvertToAcls(aoisResults, entriesResults)
+				: CassandraAclRepositoryImpl.convertToAcls(aoisResults, entriesResults);
+	}
+
+	/**
+	 * Creates the converted results of a lookup of the provided number of objects, split in queries of
+	 * <code>QUERY_SIZE</code> objects. Entries are added in reverse order, so the sets have to sort them.
+	 */
+	private void createResults(int objectCount) {
+		aoisResults = new ArrayList<List<AclObjectIdentity>>();
+		entriesResults = new ArrayList<Map<String, List<AclEntry>>>();
+		for (int first = 0; first < objectCount; first += QUERY_SIZE) {
+			List<AclObjectIdentity> aois = new ArrayList<AclObjectIdentity>(QUERY_SIZE);
+			Map<String, List<AclEntry>> entries = new HashMap<String, List<AclEntry>>();
+			for (int i = first; i < Math.min(first + QUERY_SIZE, objectCount); i++) {
+				AclObjectIdentity aoi = new AclObjectIdentity();
+				aoi.setId(String.valueOf(i));
+				aoi.setObjectClass(aoi_class);
+				aoi.setOwnerId("owner@system");
+				aoi.setOwnerPrincipal(true);
+				aois.add(aoi);
+
+				List<AclEntry> aclEntries = new ArrayList<AclEntry>(ENTRIES_PER_OBJECT);
+				for (int order = ENTRIES_PER_OBJECT - 1; order >= 0; order--) {
+					AclEntry entry = new AclEntry();
+					entry.setSid("sid" + order + "@system");
+					entry.setSidPrincipal(true);
+					entry.setOrder(order);
+					entry.setMask(1);
+					entry.setGranting(true);
+					entry.setId(aoi.getRowId() + ":" + entry.getSid() + ":" + order);
+					aclEntries.add(entry);
+				}
+				entries.put(aoi.getRowId(), aclEntries);
+			}
+			aoisResults.add(aois);
+			entriesResults.add(entries);
+		}
+	}
+
+	/**
+	 * The assembly used before <code>convertToAcls</code> indexed the entry sets on the row id: each entry is
+	 * matched to its object by scanning the result map, and each set creates its own boxing comparator.
+	 */
+	private static Map<AclObjectIdentity, Set<AclEntry>> nestedLoopConvertToAcls(List<List<AclObjectIdentity>> aoisResults,
+			List<Map<String, List<AclEntry>>> entriesResults) {
+		Map<AclObjectIdentity, Set<AclEntry>> resultMap = new HashMap<AclObjectIdentity, Set<AclEntry>>();
+		for (List<AclObjectIdentity> aois : aoisResults) {
+			for (AclObjectIdentity aoi : aois) {
+				resultMap.put(aoi, new TreeSet<AclEntry>(new Comparator<AclEntry>() {
+
+					public int compare(AclEntry o1, AclEntry o2) {
+						return new Integer(o1.getOrder()).compareTo(o2.getOrder());
+					}
+				}));
+			}
+		}
+
+		for (Map<String, List<AclEntry>> entries : entriesResults) {
+			for (Entry<String, List<AclEntry>> rows : entries.entrySet()) {
+				String aoiId = rows.getKey();
+				for (AclEntry aclEntry : rows.getValue()) {
+					for (Entry<AclObjectIdentity, Set<AclEntry>> entry : resultMap.entrySet()) {
+						if (entry.getKey().getRowId().equals(aoiId)) {
+							entry.getValue().add(aclEntry);
+							break;
+						}
+					}
+				}
+			}
+		}
+		return resultMap;
+	}
+
+}
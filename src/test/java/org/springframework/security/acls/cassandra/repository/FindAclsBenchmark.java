@@ -0,0 +1,130 @@
+/* Copyright 2013 Rigas Grigoropoulos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.acls.cassandra.repository;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.acls.cassandra.model.AclEntry;
+import org.springframework.security.acls.cassandra.model.AclObjectIdentity;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Session;
+
+/**
+ * Measures the latency of <code>findAcls</code> for growing numbers of objects with each {@link ReadStrategy}, 
+ * to show where the crossover between them lies for a given cluster, and of a bulk lookup where 
+ * the assembly of the result dominates. The assembly alone is measured without a cluster by 
+ * {@link ConvertToAclsBenchmark}. It is not matched by the surefire 
+ * test patterns and has to be run explicitly, e.g. <code>mvn test -DskipTests=false -Dtest=FindAclsBenchmark</code>.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:/context.xml" })
+public class FindAclsBenchmark {
+
+	private static final String KEYSPACE = "SpringSecurityAclCassandra";
+	private static final String aoi_class = "a.b.c.Class";
+	private static final int[] LOOKUP_SIZES = new int[] { 1, 10, 50, 100, 250, 500, 1000 };
+	private static final int ENTRIES_PER_OBJECT = 10;
+	private static final int WARMUP_ITERATIONS = 5;
+	private static final int ITERATIONS = 20;
+
+	@Autowired
+	private CassandraAclRepositoryImpl repository;
+
+	@Autowired
+	private Cluster cluster;
+
+	private Session session;
+	private List<AclObjectIdentity> objects;
+
+	@Before
+	public void setUp() throws Exception {
+		session = cluster.connect();
+		repository.createKeyspace();
+		repository.createAoisTable();
+		repository.createAclsTable();
+		repository.createChilrenTable();
+
+		int maxSize = LOOKUP_SIZES[LOOKUP_SIZES.length - 1];
+		objects = new ArrayList<AclObjectIdentity>(maxSize);
+		for (int i = 0; i < maxSize; i++) {
+			AclObjectIdentity aoi = new AclObjectIdentity();
+			aoi.setId(String.valueOf(i));
+			aoi.setObjectClass(aoi_class);
+			aoi.setOwnerId("owner@system");
+			aoi.setOwnerPrincipal(true);
+			repository.saveAcl(aoi);
+
+			List<AclEntry> entries = new ArrayList<AclEntry>(ENTRIES_PER_OBJECT);
+			for (int order = 0; order < ENTRIES_PER_OBJECT; order++) {
+				AclEntry entry = new AclEntry();
+				entry.setSid("sid" + order + "@system");
+				entry.setSidPrincipal(true);
+				entry.setOrder(order);
+				entry.setMask(1);
+				entry.setGranting(true);
+				entries.add(entry);
+			}
+			repository.updateAcl(aoi, entries);
+			objects.add(aoi);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		repository.setReadStrategy(ReadStrategy.IN_QUERY);
+		session.execute("DROP KEYSPACE " + KEYSPACE);
+	}
+
+	@Test
+	public void benchmarkReadStrategies() {
+		System.out.printf("%10s %20s %20s%n", "objects", ReadStrategy.IN_QUERY, ReadStrategy.PARALLEL_PARTITIONS);
+		for (int size : LOOKUP_SIZES) {
+			List<AclObjectIdentity> lookup = objects.subList(0, size);
+			double inQuery = measure(ReadStrategy.IN_QUERY, lookup);
+			double parallel = measure(ReadStrategy.PARALLEL_PARTITIONS, lookup);
+			System.out.printf("%10d %17.2f ms %17.2f ms%n", size, inQuery, parallel);
+		}
+	}
+
+	@Test
+	public void benchmarkBulkLookup() {
+		System.out.printf("findAcls of %d objects with %d entries each: %.2f ms%n", objects.size(), ENTRIES_PER_OBJECT,
+				measure(ReadStrategy.IN_QUERY, objects));
+	}
+
+	private double measure(ReadStrategy readStrategy, List<AclObjectIdentity> lookup) {
+		repository.setReadStrategy(readStrategy);
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			assertEquals(lookup.size(), repository.findAcls(lookup).size());
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			assertEquals(lookup.size(), repository.findAcls(lookup).size());
+		}
+		return (System.nanoTime() - start) / 1000000.0 / ITERATIONS;
+	}
+
+}